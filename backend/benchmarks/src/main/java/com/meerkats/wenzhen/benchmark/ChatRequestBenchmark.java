@@ -0,0 +1,81 @@
+package com.meerkats.wenzhen.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 构建发给 Ollama 的 ChatRequest 并序列化为请求体，图片以 Base64 字符串内嵌在 JSON 中
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatRequestBenchmark {
+
+    /**
+     * 随消息发送的图片数，0 为纯文本问答，2 为面部和舌苔
+     */
+    @Param({"0", "2"})
+    public int images;
+
+    /**
+     * 每张图片编码前的字节数
+     */
+    @Param({"1048576"})
+    public int imageSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private List<String> encodedImages;
+    private OllamaApi.ChatRequest prebuilt;
+
+    @Setup
+    public void setUp() {
+        encodedImages = new ArrayList<>(images);
+        for (int i = 0; i < images; i++) {
+            byte[] image = new byte[imageSize];
+            ThreadLocalRandom.current().nextBytes(image);
+            encodedImages.add(Base64.getEncoder().encodeToString(image));
+        }
+        prebuilt = build();
+    }
+
+    @Benchmark
+    public OllamaApi.ChatRequest buildRequest() {
+        return build();
+    }
+
+    @Benchmark
+    public byte[] serializeRequest() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(prebuilt);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(build());
+    }
+
+    private OllamaApi.ChatRequest build() {
+        OllamaApi.Message.Builder user = OllamaApi.Message.builder(OllamaApi.Message.Role.USER)
+                .content("最近总是失眠多梦，口干，请结合面部和舌苔照片分析");
+        if (!encodedImages.isEmpty()) {
+            user.images(encodedImages);
+        }
+        return OllamaApi.ChatRequest.builder("gemma3:4b")
+                .stream(true)
+                .messages(List.of(
+                        OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM)
+                                .content("你是一个中医问诊专家").build(),
+                        user.build()))
+                .build();
+    }
+}
@@ -0,0 +1,99 @@
+package com.meerkats.wenzhen.benchmark;
+
+import com.meerkats.wenzhen.config.MediaStoreProperties;
+import com.meerkats.wenzhen.media.MediaBlob;
+import com.meerkats.wenzhen.media.MediaEncoding;
+import com.meerkats.wenzhen.media.OffHeapMediaStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片 Base64 编码：报告生成时从媒体存储流式编码，流式对话时读取上传时预先写好的 .b64 文件，
+ * 与先把整个文件读进堆再编码的做法对比。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class MediaEncodingBenchmark {
+
+    /**
+     * 图片字节数，默认 2MB 和 8MB
+     */
+    @Param({"2097152", "8388608"})
+    public int imageSize;
+
+    private byte[] image;
+    private Path dir;
+    private Path imageFile;
+    private Path encodedFile;
+    private OffHeapMediaStore mediaStore;
+    private MediaBlob blob;
+
+    @Setup
+    public void setUp() throws IOException {
+        // 随机内容模拟已压缩的图片
+        image = new byte[imageSize];
+        ThreadLocalRandom.current().nextBytes(image);
+
+        dir = Files.createTempDirectory("wenzhen-bench");
+        imageFile = Files.write(dir.resolve("face.jpg"), image);
+        encodedFile = Files.writeString(dir.resolve("face.jpg.b64"),
+                Base64.getEncoder().encodeToString(image), StandardCharsets.ISO_8859_1);
+
+        MediaStoreProperties properties = new MediaStoreProperties();
+        properties.setSpillDir(dir.resolve("spill").toString());
+        mediaStore = new OffHeapMediaStore(properties);
+        blob = mediaStore.put("bench", "faceImg", "image/jpeg", image.length, new ByteArrayInputStream(image));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mediaStore.close();
+        Files.deleteIfExists(encodedFile);
+        Files.deleteIfExists(imageFile);
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * 堆上数组一次性编码，相当于 MultipartFile.getBytes() 之后的编码
+     */
+    @Benchmark
+    public String heapArray() {
+        return Base64.getEncoder().encodeToString(image);
+    }
+
+    /**
+     * 读盘后编码，流式对话在上传时预处理之前的做法
+     */
+    @Benchmark
+    public String readFileThenEncode() throws IOException {
+        return Base64.getEncoder().encodeToString(Files.readAllBytes(imageFile));
+    }
+
+    /**
+     * 从堆外媒体存储流式编码，报告生成的做法
+     */
+    @Benchmark
+    public String streamFromMediaStore() throws IOException {
+        return MediaEncoding.base64(blob);
+    }
+
+    /**
+     * 读取预先编码好的 .b64 文件，流式对话内存缓存未命中时的做法
+     */
+    @Benchmark
+    public String readPreparedSidecar() throws IOException {
+        return Files.readString(encodedFile, StandardCharsets.ISO_8859_1);
+    }
+}
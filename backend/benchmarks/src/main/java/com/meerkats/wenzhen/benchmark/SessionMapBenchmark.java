@@ -0,0 +1,111 @@
+package com.meerkats.wenzhen.benchmark;
+
+import com.meerkats.wenzhen.chat.Conversation;
+import com.meerkats.wenzhen.chat.ConversationService;
+import com.meerkats.wenzhen.config.ConversationProperties;
+import com.meerkats.wenzhen.config.MediaStoreProperties;
+import com.meerkats.wenzhen.media.MediaBlob;
+import com.meerkats.wenzhen.media.OffHeapMediaStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话表的并发访问：{@link ConversationService} 在创建对话时写入、建立 SSE 连接时读取、结束时删除；
+ * {@link OffHeapMediaStore} 按会话写入上传文件，报告生成时读取整个会话。写入线程和读取线程同时运行。
+ * 这里只调用会话表相关的方法，ConversationService 不需要推理相关的依赖。
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionMapBenchmark {
+
+    /**
+     * 常驻的会话数
+     */
+    @Param({"1000"})
+    public int liveSessions;
+
+    private ConversationService conversations;
+    private String[] chatSessionIds;
+
+    private Path dir;
+    private OffHeapMediaStore mediaStore;
+    private String[] mediaSessionIds;
+    private byte[] media;
+
+    @Setup
+    public void setUp() throws IOException {
+        conversations = new ConversationService(new ConversationProperties(), null, null, null, null);
+        chatSessionIds = new String[liveSessions];
+        for (int i = 0; i < liveSessions; i++) {
+            chatSessionIds[i] = conversations.create("你好", List.of()).id();
+        }
+
+        dir = Files.createTempDirectory("wenzhen-bench");
+        MediaStoreProperties properties = new MediaStoreProperties();
+        properties.setSpillDir(dir.resolve("spill").toString());
+        mediaStore = new OffHeapMediaStore(properties);
+        media = new byte[16 * 1024];
+        mediaSessionIds = new String[liveSessions];
+        for (int i = 0; i < liveSessions; i++) {
+            mediaSessionIds[i] = UUID.randomUUID().toString();
+            putSession(mediaSessionIds[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mediaStore.close();
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    @Group("chatSessions")
+    @GroupThreads(2)
+    public Conversation chatSessionCreateAndRemove() {
+        Conversation conversation = conversations.create("你好", List.of());
+        conversations.remove(conversation.id());
+        return conversation;
+    }
+
+    @Benchmark
+    @Group("chatSessions")
+    @GroupThreads(6)
+    public Conversation chatSessionLookup() {
+        return conversations.get(chatSessionIds[ThreadLocalRandom.current().nextInt(liveSessions)]);
+    }
+
+    @Benchmark
+    @Group("mediaSessions")
+    @GroupThreads(2)
+    public void mediaSessionPutAndRemove() throws IOException {
+        String sessionId = UUID.randomUUID().toString();
+        putSession(sessionId);
+        mediaStore.remove(sessionId);
+    }
+
+    @Benchmark
+    @Group("mediaSessions")
+    @GroupThreads(6)
+    public Map<String, MediaBlob> mediaSessionRead() {
+        return mediaStore.getSession(mediaSessionIds[ThreadLocalRandom.current().nextInt(liveSessions)]);
+    }
+
+    private void putSession(String sessionId) throws IOException {
+        mediaStore.put(sessionId, "faceImg", "image/jpeg", media.length, new ByteArrayInputStream(media));
+        mediaStore.put(sessionId, "tongue", "image/jpeg", media.length, new ByteArrayInputStream(media));
+        mediaStore.put(sessionId, "audio", "audio/mpeg", media.length, new ByteArrayInputStream(media));
+    }
+}
@@ -0,0 +1,105 @@
+package com.meerkats.wenzhen.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SSE 事件的构建和序列化：逐个 token 发送一帧，与 SseStreamWriter 合并多个 token 后发送一帧对比。
+ * <p>
+ * 序列化按 SseEmitter 交给消息转换器的方式进行：字符串按 UTF-8 写出，其他对象写成 JSON。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseEventBenchmark {
+
+    /**
+     * 一次回答的 token 数
+     */
+    @Param({"256"})
+    public int tokens;
+
+    /**
+     * 合并为一帧的 token 数
+     */
+    @Param({"16"})
+    public int batch;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+    private String[] tokenTexts;
+
+    @Setup
+    public void setUp() {
+        String[] samples = {"舌", "质", "淡红", "，", "苔", "薄白", "，", "脉", "弦", "细", "。", "建议", "清淡", "饮食"};
+        tokenTexts = new String[tokens];
+        for (int i = 0; i < tokens; i++) {
+            tokenTexts[i] = samples[i % samples.length];
+        }
+    }
+
+    /**
+     * 每个 token 单独一个 message 事件
+     */
+    @Benchmark
+    public int eventPerToken() throws IOException {
+        out.reset();
+        for (String token : tokenTexts) {
+            write(SseEmitter.event().name("message").data(token).build());
+        }
+        return out.size();
+    }
+
+    /**
+     * 每 batch 个 token 合并为一个 message 事件
+     */
+    @Benchmark
+    public int coalescedEvents() throws IOException {
+        out.reset();
+        StringBuilder pending = new StringBuilder(64);
+        for (int i = 0; i < tokenTexts.length; i++) {
+            pending.append(tokenTexts[i]);
+            if ((i + 1) % batch == 0 || i == tokenTexts.length - 1) {
+                write(SseEmitter.event().name("message").data(pending.toString()).build());
+                pending.setLength(0);
+            }
+        }
+        return out.size();
+    }
+
+    /**
+     * 排队位置事件，数据为整数，经 JSON 序列化
+     */
+    @Benchmark
+    public void queueEvent(Blackhole blackhole) throws IOException {
+        out.reset();
+        write(SseEmitter.event().name("queue").data(3).build());
+        blackhole.consume(out.size());
+    }
+
+    private void write(Set<ResponseBodyEmitter.DataWithMediaType> frame) throws IOException {
+        for (ResponseBodyEmitter.DataWithMediaType part : frame) {
+            Object data = part.getData();
+            if (data instanceof String text) {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+            } else if (MediaType.TEXT_PLAIN.equals(part.getMediaType())) {
+                out.write(data.toString().getBytes(StandardCharsets.UTF_8));
+            } else {
+                objectMapper.writeValue(out, data);
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.meerkats.wenzhen.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 模拟 Ollama 的 /api/tags 和 /api/chat（流式与非流式），用于压测时替代真实模型。
+ * <p>
+ * 与 Ollama 一样同时只处理 parallel 个请求，其余排队；每个请求先等待 prefill 时间，
+ * 再按 tokensPerSecond 的速度输出 tokens 个 token，并按 failureRate 的概率直接返回 500。
+ * 模型未加载时先等待 load 时间，之后按请求的 keep_alive（默认 5 分钟）保持加载；不带消息的请求只加载模型。
+ * 带 format（JSON schema）的请求按 schema 输出 JSON，字符串字段同样输出 tokens 个 token；
+ * 输出达到 options.num_predict 时截断，done_reason 为 length。
+ */
+public class FakeOllamaServer implements AutoCloseable {
+
+    private static final String[] WORDS = {"舌", "质", "淡红", "，", "苔", "薄白", "，", "脉", "弦", "细", "。"};
+
+    public record Settings(Duration prefill, double tokensPerSecond, int tokens, double failureRate, int parallel,
+                           Duration load, List<String> models) {
+    }
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final Semaphore slots;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    // 各模型保持加载到的时间（nanoTime）
+    private final Map<String, Long> loadedUntil = new ConcurrentHashMap<>();
+    // 同一模型同时只加载一次，其余请求等待加载完成
+    private final Map<String, ReentrantLock> loadLocks = new ConcurrentHashMap<>();
+
+    public FakeOllamaServer(int port, Settings settings) throws IOException {
+        this.settings = settings;
+        this.slots = new Semaphore(Math.max(1, settings.parallel()), true);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/api/tags", logErrors(this::tags));
+        server.createContext("/api/chat", logErrors(this::chat));
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * 客户端在输出完成前断开的流式请求数
+     */
+    public long aborted() {
+        return aborted.get();
+    }
+
+    /**
+     * 模型冷启动加载的次数
+     */
+    public long loads() {
+        return loads.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    /**
+     * HttpServer 对处理器抛出的异常只是断开连接，不打印原因
+     */
+    private static HttpHandler logErrors(HttpHandler handler) {
+        return exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("模拟模型处理请求失败: " + e);
+                throw e;
+            }
+        };
+    }
+
+    private void tags(HttpExchange exchange) throws IOException {
+        // 不关闭 exchange 时 HttpServer 不会继续读取这个长连接上的下一个请求
+        try (exchange) {
+            ObjectNode body = objectMapper.createObjectNode();
+            settings.models().forEach(model -> body.withArray("models").addObject().put("name", model).put("model", model));
+            sendJson(exchange, 200, body);
+        }
+    }
+
+    private void chat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            String model = request.path("model").asText();
+            boolean stream = request.path("stream").asBoolean(false);
+            requests.incrementAndGet();
+            long loadNanos = load(model, request.path("keep_alive").asText("5m"));
+            if (request.path("messages").isEmpty()) {
+                sendJson(exchange, 200, message(model, "").put("done", true).put("done_reason", "load")
+                        .put("load_duration", loadNanos));
+                return;
+            }
+
+            slots.acquireUninterruptibly();
+            try {
+                sleep(settings.prefill().toNanos());
+                if (ThreadLocalRandom.current().nextDouble() < settings.failureRate()) {
+                    failures.incrementAndGet();
+                    sendJson(exchange, 500, objectMapper.createObjectNode().put("error", "模拟的推理失败"));
+                    return;
+                }
+                List<String> tokens = tokens(request.path("format"));
+                int limit = request.path("options").path("num_predict").asInt(-1);
+                boolean truncated = limit >= 0 && tokens.size() > limit;
+                if (truncated) {
+                    tokens = tokens.subList(0, limit);
+                }
+                if (stream) {
+                    streamTokens(exchange, model, loadNanos, tokens, truncated);
+                } else {
+                    sleep(generationNanos(tokens.size()));
+                    sendJson(exchange, 200, done(model, String.join("", tokens), tokens.size(), truncated)
+                            .put("load_duration", loadNanos));
+                }
+            } finally {
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * 要输出的 token：没有 schema 时为 tokens 个词；有 schema 时按属性顺序输出 JSON，
+     * 枚举取第一个值，数字为 0，字符串由 tokens 个词组成
+     */
+    private List<String> tokens(JsonNode schema) {
+        List<String> tokens = new ArrayList<>();
+        if (!schema.path("properties").isObject()) {
+            for (int i = 0; i < settings.tokens(); i++) {
+                tokens.add(WORDS[i % WORDS.length]);
+            }
+            return tokens;
+        }
+        tokens.add("{");
+        for (Map.Entry<String, JsonNode> property : schema.path("properties").properties()) {
+            if (tokens.size() > 1) {
+                tokens.add(", ");
+            }
+            tokens.add("\"" + property.getKey() + "\": ");
+            JsonNode type = property.getValue();
+            if (type.has("enum")) {
+                tokens.add(type.path("enum").get(0).toString());
+            } else if ("string".equals(type.path("type").asText())) {
+                tokens.add("\"");
+                for (int i = 0; i < settings.tokens(); i++) {
+                    tokens.add(WORDS[i % WORDS.length]);
+                }
+                tokens.add("\"");
+            } else {
+                tokens.add("0");
+            }
+        }
+        tokens.add("}");
+        return tokens;
+    }
+
+    private void streamTokens(HttpExchange exchange, String model, long loadNanos, List<String> tokens,
+                              boolean truncated) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        long tokenNanos = settings.tokensPerSecond() > 0 ? (long) (1e9 / settings.tokensPerSecond()) : 0;
+        OutputStream out = exchange.getResponseBody();
+        try {
+            for (String token : tokens) {
+                ObjectNode chunk = message(model, token).put("done", false);
+                out.write(objectMapper.writeValueAsBytes(chunk));
+                out.write('\n');
+                out.flush();
+                sleep(tokenNanos);
+            }
+            out.write(objectMapper.writeValueAsBytes(done(model, "", tokens.size(), truncated)
+                    .put("load_duration", loadNanos)));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            aborted.incrementAndGet();
+        }
+    }
+
+    /**
+     * 模型未加载时等待加载时间，返回实际等待的纳秒数；并按 keepAlive 重新计时。
+     * 计时从请求开始算起，比 Ollama 从请求结束算起略短
+     */
+    private long load(String model, String keepAlive) {
+        long start = System.nanoTime();
+        ReentrantLock lock = loadLocks.computeIfAbsent(model, m -> new ReentrantLock());
+        lock.lock();
+        try {
+            Long until = loadedUntil.get(model);
+            if (until == null || System.nanoTime() - until >= 0) {
+                loads.incrementAndGet();
+                sleep(settings.load().toNanos());
+            }
+            Duration alive = DurationStyle.detectAndParse(keepAlive);
+            loadedUntil.put(model, alive.isNegative() ? Long.MAX_VALUE : System.nanoTime() + alive.toNanos());
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private ObjectNode done(String model, String content, int evalCount, boolean truncated) {
+        return message(model, content)
+                .put("done", true)
+                .put("done_reason", truncated ? "length" : "stop")
+                .put("prompt_eval_count", 64)
+                .put("eval_count", evalCount)
+                .put("prompt_eval_duration", settings.prefill().toNanos())
+                .put("eval_duration", generationNanos(evalCount));
+    }
+
+    private ObjectNode message(String model, String content) {
+        ObjectNode node = objectMapper.createObjectNode()
+                .put("model", model)
+                .put("created_at", "2025-01-01T00:00:00Z");
+        node.putObject("message").put("role", "assistant").put("content", content);
+        return node;
+    }
+
+    private long generationNanos(int tokens) {
+        return settings.tokensPerSecond() > 0 ? (long) (tokens * 1e9 / settings.tokensPerSecond()) : 0;
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
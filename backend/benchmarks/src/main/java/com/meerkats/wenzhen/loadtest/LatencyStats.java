@@ -0,0 +1,67 @@
+package com.meerkats.wenzhen.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一个场景的结果：成功请求的总耗时和首字延迟，失败请求按原因计数
+ */
+class LatencyStats {
+
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+    private long[] ttfts = new long[1024];
+    private int ttftCount;
+    private final Map<String, Integer> errors = new TreeMap<>();
+
+    synchronized void success(long latencyNanos, long ttftNanos) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencyCount * 2);
+        }
+        latencies[latencyCount++] = latencyNanos;
+        if (ttftNanos >= 0) {
+            if (ttftCount == ttfts.length) {
+                ttfts = Arrays.copyOf(ttfts, ttftCount * 2);
+            }
+            ttfts[ttftCount++] = ttftNanos;
+        }
+    }
+
+    synchronized void failure(String reason) {
+        errors.merge(reason, 1, Integer::sum);
+    }
+
+    synchronized int successes() {
+        return latencyCount;
+    }
+
+    synchronized int failures() {
+        return errors.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    synchronized Map<String, Integer> errors() {
+        return new TreeMap<>(errors);
+    }
+
+    /**
+     * @return 毫秒，没有样本时为 NaN
+     */
+    synchronized double latencyPercentile(double percentile) {
+        return percentile(latencies, latencyCount, percentile);
+    }
+
+    synchronized double ttftPercentile(double percentile) {
+        return percentile(ttfts, ttftCount, percentile);
+    }
+
+    private static double percentile(long[] values, int count, double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.clamp(index, 0, count - 1)] / 1e6;
+    }
+}
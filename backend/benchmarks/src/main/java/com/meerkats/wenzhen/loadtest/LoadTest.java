@@ -0,0 +1,455 @@
+package com.meerkats.wenzhen.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.WenzhenApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 端到端压测：以固定数量的虚拟用户循环发起请求，按权重混合各场景，统计吞吐、延迟分位数、首字延迟，
+ * 并定时从 /actuator/prometheus 采样堆内存和线程数。
+ * <p>
+ * 不指定 --target 时在本进程内启动应用，模型由 {@link FakeOllamaServer} 模拟，结果缓存默认关闭；
+ * 此时堆内存包含压测端自身的占用，需要精确数据时单独启动应用并用 --target 指向它。
+ * <p>
+ * 例：java -cp target/benchmarks.jar com.meerkats.wenzhen.loadtest.LoadTest --concurrency=32 --duration=2m
+ * <ul>
+ *     <li>--target：被测应用地址，默认在本进程内启动</li>
+ *     <li>--concurrency：虚拟用户数，默认 16；--duration：压测时长，默认 60s；--warmup：不计入结果的预热时间，默认 10s</li>
+ *     <li>--think：每个用户两次请求之间的间隔，默认 0</li>
+ *     <li>--mix：场景权重，默认 chat=1,chat-stream=3,stream-chat=3,upload=1</li>
+ *     <li>--ollama.prefill、--ollama.tokens-per-second、--ollama.tokens、--ollama.failure-rate、--ollama.parallel、
+ *     --ollama.load：模拟模型的参数</li>
+ *     <li>--app.*：传给内嵌应用的配置，如 --app.inference.scheduler.max-queue-length=128</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private static final String QUESTION = "最近总是失眠多梦，口干舌燥，该如何调理？";
+
+    private enum Scenario {
+        CHAT("chat"),
+        CHAT_STREAM("chat-stream"),
+        STREAM_CHAT("stream-chat"),
+        UPLOAD("upload");
+
+        final String key;
+
+        Scenario(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 请求失败，reason 用于分类计数
+     */
+    private static final class Failure extends Exception {
+        Failure(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private record Part(String name, String filename, String contentType, byte[] data) {
+    }
+
+    private final String target;
+    private final Map<String, String> options;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Scenario, LatencyStats> stats = new EnumMap<>(Scenario.class);
+    private final Map<Scenario, Integer> weights = new EnumMap<>(Scenario.class);
+    private final Duration requestTimeout;
+    private final List<byte[]> images = new ArrayList<>();
+    private final byte[] audio;
+
+    private final AtomicLong heapMax = new AtomicLong();
+    private final AtomicLong heapLast = new AtomicLong();
+    private final AtomicLong threadsMax = new AtomicLong();
+    private final AtomicLong sseMax = new AtomicLong();
+    private volatile long measureFrom;
+    private volatile boolean running = true;
+
+    private LoadTest(String target, Map<String, String> options) throws IOException {
+        this.target = target;
+        this.options = options;
+        this.requestTimeout = duration("timeout", "180s");
+        for (Scenario scenario : Scenario.values()) {
+            stats.put(scenario, new LatencyStats());
+        }
+        for (String entry : options.getOrDefault("mix", "chat=1,chat-stream=3,stream-chat=3,upload=1").split(",")) {
+            String[] kv = entry.split("=");
+            Scenario scenario = Arrays.stream(Scenario.values()).filter(s -> s.key.equals(kv[0].trim())).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("未知场景: " + kv[0]));
+            weights.put(scenario, Integer.parseInt(kv[1].trim()));
+        }
+        // 每个用户轮流使用几张不同的图片，避免每次上传完全相同
+        int size = Integer.parseInt(options.getOrDefault("image-size", "1280"));
+        for (int i = 0; i < Integer.parseInt(options.getOrDefault("images", "8")); i++) {
+            images.add(jpeg(size, size * 3 / 4));
+        }
+        audio = new byte[Integer.parseInt(options.getOrDefault("audio-size", "262144"))];
+        ThreadLocalRandom.current().nextBytes(audio);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("参数格式应为 --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        FakeOllamaServer ollama = null;
+        ConfigurableApplicationContext app = null;
+        String target = options.get("target");
+        try {
+            if (target == null) {
+                ollama = new FakeOllamaServer(Integer.parseInt(options.getOrDefault("ollama.port", "0")),
+                        new FakeOllamaServer.Settings(
+                                DurationStyle.detectAndParse(options.getOrDefault("ollama.prefill", "300ms")),
+                                Double.parseDouble(options.getOrDefault("ollama.tokens-per-second", "40")),
+                                Integer.parseInt(options.getOrDefault("ollama.tokens", "200")),
+                                Double.parseDouble(options.getOrDefault("ollama.failure-rate", "0")),
+                                Integer.parseInt(options.getOrDefault("ollama.parallel", "4")),
+                                DurationStyle.detectAndParse(options.getOrDefault("ollama.load", "0ms")),
+                                List.of(options.getOrDefault("ollama.models", "gemma3:4b,qwen3:8b").split(","))));
+                app = startApp(ollama.port(), options);
+                target = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port");
+            }
+            new LoadTest(target, options).run(ollama);
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+            if (ollama != null) {
+                ollama.close();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext startApp(int ollamaPort, Map<String, String> options) throws IOException {
+        Path workDir = Files.createTempDirectory("wenzhen-loadtest");
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.ai.ollama.base-url", "http://127.0.0.1:" + ollamaPort);
+        properties.put("media.upload.dir", workDir.resolve("uploads").toString());
+        properties.put("media.store.spill-dir", workDir.resolve("media").toString());
+        // 压测用的图片和问题会重复，缓存命中会让结果偏乐观
+        properties.put("inference.cache.enabled", "false");
+        // 虚拟用户都来自本机，按客户端限流会让结果只反映限流配置；测试限流时用 --app.admission.enabled=true
+        properties.put("admission.enabled", "false");
+        properties.put("spring.main.banner-mode", "off");
+        properties.put("logging.level.com.meerkats.wenzhen", "WARN");
+        options.forEach((key, value) -> {
+            if (key.startsWith("app.")) {
+                properties.put(key.substring(4), value);
+            }
+        });
+        // 以命令行参数传入，优先于 application.yml
+        return new SpringApplicationBuilder(WenzhenApplication.class).run(properties.entrySet().stream()
+                .map(entry -> "--" + entry.getKey() + "=" + entry.getValue()).toArray(String[]::new));
+    }
+
+    private void run(FakeOllamaServer ollama) throws InterruptedException {
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        Duration warmup = duration("warmup", "10s");
+        Duration duration = duration("duration", "60s");
+        Duration think = duration("think", "0s");
+        System.out.printf("目标 %s，%d 个并发用户，预热 %ds，压测 %ds，场景权重 %s%n",
+                target, concurrency, warmup.toSeconds(), duration.toSeconds(), weights);
+
+        long start = System.nanoTime();
+        measureFrom = start + warmup.toNanos();
+        long deadline = measureFrom + duration.toNanos();
+
+        Thread sampler = Thread.ofVirtual().name("loadtest-sampler").start(() -> {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        List<Thread> users = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            int user = i;
+            users.add(Thread.ofVirtual().name("loadtest-user-" + i).start(() -> {
+                while (System.nanoTime() < deadline) {
+                    execute(pick(), user);
+                    if (!think.isZero()) {
+                        try {
+                            Thread.sleep(think);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread user : users) {
+            user.join();
+        }
+        long measured = System.nanoTime() - measureFrom;
+        running = false;
+        sampler.join();
+        report(measured, ollama);
+    }
+
+    private void execute(Scenario scenario, int user) {
+        long start = System.nanoTime();
+        try {
+            long ttft = switch (scenario) {
+                case CHAT -> chat();
+                case CHAT_STREAM -> sse("/chat-stream?message=" + URLEncoder.encode(QUESTION, StandardCharsets.UTF_8));
+                case STREAM_CHAT -> streamChat(user);
+                case UPLOAD -> upload(user);
+            };
+            if (start >= measureFrom) {
+                stats.get(scenario).success(System.nanoTime() - start, ttft);
+            }
+        } catch (Failure e) {
+            if (start >= measureFrom) {
+                stats.get(scenario).failure(e.getMessage());
+            }
+        } catch (IOException e) {
+            if (start >= measureFrom) {
+                stats.get(scenario).failure(e.getClass().getSimpleName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long chat() throws IOException, InterruptedException, Failure {
+        HttpResponse<Void> response = client.send(request("/chat")
+                .header("Content-Type", "text/plain;charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(QUESTION)).build(), HttpResponse.BodyHandlers.discarding());
+        expectOk(response.statusCode());
+        return -1;
+    }
+
+    /**
+     * 图片问诊：上传一张图片，创建会话，再读取流式回答；首字延迟从打开流开始计算
+     */
+    private long streamChat(int user) throws IOException, InterruptedException, Failure {
+        String boundary = UUID.randomUUID().toString();
+        JsonNode uploaded = json(client.send(request("/api/upload")
+                        .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                        .POST(multipart(boundary, List.of(new Part("file", "tongue.jpg", "image/jpeg", image(user)))))
+                        .build(), HttpResponse.BodyHandlers.ofByteArray()));
+        Map<String, Object> session = Map.of("message", QUESTION, "images", List.of(uploaded.path("url").asText()));
+        JsonNode created = json(client.send(request("/api/chat/session")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(session)))
+                .build(), HttpResponse.BodyHandlers.ofByteArray()));
+        return sse("/api/chat/stream?sessionId=" + created.path("sessionId").asText());
+    }
+
+    /**
+     * 完整的望闻问切上传，同步等待报告生成
+     */
+    private long upload(int user) throws IOException, InterruptedException, Failure {
+        String boundary = UUID.randomUUID().toString();
+        JsonNode body = json(client.send(request("/upload")
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(multipart(boundary, List.of(
+                        new Part("faceImg", "face.jpg", "image/jpeg", image(user)),
+                        new Part("tongue", "tongue.jpg", "image/jpeg", image(user + 1)),
+                        new Part("audio", "voice.mp3", "audio/mpeg", audio))))
+                .build(), HttpResponse.BodyHandlers.ofByteArray()));
+        if (!"success".equals(body.path("status").asText())) {
+            throw new Failure("报告状态 " + body.path("status").asText());
+        }
+        return -1;
+    }
+
+    /**
+     * 读取 SSE 流直到 complete 事件
+     *
+     * @return 首字延迟，纳秒
+     */
+    private long sse(String path) throws IOException, InterruptedException, Failure {
+        long start = System.nanoTime();
+        HttpResponse<Stream<String>> response = client.send(request(path)
+                .header("Accept", "text/event-stream").GET().build(), HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> lines = response.body()) {
+            expectOk(response.statusCode());
+            long ttft = -1;
+            String event = null;
+            for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+                String line = it.next();
+                if (line.isEmpty()) {
+                    event = null;
+                } else if (line.startsWith("event:")) {
+                    event = line.substring("event:".length()).trim();
+                    if ("complete".equals(event)) {
+                        return ttft;
+                    }
+                } else if (line.startsWith("data:") && ttft < 0 && (event == null || "message".equals(event))) {
+                    ttft = System.nanoTime() - start;
+                }
+            }
+            throw new Failure("流提前结束");
+        }
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(target + path)).timeout(requestTimeout);
+    }
+
+    private JsonNode json(HttpResponse<byte[]> response) throws IOException, Failure {
+        expectOk(response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private static void expectOk(int status) throws Failure {
+        if (status != 200) {
+            throw new Failure("HTTP " + status);
+        }
+    }
+
+    private static HttpRequest.BodyPublisher multipart(String boundary, List<Part> parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Part part : parts) {
+            out.write(("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + part.name() + "\"; filename=\"" + part.filename() + "\"\r\n"
+                    + "Content-Type: " + part.contentType() + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(part.data());
+            out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return HttpRequest.BodyPublishers.ofByteArray(out.toByteArray());
+    }
+
+    private Scenario pick() {
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        int value = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<Scenario, Integer> entry : weights.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private byte[] image(int index) {
+        return images.get(Math.floorMod(index, images.size()));
+    }
+
+    /**
+     * 生成一张带渐变和噪点的 JPEG，大小接近手机拍摄后压缩的照片
+     */
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int base = random.nextInt(0x1000000);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = ((base >> 16 & 0xff) + x * 128 / width + noise) & 0xff;
+                int g = ((base >> 8 & 0xff) + y * 128 / height + noise) & 0xff;
+                int b = ((base & 0xff) + noise) & 0xff;
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 从 /actuator/prometheus 读取堆内存、线程数和活跃 SSE 流数
+     */
+    private void sample() {
+        try {
+            HttpResponse<Stream<String>> response = client.send(request("/actuator/prometheus").GET().build(),
+                    HttpResponse.BodyHandlers.ofLines());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                return;
+            }
+            long heap = 0;
+            try (Stream<String> lines = response.body()) {
+                for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+                    String line = it.next();
+                    if (line.startsWith("jvm_memory_used_bytes{") && line.contains("area=\"heap\"")) {
+                        heap += value(line);
+                    } else if (line.startsWith("jvm_threads_live_threads")) {
+                        threadsMax.accumulateAndGet(value(line), Math::max);
+                    } else if (line.startsWith("wenzhen_sse_active")) {
+                        sseMax.accumulateAndGet(value(line), Math::max);
+                    }
+                }
+            }
+            heapLast.set(heap);
+            heapMax.accumulateAndGet(heap, Math::max);
+        } catch (IOException e) {
+            // 采样失败不影响压测
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long value(String line) {
+        return (long) Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+    }
+
+    private void report(long measuredNanos, FakeOllamaServer ollama) {
+        double seconds = measuredNanos / 1e9;
+        System.out.println();
+        System.out.printf("%-12s %8s %8s %10s %10s %10s %10s %10s%n",
+                "scenario", "ok", "failed", "req/s", "p50 ms", "p99 ms", "ttft p50", "ttft p99");
+        int ok = 0;
+        int failed = 0;
+        for (Scenario scenario : weights.keySet()) {
+            LatencyStats s = stats.get(scenario);
+            ok += s.successes();
+            failed += s.failures();
+            System.out.printf("%-12s %8d %8d %10.2f %10.0f %10.0f %10.0f %10.0f%n", scenario.key,
+                    s.successes(), s.failures(), s.successes() / seconds,
+                    s.latencyPercentile(50), s.latencyPercentile(99), s.ttftPercentile(50), s.ttftPercentile(99));
+        }
+        System.out.printf("%-12s %8d %8d %10.2f%n", "total", ok, failed, ok / seconds);
+        for (Scenario scenario : weights.keySet()) {
+            stats.get(scenario).errors().forEach((reason, count) ->
+                    System.out.printf("失败 %s: %s × %d%n", scenario.key, reason, count));
+        }
+        System.out.printf("堆内存峰值 %d MB（结束时 %d MB），线程峰值 %d，SSE 流峰值 %d%n",
+                heapMax.get() >> 20, heapLast.get() >> 20, threadsMax.get(), sseMax.get());
+        if (ollama != null) {
+            System.out.printf("模拟模型收到 %d 个请求，其中 %d 个模拟失败，%d 个流式输出被客户端中断，模型冷启动加载 %d 次%n",
+                    ollama.requests(), ollama.failures(), ollama.aborted(), ollama.loads());
+        }
+    }
+
+    private Duration duration(String name, String defaultValue) {
+        return DurationStyle.detectAndParse(options.getOrDefault(name, defaultValue));
+    }
+}
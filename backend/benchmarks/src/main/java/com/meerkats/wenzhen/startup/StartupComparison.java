@@ -0,0 +1,192 @@
+package com.meerkats.wenzhen.startup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * 比较应用几种启动方式的就绪时间和内存占用：普通 JVM、AppCDS（backend 的 cds profile 生成）和原生镜像
+ * （native profile 生成），没有构建的方式跳过。
+ * <p>
+ * 每种方式启动 runs 次，从创建进程开始计时，到 /actuator/health/readiness 返回 200 为止，取中位数；
+ * 就绪时读取进程的常驻内存（Linux 的 /proc/{pid}/status 中的 VmRSS）。启动时关闭模型预热，只测应用本身。
+ * <p>
+ * 例：java -cp target/benchmarks.jar com.meerkats.wenzhen.startup.StartupComparison --app-dir=../target --runs=5
+ */
+public final class StartupComparison {
+
+    private record Mode(String name, Path workDir, List<String> command) {
+    }
+
+    private record Sample(long readyMillis, long rssKb) {
+    }
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    private final Duration timeout;
+
+    private StartupComparison(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("参数格式应为 --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        Path appDir = Path.of(options.getOrDefault("app-dir", "../target")).toAbsolutePath().normalize();
+        int runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+        StartupComparison comparison = new StartupComparison(
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout-seconds", "60"))));
+
+        List<Mode> modes = modes(appDir);
+        if (modes.isEmpty()) {
+            System.out.println("在 " + appDir + " 下没有找到可执行 jar，先在 backend 目录执行 mvn package");
+            return;
+        }
+        System.out.printf("%-10s %14s %14s%n", "mode", "ready p50(ms)", "rss p50(MB)");
+        for (Mode mode : modes) {
+            List<Sample> samples = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                samples.add(comparison.start(mode));
+            }
+            System.out.printf("%-10s %14d %14s%n", mode.name(),
+                    median(samples.stream().mapToLong(Sample::readyMillis).toArray()),
+                    samples.getFirst().rssKb() < 0 ? "-"
+                            : String.valueOf(median(samples.stream().mapToLong(Sample::rssKb).toArray()) >> 10));
+        }
+    }
+
+    private static List<Mode> modes(Path appDir) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<Mode> modes = new ArrayList<>();
+        Path jar = bootJar(appDir);
+        if (jar != null) {
+            modes.add(new Mode("jvm", appDir, List.of(java, "-jar", jar.toString())));
+        }
+        Path cdsDir = appDir.resolve("cds");
+        Path cdsJar = bootJar(cdsDir);
+        if (cdsJar != null && Files.exists(cdsDir.resolve("application.jsa"))) {
+            List<String> command = new ArrayList<>(List.of(java, "-XX:SharedArchiveFile=application.jsa"));
+            boolean aot = aotProcessed(cdsJar);
+            if (aot) {
+                command.add("-Dspring.aot.enabled=true");
+            }
+            command.addAll(List.of("-jar", cdsJar.getFileName().toString()));
+            modes.add(new Mode(aot ? "cds+aot" : "cds", cdsDir, command));
+        }
+        Path nativeImage = appDir.resolve("wenzhen");
+        if (Files.isExecutable(nativeImage) && Files.isRegularFile(nativeImage)) {
+            modes.add(new Mode("native", appDir, List.of(nativeImage.toString())));
+        }
+        return modes;
+    }
+
+    private static Path bootJar(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            // 排除供 benchmarks 依赖的 -classes.jar
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("wenzhen-.*\\.jar") && !name.endsWith("-classes.jar"))
+                    .map(dir::resolve)
+                    .findFirst().orElse(null);
+        }
+    }
+
+    /**
+     * 与 native profile 一起构建的 jar 带有 AOT 生成的代码，JVM 上也可以用来加快启动
+     */
+    private static boolean aotProcessed(Path jar) throws IOException {
+        try (JarFile file = new JarFile(jar.toFile())) {
+            return "true".equals(file.getManifest().getMainAttributes().getValue("Spring-Boot-Native-Processed"));
+        }
+    }
+
+    private Sample start(Mode mode) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>(mode.command());
+        command.add("--server.port=" + port);
+        command.add("--inference.warmup.enabled=false");
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(mode.workDir().toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            URI readiness = URI.create("http://127.0.0.1:" + port + "/actuator/health/readiness");
+            long deadline = start + timeout.toNanos();
+            while (!ready(readiness)) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(mode.name() + " 启动失败，退出码 " + process.exitValue());
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IllegalStateException(mode.name() + " 在 " + timeout + " 内没有就绪");
+                }
+                Thread.sleep(10);
+            }
+            long readyMillis = (System.nanoTime() - start) / 1_000_000;
+            return new Sample(readyMillis, rssKb(process.pid()));
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    private boolean ready(URI uri) {
+        try {
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(1)).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 进程的常驻内存，非 Linux 系统返回 -1
+     */
+    private static long rssKb(long pid) throws IOException {
+        Path status = Path.of("/proc", String.valueOf(pid), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        }
+        return -1;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long median(long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
@@ -5,4 +5,19 @@ public class Models {
     public static final String QWEN3_8B = "qwen3:8b";
     public static final String GEMMA3_4B = "gemma3:4b";
 
+    /**
+     * gemma3 视觉编码器的原生输入边长，更大的图片在模型内部也会被缩放到这个尺寸
+     */
+    public static final int GEMMA3_4B_IMAGE_SIZE = 896;
+
+    /**
+     * 模型默认的图片目标边长，可在 media.image.target-size 中按模型覆盖
+     */
+    public static int defaultImageSize(String model) {
+        return switch (model) {
+            case GEMMA3_4B -> GEMMA3_4B_IMAGE_SIZE;
+            default -> 1024;
+        };
+    }
+
 }
@@ -1,9 +1,16 @@
 package com.meerkats.wenzhen;
 
+import com.meerkats.wenzhen.config.NativeRuntimeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
+@EnableScheduling
+@ImportRuntimeHints(NativeRuntimeHints.class)
 public class WenzhenApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,281 @@
+package com.meerkats.wenzhen.admission;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.AdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.cors.CorsUtils;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 推理接口的准入控制，在请求进入控制器、创建 SSE 流和虚拟线程之前执行：
+ * <ul>
+ *     <li>每个客户端每个接口一个令牌桶，限制请求速率和突发数</li>
+ *     <li>每个客户端同时进行的请求数</li>
+ *     <li>全局同时处理的推理请求数和 SSE 流数</li>
+ * </ul>
+ * 超出时直接返回 429 和 Retry-After，不让过载的请求排队把所有人的延迟拖到超时。
+ * 名额在请求结束时归还，SSE 等异步请求在异步处理完成（正常结束、超时或出错）时归还。
+ * <p>
+ * 作为拦截器注册而不是过滤器，CORS 处理在前，跨域客户端也能读到 429 响应。
+ */
+@Component
+public class AdmissionControl implements AsyncHandlerInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControl.class);
+
+    private static final String TICKET = AdmissionControl.class.getName() + ".ticket";
+
+    private final AdmissionProperties properties;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final List<Rule> rules = new ArrayList<>();
+    private final Map<ClientKey, ClientState> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger streams = new AtomicInteger();
+
+    public AdmissionControl(AdmissionProperties properties, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        properties.getEndpoints().forEach((name, endpoint) -> rules.add(new Rule(name, endpoint,
+                endpoint.getPaths().stream().map(PathPatternParser.defaultInstance::parse).toList())));
+
+        Gauge.builder("wenzhen.admission.in.flight", inFlight, AtomicInteger::get)
+                .description("已准入、尚未结束的推理请求数")
+                .register(meterRegistry);
+        Gauge.builder("wenzhen.admission.streams", streams, AtomicInteger::get)
+                .description("已准入、尚未结束的 SSE 流数")
+                .register(meterRegistry);
+        Gauge.builder("wenzhen.admission.clients", clients, Map::size)
+                .description("正在跟踪的客户端令牌桶数")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        // 异步请求完成后的再次分派不重复计数
+        if (!properties.isEnabled() || request.getDispatcherType() != DispatcherType.REQUEST
+                || CorsUtils.isPreFlightRequest(request)) {
+            return true;
+        }
+        Rule rule = match(request);
+        if (rule == null) {
+            return true;
+        }
+        String client = clientId(request);
+        Rejection rejection = admit(rule, client, request);
+        if (rejection == null) {
+            return true;
+        }
+        rejected(rule, rejection.reason()).increment();
+        log.debug("拒绝请求 {} {}: {}", rule.name(), client, rejection.reason());
+        long retryAfter = Math.max(1, (long) Math.ceil(rejection.retryAfterNanos() / 1e9));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        objectMapper.writeValue(response.getOutputStream(), Map.of("error", rejection.message(),
+                "retryAfter", retryAfter));
+        return false;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        Ticket ticket = (Ticket) request.getAttribute(TICKET);
+        if (ticket == null) {
+            return;
+        }
+        // 连接断开、超时时不一定再次分派到 DispatcherServlet，以容器的异步完成事件为准
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                ticket.release();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                ticket.release();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                ticket.release();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Ticket ticket = (Ticket) request.getAttribute(TICKET);
+        if (ticket != null) {
+            ticket.release();
+        }
+    }
+
+    /**
+     * 依次检查全局上限、客户端并发和令牌桶，任一不满足时撤回已占用的名额
+     *
+     * @return 通过时返回 null，并把名额记在请求属性上
+     */
+    Rejection admit(Rule rule, String client, HttpServletRequest request) {
+        AdmissionProperties.Endpoint endpoint = rule.endpoint();
+        long busyRetryAfter = properties.getBusyRetryAfter().toNanos();
+        Ticket ticket = new Ticket();
+        if (endpoint.isInference()) {
+            ticket.inFlight = true;
+            if (inFlight.incrementAndGet() > properties.getMaxInFlight()) {
+                ticket.release();
+                return new Rejection("in_flight", "服务繁忙，请稍后重试", busyRetryAfter);
+            }
+        }
+        if (endpoint.isStream()) {
+            ticket.stream = true;
+            if (streams.incrementAndGet() > properties.getMaxStreams()) {
+                ticket.release();
+                return new Rejection("streams", "服务繁忙，请稍后重试", busyRetryAfter);
+            }
+        }
+
+        long now = System.nanoTime();
+        ClientState state = clients.computeIfAbsent(new ClientKey(rule.name(), client),
+                key -> new ClientState(new TokenBucket(endpoint.getBurst(), endpoint.getRate(), now)));
+        if (endpoint.getMaxPerClient() > 0) {
+            ticket.client = state;
+            if (state.active.incrementAndGet() > endpoint.getMaxPerClient()) {
+                ticket.release();
+                return new Rejection("client_concurrency", "同时进行的请求过多，请等待当前回答结束", busyRetryAfter);
+            }
+        }
+        long wait = state.bucket.tryAcquire(now);
+        if (wait > 0) {
+            ticket.release();
+            return new Rejection("rate", "请求过于频繁，请稍后重试", wait);
+        }
+        request.setAttribute(TICKET, ticket);
+        return null;
+    }
+
+    /**
+     * 丢弃没有进行中请求、令牌已补满的客户端状态
+     */
+    @Scheduled(fixedDelayString = "${admission.cleanup-interval-ms:60000}")
+    public void evictIdleClients() {
+        long now = System.nanoTime();
+        clients.values().removeIf(state -> state.active.get() == 0 && state.bucket.full(now));
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    int streams() {
+        return streams.get();
+    }
+
+    Rule match(HttpServletRequest request) {
+        PathContainer path = PathContainer.parsePath(request.getRequestURI().substring(request.getContextPath().length()));
+        for (Rule rule : rules) {
+            for (PathPattern pattern : rule.patterns()) {
+                if (pattern.matches(path)) {
+                    return rule;
+                }
+            }
+        }
+        return null;
+    }
+
+    String clientId(HttpServletRequest request) {
+        String header = properties.getClientHeader();
+        if (StringUtils.hasText(header)) {
+            String value = request.getHeader(header);
+            if (StringUtils.hasText(value)) {
+                // 代理追加在末尾，前面的值可由客户端伪造
+                return value.substring(value.lastIndexOf(',') + 1).strip();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private Counter rejected(Rule rule, String reason) {
+        return Counter.builder("wenzhen.admission.rejected")
+                .description("准入控制拒绝的请求数")
+                .tags("endpoint", rule.name(), "reason", reason)
+                .register(meterRegistry);
+    }
+
+    record Rule(String name, AdmissionProperties.Endpoint endpoint, List<PathPattern> patterns) {
+    }
+
+    record Rejection(String reason, String message, long retryAfterNanos) {
+    }
+
+    private record ClientKey(String endpoint, String client) {
+    }
+
+    private static final class ClientState {
+        final TokenBucket bucket;
+        final AtomicInteger active = new AtomicInteger();
+
+        ClientState(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * 一个请求占用的名额，只归还实际占用的部分，重复归还无副作用
+     */
+    private final class Ticket {
+        private final AtomicBoolean released = new AtomicBoolean();
+        boolean inFlight;
+        boolean stream;
+        ClientState client;
+
+        void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            if (inFlight) {
+                AdmissionControl.this.inFlight.decrementAndGet();
+            }
+            if (stream) {
+                streams.decrementAndGet();
+            }
+            if (client != null) {
+                client.active.decrementAndGet();
+            }
+        }
+    }
+}
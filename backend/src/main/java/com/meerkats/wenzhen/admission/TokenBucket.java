@@ -0,0 +1,44 @@
+package com.meerkats.wenzhen.admission;
+
+/**
+ * 令牌桶：按固定速率补充令牌，桶满后不再增加，每个请求消耗一个
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(int capacity, double tokensPerSecond, long now) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.tokens = this.capacity;
+        this.refilledAt = now;
+    }
+
+    /**
+     * 尝试取一个令牌
+     *
+     * @return 0 表示成功；否则为还需等待的纳秒数
+     */
+    synchronized long tryAcquire(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        if (tokensPerNano <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * 桶已补满，丢弃后重新创建没有区别
+     */
+    synchronized boolean full(long now) {
+        return tokens + (now - refilledAt) * tokensPerNano >= capacity;
+    }
+}
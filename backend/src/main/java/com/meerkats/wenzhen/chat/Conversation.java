@@ -0,0 +1,53 @@
+package com.meerkats.wenzhen.chat;
+
+import com.meerkats.wenzhen.inference.OllamaRouter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个多轮对话：较早的对话已压缩为摘要，之后的对话保留原文，另有一条等待回答的问题。
+ * <p>
+ * 状态由 {@link ConversationService} 在本对象的锁内修改。
+ */
+public class Conversation {
+
+    /**
+     * 一轮问答，images 为上传时返回的图片地址，只在提出该问题的那一轮出现
+     */
+    record Turn(String question, List<String> images, String answer) {
+    }
+
+    private final String id;
+    private final OllamaRouter.Affinity affinity = new OllamaRouter.Affinity();
+
+    // 首轮选定后固定不变，换模型会使已缓存的前缀失效
+    String model;
+    String systemPrompt;
+    String summary;
+    final List<Turn> turns = new ArrayList<>();
+    String pendingQuestion;
+    List<String> pendingImages = List.of();
+    boolean answering;
+    boolean summarizing;
+    volatile long lastAccess = System.nanoTime();
+
+    Conversation(String id) {
+        this.id = id;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    /**
+     * 同一会话的请求尽量发往同一 Ollama 节点
+     */
+    public OllamaRouter.Affinity affinity() {
+        return affinity;
+    }
+
+    public synchronized int turnCount() {
+        return turns.size();
+    }
+}
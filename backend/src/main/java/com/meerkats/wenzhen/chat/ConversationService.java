@@ -0,0 +1,316 @@
+package com.meerkats.wenzhen.chat;
+
+import com.meerkats.wenzhen.config.ConversationProperties;
+import com.meerkats.wenzhen.inference.InferenceScheduler;
+import com.meerkats.wenzhen.inference.OllamaRouter;
+import com.meerkats.wenzhen.inference.Workload;
+import com.meerkats.wenzhen.media.PreparedImageStore;
+import com.meerkats.wenzhen.media.UploadStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 多轮对话。
+ * <p>
+ * Ollama 的 /api/chat 不返回可复用的 context，但同一节点上模型常驻时会复用与上次请求相同的提示词前缀，
+ * 不再重新计算。因此每轮请求都按相同顺序发送系统提示词、摘要和历史对话，会话固定使用首轮选定的模型并尽量发往同一节点，
+ * 模型在两轮之间由 inference.warmup.keep-alive 保持加载；这样追问时只需计算新增的问题，图片也只在第一次出现时计算。
+ * <p>
+ * 历史超出 token 预算时，在后台把较早的对话压缩进摘要，只保留最近几轮原文；摘要完成前超出预算的较早对话暂不发送。
+ * 摘要变化会使前缀失效一次，之后的追问重新命中。
+ */
+@Component
+public class ConversationService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationService.class);
+
+    private static final String SYSTEM_PROMPT = "你是一个中医问诊专家";
+
+    private final ConversationProperties properties;
+    private final OllamaRouter ollamaRouter;
+    private final InferenceScheduler inferenceScheduler;
+    private final PreparedImageStore preparedImageStore;
+    private final UploadStore uploadStore;
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+
+    public ConversationService(ConversationProperties properties, OllamaRouter ollamaRouter,
+                               InferenceScheduler inferenceScheduler, PreparedImageStore preparedImageStore,
+                               UploadStore uploadStore) {
+        this.properties = properties;
+        this.ollamaRouter = ollamaRouter;
+        this.inferenceScheduler = inferenceScheduler;
+        this.preparedImageStore = preparedImageStore;
+        this.uploadStore = uploadStore;
+    }
+
+    /**
+     * 创建会话，第一个问题等待 {@link #beginTurn} 回答
+     */
+    public Conversation create(String question, List<String> images) {
+        Conversation conversation = new Conversation(UUID.randomUUID().toString());
+        conversation.pendingQuestion = question;
+        conversation.pendingImages = images == null ? List.of() : List.copyOf(images);
+        conversations.put(conversation.id(), conversation);
+        return conversation;
+    }
+
+    /**
+     * @return 会话不存在或已过期时返回 null
+     */
+    public Conversation get(String id) {
+        Conversation conversation = conversations.get(id);
+        if (conversation != null) {
+            conversation.lastAccess = System.nanoTime();
+        }
+        return conversation;
+    }
+
+    public void remove(String id) {
+        conversations.remove(id);
+    }
+
+    /**
+     * 提出下一个问题；上一个问题尚未开始回答时替换它
+     *
+     * @throws IllegalStateException 上一个问题还在回答中
+     */
+    public void ask(Conversation conversation, String question, List<String> images) {
+        synchronized (conversation) {
+            if (conversation.answering) {
+                throw new IllegalStateException("上一个问题还在回答中");
+            }
+            conversation.pendingQuestion = question;
+            conversation.pendingImages = images == null ? List.of() : List.copyOf(images);
+        }
+    }
+
+    /**
+     * 开始回答待回答的问题，返回发给模型的流式请求。之后必须调用 {@link #completeTurn} 或 {@link #abortTurn}
+     *
+     * @throws IllegalStateException 没有待回答的问题，或上一个问题还在回答中
+     */
+    public OllamaApi.ChatRequest beginTurn(Conversation conversation) throws IOException {
+        String model;
+        String systemPrompt;
+        List<Conversation.Turn> turns;
+        String question;
+        List<String> images;
+        synchronized (conversation) {
+            if (conversation.answering) {
+                throw new IllegalStateException("上一个问题还在回答中");
+            }
+            if (conversation.pendingQuestion == null) {
+                throw new IllegalStateException("没有待回答的问题");
+            }
+            conversation.answering = true;
+            if (conversation.model == null) {
+                conversation.model = ollamaRouter.modelFor(Workload.VISION);
+            }
+            model = conversation.model;
+            systemPrompt = conversation.summary == null ? systemPrompt(conversation)
+                    : systemPrompt(conversation) + "\n\n此前的问诊摘要：" + conversation.summary;
+            turns = List.copyOf(conversation.turns);
+            question = conversation.pendingQuestion;
+            images = conversation.pendingImages;
+        }
+        try {
+            // 从最近一轮往前取，放不进预算的较早对话等待压缩
+            int budget = properties.getContextTokens() - estimateTokens(systemPrompt) - estimateTokens(question)
+                    - images.size() * properties.getImageTokens();
+            int from = turns.size();
+            while (from > 0 && cost(turns.get(from - 1)) <= budget) {
+                budget -= cost(turns.get(from - 1));
+                from--;
+            }
+
+            List<OllamaApi.Message> messages = new ArrayList<>();
+            messages.add(OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM).content(systemPrompt).build());
+            for (Conversation.Turn turn : turns.subList(from, turns.size())) {
+                messages.add(userMessage(turn.question(), turn.images(), model));
+                messages.add(OllamaApi.Message.builder(OllamaApi.Message.Role.ASSISTANT).content(turn.answer()).build());
+            }
+            messages.add(userMessage(question, images, model));
+            return OllamaApi.ChatRequest.builder(model)
+                    .stream(true)
+                    .messages(messages)
+                    .build();
+        } catch (IOException | RuntimeException e) {
+            abortTurn(conversation);
+            throw e;
+        }
+    }
+
+    /**
+     * 记录本轮回答，历史超出预算时在后台压缩
+     */
+    public void completeTurn(Conversation conversation, String answer) {
+        List<Conversation.Turn> folding;
+        String previousSummary;
+        String model;
+        synchronized (conversation) {
+            conversation.turns.add(new Conversation.Turn(conversation.pendingQuestion, conversation.pendingImages, answer));
+            conversation.pendingQuestion = null;
+            conversation.pendingImages = List.of();
+            conversation.answering = false;
+            conversation.lastAccess = System.nanoTime();
+
+            int keep = Math.max(0, properties.getKeepRecentTurns());
+            if (conversation.summarizing || conversation.turns.size() <= keep
+                    || historyTokens(conversation) <= properties.getContextTokens()) {
+                return;
+            }
+            conversation.summarizing = true;
+            folding = List.copyOf(conversation.turns.subList(0, conversation.turns.size() - keep));
+            previousSummary = conversation.summary;
+            model = conversation.model;
+        }
+        Thread.ofVirtual().name("conversation-summary").start(() -> summarize(conversation, previousSummary, folding, model));
+    }
+
+    /**
+     * 本轮没有完成（客户端断开、出错），问题保留，可以重新发起
+     */
+    public void abortTurn(Conversation conversation) {
+        synchronized (conversation) {
+            conversation.answering = false;
+        }
+    }
+
+    /**
+     * 定期清理超过 TTL 未访问的会话
+     */
+    @Scheduled(fixedDelayString = "${chat.conversation.cleanup-interval-ms:60000}")
+    public void evictExpired() {
+        long ttl = properties.getTtl().toNanos();
+        long now = System.nanoTime();
+        conversations.values().removeIf(conversation -> {
+            synchronized (conversation) {
+                return !conversation.answering && now - conversation.lastAccess > ttl;
+            }
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("wenzhen.chat.sessions", conversations, Map::size)
+                .description("保留中的多轮对话数")
+                .register(registry);
+    }
+
+    private void summarize(Conversation conversation, String previousSummary, List<Conversation.Turn> folding, String model) {
+        StringBuilder dialogue = new StringBuilder();
+        if (previousSummary != null) {
+            dialogue.append("已有摘要：").append(previousSummary).append("\n\n");
+        }
+        dialogue.append("新增对话：\n");
+        for (Conversation.Turn turn : folding) {
+            dialogue.append("患者：").append(turn.question()).append('\n');
+            dialogue.append("医生：").append(turn.answer()).append('\n');
+        }
+        dialogue.append("\n请把已有摘要和新增对话合并为一段不超过300字的摘要，保留症状、体征、图片观察结论和已给出的建议。");
+        try {
+            OllamaApi.ChatResponse response = inferenceScheduler.execute(model, InferenceScheduler.Priority.BATCH,
+                    () -> ollamaRouter.chat(OllamaApi.ChatRequest.builder(model)
+                            .messages(List.of(
+                                    OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM)
+                                            .content("你负责压缩中医问诊的对话记录").build(),
+                                    OllamaApi.Message.builder(OllamaApi.Message.Role.USER)
+                                            .content(dialogue.toString()).build()))
+                            .build()));
+            String summary = response.message() == null ? null : response.message().content();
+            if (summary == null || summary.isBlank()) {
+                return;
+            }
+            synchronized (conversation) {
+                conversation.summary = summary.strip();
+                // 压缩期间新增的对话排在后面，只移除已压缩的部分
+                conversation.turns.subList(0, folding.size()).clear();
+            }
+            log.debug("会话 {} 已压缩 {} 轮对话", conversation.id(), folding.size());
+        } catch (RuntimeException e) {
+            log.warn("会话 {} 压缩失败，下一轮再试", conversation.id(), e);
+        } finally {
+            synchronized (conversation) {
+                conversation.summarizing = false;
+            }
+        }
+    }
+
+    /**
+     * 系统提示词在首轮确定后不再变化，保证前缀稳定
+     */
+    private String systemPrompt(Conversation conversation) {
+        if (conversation.systemPrompt == null) {
+            conversation.systemPrompt = conversation.pendingImages.isEmpty() ? SYSTEM_PROMPT
+                    : SYSTEM_PROMPT + "。用户上传了" + conversation.pendingImages.size() + "张图片作为参考，" +
+                    "请结合图片内容和用户问题进行分析。";
+        }
+        return conversation.systemPrompt;
+    }
+
+    private OllamaApi.Message userMessage(String question, List<String> images, String model) throws IOException {
+        OllamaApi.Message.Builder user = OllamaApi.Message.builder(OllamaApi.Message.Role.USER).content(question);
+        if (!images.isEmpty()) {
+            // 编码在上传时已完成，这里只取现成结果
+            List<String> encoded = new ArrayList<>(images.size());
+            for (String image : images) {
+                Path path = uploadStore.resolve(image);
+                if (path == null) {
+                    throw new FileNotFoundException("图片不存在或已过期: " + image);
+                }
+                encoded.add(preparedImageStore.encoded(path, model));
+            }
+            user.images(encoded);
+        }
+        return user.build();
+    }
+
+    private int historyTokens(Conversation conversation) {
+        int tokens = estimateTokens(conversation.summary);
+        for (Conversation.Turn turn : conversation.turns) {
+            tokens += cost(turn);
+        }
+        return tokens;
+    }
+
+    private int cost(Conversation.Turn turn) {
+        return estimateTokens(turn.question()) + estimateTokens(turn.answer())
+                + turn.images().size() * properties.getImageTokens();
+    }
+
+    /**
+     * 粗略估算 token 数：汉字约一字一个，其他字符约四个一个
+     */
+    static int estimateTokens(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (Character.isIdeographic(codePoint)) {
+                cjk++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return cjk + (other + 3) / 4;
+    }
+}
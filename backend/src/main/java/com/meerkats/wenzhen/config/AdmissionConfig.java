@@ -0,0 +1,22 @@
+package com.meerkats.wenzhen.config;
+
+import com.meerkats.wenzhen.admission.AdmissionControl;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class AdmissionConfig implements WebMvcConfigurer {
+
+    private final AdmissionControl admissionControl;
+
+    public AdmissionConfig(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // 受控路径由 admission.endpoints 配置，在拦截器内匹配
+        registry.addInterceptor(admissionControl);
+    }
+}
@@ -0,0 +1,80 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 推理接口准入控制配置，对应 admission.*
+ */
+@Data
+@ConfigurationProperties(prefix = "admission")
+public class AdmissionProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 同时处理的推理请求数上限（含排队中的），所有 inference 接口共用
+     */
+    private int maxInFlight = 64;
+
+    /**
+     * 同时打开的 SSE 流上限，所有 stream 接口共用
+     */
+    private int maxStreams = 256;
+
+    /**
+     * 识别客户端用的请求头，由可信的反向代理设置（如 X-Forwarded-For 或网关注入的用户标识），
+     * 取最后一个逗号分隔的值；为空时使用连接的远端地址
+     */
+    private String clientHeader;
+
+    /**
+     * 因并发已满被拒绝时建议客户端等待的时间，写入 Retry-After
+     */
+    private Duration busyRetryAfter = Duration.ofSeconds(2);
+
+    /**
+     * 受控接口，key 为名称，用于指标标签；请求按配置顺序匹配第一个
+     */
+    private Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+    @Data
+    public static class Endpoint {
+
+        /**
+         * 路径模式，如 /api/chat/stream、/report/{id}/events
+         */
+        private List<String> paths = new ArrayList<>();
+
+        /**
+         * 每个客户端每秒补充的请求数
+         */
+        private double rate = 1;
+
+        /**
+         * 每个客户端的令牌桶容量，即允许的突发请求数
+         */
+        private int burst = 5;
+
+        /**
+         * 每个客户端同时进行的请求数，0 表示不限制
+         */
+        private int maxPerClient = 0;
+
+        /**
+         * 计入 maxStreams
+         */
+        private boolean stream;
+
+        /**
+         * 计入 maxInFlight
+         */
+        private boolean inference = true;
+    }
+}
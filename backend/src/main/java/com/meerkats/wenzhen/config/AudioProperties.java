@@ -0,0 +1,34 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 语音声学特征提取配置，对应 media.audio.*
+ */
+@Data
+@ConfigurationProperties(prefix = "media.audio")
+public class AudioProperties {
+
+    /**
+     * 是否提取声学特征写入语音分析的提示词，关闭后只提供格式和文件大小
+     */
+    private boolean enabled = true;
+
+    /**
+     * 同时分析的音频数上限
+     */
+    private int maxConcurrent = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 只分析开头这么长的录音，超出部分忽略
+     */
+    private Duration maxDuration = Duration.ofMinutes(10);
+
+    /**
+     * 长停顿的阈值，对应提示词中“停顿过长（>2秒）”
+     */
+    private Duration longPause = Duration.ofSeconds(2);
+}
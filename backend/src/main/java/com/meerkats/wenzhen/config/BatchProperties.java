@@ -0,0 +1,45 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 批量筛查配置，对应 report.batch.*
+ */
+@Data
+@ConfigurationProperties(prefix = "report.batch")
+public class BatchProperties {
+
+    /**
+     * 批次目录，每个批次保存上传的压缩包和逐个学生追加的结果（断点）
+     */
+    private String dir = "./batches";
+
+    /**
+     * 所有批次合计同时分析的学生数，每个学生的三个维度仍并行
+     */
+    private int parallelism = 4;
+
+    /**
+     * 压缩包大小上限
+     */
+    private DataSize maxArchiveSize = DataSize.ofGigabytes(4);
+
+    /**
+     * 压缩包内单个文件的大小上限
+     */
+    private DataSize maxFileSize = DataSize.ofMegabytes(64);
+
+    /**
+     * 结果流的超时时间，超时后批次在后台继续执行，可通过 resume 或 results 获取结果
+     */
+    private Duration responseTimeout = Duration.ofHours(6);
+
+    /**
+     * 批次目录的保留时间
+     */
+    private Duration retention = Duration.ofDays(7);
+}
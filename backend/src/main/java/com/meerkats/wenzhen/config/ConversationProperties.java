@@ -0,0 +1,34 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 多轮对话配置，对应 chat.conversation.*
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.conversation")
+public class ConversationProperties {
+
+    /**
+     * 会话空闲多久后删除
+     */
+    private Duration ttl = Duration.ofMinutes(30);
+
+    /**
+     * 每次请求中历史（摘要、保留的对话和图片）的 token 预算，超出后把较早的对话压缩进摘要
+     */
+    private int contextTokens = 4096;
+
+    /**
+     * 压缩时保留原文的最近对话轮数
+     */
+    private int keepRecentTurns = 2;
+
+    /**
+     * 估算 token 时每张图片计入的数量
+     */
+    private int imageTokens = 256;
+}
@@ -7,13 +7,20 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 @Configuration
 public class CorsConfig implements WebMvcConfigurer {
 
+    private final CorsProperties properties;
+
+    public CorsConfig(CorsProperties properties) {
+        this.properties = properties;
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
-                .allowedOriginPatterns("*") // 允许所有域名访问
+                .allowedOriginPatterns(properties.getAllowedOrigins().toArray(String[]::new)) // 只允许配置的前端地址，见 cors.allowed-origins
                 .allowedMethods("*") // 允许所有HTTP方法
                 .allowCredentials(true) // 允许发送Cookie
                 .allowedHeaders("*") // 允许所有头部信息
+                .exposedHeaders("Retry-After", "X-Batch-Id") // 429 响应中的重试时间、批量筛查的批次 ID
                 .maxAge(3600); // 预检请求的有效期
     }
 }
@@ -0,0 +1,21 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 跨域配置，对应 cors.*
+ */
+@Data
+@ConfigurationProperties(prefix = "cors")
+public class CorsProperties {
+
+    /**
+     * 允许携带 Cookie 跨域访问的前端地址，支持 https://*.example.com 形式的通配；
+     * 默认为本地开发时的前端地址
+     */
+    private List<String> allowedOrigins = new ArrayList<>(List.of("http://localhost:3000", "http://localhost:5173"));
+}
@@ -0,0 +1,46 @@
+package com.meerkats.wenzhen.config;
+
+import com.meerkats.wenzhen.Models;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 图片预处理配置，对应 media.image.*
+ */
+@Data
+@ConfigurationProperties(prefix = "media.image")
+public class ImageProperties {
+
+    /**
+     * 内存中缓存的 Base64 编码总大小上限，按最近使用淘汰
+     */
+    private DataSize encodedCacheBudget = DataSize.ofMegabytes(64);
+
+    /**
+     * 是否在上传时缩放、转正并重新压缩图片
+     */
+    private boolean normalize = true;
+
+    /**
+     * 各模型的图片最长边，key为模型名，未配置时使用 {@link Models#defaultImageSize(String)}
+     */
+    private Map<String, Integer> targetSize = new HashMap<>();
+
+    /**
+     * 重新压缩的 JPEG 质量，0~1
+     */
+    private float quality = 0.85f;
+
+    /**
+     * 同时解码的图片数上限，解码大图很占内存
+     */
+    private int maxConcurrent = Runtime.getRuntime().availableProcessors();
+
+    public int targetSizeFor(String model) {
+        return targetSize.getOrDefault(model, Models.defaultImageSize(model));
+    }
+}
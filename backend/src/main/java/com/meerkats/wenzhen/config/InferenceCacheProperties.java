@@ -0,0 +1,31 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 推理结果缓存配置，对应 inference.cache.*
+ */
+@Data
+@ConfigurationProperties(prefix = "inference.cache")
+public class InferenceCacheProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 内存中最多保留的结果数，按最近使用淘汰
+     */
+    private int maxEntries = 1024;
+
+    /**
+     * 结果有效期，内存和磁盘两级共用
+     */
+    private Duration ttl = Duration.ofHours(24);
+
+    /**
+     * 磁盘缓存目录，为空时只使用内存缓存
+     */
+    private String diskDir;
+}
@@ -0,0 +1,41 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 推理调度配置，对应 inference.scheduler.*
+ */
+@Data
+@ConfigurationProperties(prefix = "inference.scheduler")
+public class InferenceSchedulerProperties {
+
+    /**
+     * 未单独配置的模型在每个节点上默认允许的同时推理数
+     */
+    private int defaultMaxConcurrent = 1;
+
+    /**
+     * 各模型在每个节点上允许的同时推理数，key为模型名（如 gemma3:4b），
+     * 总并发为其乘以提供该模型的节点数
+     */
+    private Map<String, Integer> maxConcurrent = new HashMap<>();
+
+    /**
+     * 每个模型排队请求数上限，超出后直接拒绝
+     */
+    private int maxQueueLength = 64;
+
+    /**
+     * 排队等待的最长时间
+     */
+    private Duration queueTimeout = Duration.ofSeconds(30);
+
+    public int maxConcurrentFor(String model) {
+        return Math.max(1, maxConcurrent.getOrDefault(model, defaultMaxConcurrent));
+    }
+}
@@ -0,0 +1,35 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 上传媒体暂存配置，对应 media.store.*
+ */
+@Data
+@ConfigurationProperties(prefix = "media.store")
+public class MediaStoreProperties {
+
+    /**
+     * 堆外内存预算，超出后最久未访问的会话被转存到磁盘
+     */
+    private DataSize memoryBudget = DataSize.ofMegabytes(256);
+
+    /**
+     * 磁盘预算，超出后淘汰最久未访问的会话
+     */
+    private DataSize diskBudget = DataSize.ofGigabytes(2);
+
+    /**
+     * 会话最后一次访问后的保留时间
+     */
+    private Duration ttl = Duration.ofMinutes(30);
+
+    /**
+     * 转存目录，默认在系统临时目录下；每个实例在其中创建自己的子目录，退出时只删除该子目录
+     */
+    private String spillDir = System.getProperty("java.io.tmpdir") + "/wenzhen-media";
+}
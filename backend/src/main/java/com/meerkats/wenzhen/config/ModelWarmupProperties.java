@@ -0,0 +1,80 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 模型预热与常驻配置，对应 inference.warmup.*
+ */
+@Data
+@ConfigurationProperties(prefix = "inference.warmup")
+public class ModelWarmupProperties {
+
+    /**
+     * 关闭后启动时不预加载，也不定期保活；请求仍然带上 keep_alive
+     */
+    private boolean enabled = true;
+
+    /**
+     * 需要预热的模型，为空时取 inference.routing.tiers 中出现的全部模型
+     */
+    private List<String> models = new ArrayList<>();
+
+    /**
+     * 启动时最多等待预加载多久，超时后照常启动，未加载完的模型由定期保活继续加载
+     */
+    private Duration startupTimeout = Duration.ofMinutes(2);
+
+    /**
+     * 请求结束后模型保持加载的时间，作为 keep_alive 传给 Ollama；负数表示常驻
+     */
+    private Duration defaultKeepAlive = Duration.ofMinutes(30);
+
+    /**
+     * 按模型覆盖 defaultKeepAlive
+     */
+    private Map<String, Duration> keepAlive = new HashMap<>();
+
+    /**
+     * 距离卸载不足这个时间时发送保活请求，应大于检查间隔
+     */
+    private Duration refreshBefore = Duration.ofMinutes(5);
+
+    /**
+     * 保持模型常驻的时段，格式 HH:mm-HH:mm，可跨零点；为空表示全天
+     */
+    private String activeHours = "";
+
+    /**
+     * 时段之外，最近这段时间内有过请求的模型继续保活，否则任其卸载
+     */
+    private Duration trafficWindow = Duration.ofHours(1);
+
+    public Duration keepAliveFor(String model) {
+        return keepAlive.getOrDefault(model, defaultKeepAlive);
+    }
+
+    public boolean isActiveAt(LocalTime time) {
+        if (activeHours == null || activeHours.isBlank()) {
+            return true;
+        }
+        String[] range = activeHours.strip().split("-");
+        if (range.length != 2) {
+            throw new IllegalArgumentException("inference.warmup.active-hours 格式应为 HH:mm-HH:mm: " + activeHours);
+        }
+        LocalTime from = LocalTime.parse(range[0].strip());
+        LocalTime to = LocalTime.parse(range[1].strip());
+        if (from.isBefore(to)) {
+            return !time.isBefore(from) && time.isBefore(to);
+        }
+        // 跨零点，如 20:00-08:00
+        return !time.isBefore(from) || time.isBefore(to);
+    }
+}
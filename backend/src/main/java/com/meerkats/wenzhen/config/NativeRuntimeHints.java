@@ -0,0 +1,37 @@
+package com.meerkats.wenzhen.config;
+
+import com.meerkats.wenzhen.controller.StreamChatController;
+import com.meerkats.wenzhen.inference.InferenceCache;
+import com.meerkats.wenzhen.media.PreparedImage;
+import com.meerkats.wenzhen.report.DiagnosisReport;
+import com.meerkats.wenzhen.report.ModalityResult;
+import com.meerkats.wenzhen.report.ReportJob;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * 原生镜像需要的反射提示。
+ * <p>
+ * 控制器方法的参数和返回值由 Spring AOT 自动登记，Spring AI 的 Ollama 请求/响应由其自带的 OllamaRuntimeHints 登记；
+ * 这里补充只经过 ObjectMapper 或 SSE 事件序列化、AOT 看不到的类型。
+ */
+public class NativeRuntimeHints implements RuntimeHintsRegistrar {
+
+    private final BindingReflectionHintsRegistrar bindings = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        bindings.registerReflectionHints(hints.reflection(),
+                // 聊天请求体
+                StreamChatController.ChatRequest.class,
+                // 报告推送事件和 GET /report/{sessionId} 的 Object 返回值
+                DiagnosisReport.class,
+                ModalityResult.class,
+                ReportJob.Status.class,
+                // 预处理图片的元数据，写入磁盘旁路文件
+                PreparedImage.class,
+                // GET /cache/stats
+                InferenceCache.Stats.class);
+    }
+}
@@ -0,0 +1,78 @@
+package com.meerkats.wenzhen.config;
+
+import com.meerkats.wenzhen.Models;
+import com.meerkats.wenzhen.inference.Workload;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ollama 多节点路由配置，对应 inference.routing.*
+ */
+@Data
+@ConfigurationProperties(prefix = "inference.routing")
+public class OllamaRoutingProperties {
+
+    /**
+     * Ollama 节点列表，为空时只使用 spring.ai.ollama.base-url 一个节点
+     */
+    private List<Backend> backends = new ArrayList<>();
+
+    /**
+     * 节点连续失败多少次后熔断
+     */
+    private int failureThreshold = 3;
+
+    /**
+     * 熔断持续时间，之后重新放行请求试探
+     */
+    private Duration openDuration = Duration.ofSeconds(30);
+
+    /**
+     * 各类请求可用的模型，按优先顺序排列，前面的模型繁忙或没有可用节点时依次降级
+     */
+    private Map<Workload, List<String>> tiers = new EnumMap<>(Map.of(
+            Workload.CHAT, List.of(Models.GEMMA3_4B),
+            Workload.VISION, List.of(Models.GEMMA3_4B),
+            Workload.ANALYSIS, List.of(Models.QWEN3_8B, Models.GEMMA3_4B)));
+
+    public List<String> tierFor(Workload workload) {
+        List<String> models = tiers.get(workload);
+        return models == null || models.isEmpty() ? List.of(Models.GEMMA3_4B) : models;
+    }
+
+    /**
+     * 提供该模型的节点数，未配置节点列表时为 1
+     */
+    public int backendsServing(String model) {
+        if (backends.isEmpty()) {
+            return 1;
+        }
+        return (int) Math.max(1, backends.stream().filter(backend -> backend.serves(model)).count());
+    }
+
+    @Data
+    public static class Backend {
+
+        /**
+         * 节点名称，用于日志和监控，默认取 baseUrl
+         */
+        private String name;
+
+        private String baseUrl;
+
+        /**
+         * 该节点提供的模型，为空时以探活时查到的模型列表为准
+         */
+        private List<String> models = new ArrayList<>();
+
+        public boolean serves(String model) {
+            return models.isEmpty() || models.contains(model);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 报告任务配置，对应 report.jobs.*
+ */
+@Data
+@ConfigurationProperties(prefix = "report.jobs")
+public class ReportJobProperties {
+
+    /**
+     * 同时执行的报告任务数
+     */
+    private int concurrency = 4;
+
+    /**
+     * 等待执行的任务数上限，超出后拒绝新任务
+     */
+    private int queueCapacity = 100;
+
+    /**
+     * 任务结束后在内存中保留的时间
+     */
+    private Duration retention = Duration.ofHours(1);
+
+    /**
+     * 同步模式（async=false）等待报告的最长时间，超时后按异步模式返回 202，任务继续执行
+     */
+    private Duration syncTimeout = Duration.ofMinutes(5);
+
+    /**
+     * 进度推送连接的超时时间
+     */
+    private Duration sseTimeout = Duration.ofMinutes(5);
+}
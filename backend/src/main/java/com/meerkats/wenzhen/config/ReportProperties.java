@@ -0,0 +1,50 @@
+package com.meerkats.wenzhen.config;
+
+import com.meerkats.wenzhen.report.Modality;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 报告生成配置，对应 report.*
+ */
+@Data
+@ConfigurationProperties(prefix = "report")
+public class ReportProperties {
+
+    /**
+     * 未单独配置的维度的超时时间
+     */
+    private Duration defaultTimeout = Duration.ofSeconds(120);
+
+    /**
+     * 各维度的超时时间，key 为 face / tongue / voice
+     */
+    private Map<Modality, Duration> timeout = new EnumMap<>(Modality.class);
+
+    /**
+     * 结构化输出：按 JSON schema 约束模型只输出结论，读到所需字段后立即停止生成；关闭时使用自由文本提示词
+     */
+    private boolean structuredOutput = true;
+
+    /**
+     * 结构化输出时未单独配置的维度最多生成的 token 数
+     */
+    private int defaultNumPredict = 256;
+
+    /**
+     * 结构化输出时各维度最多生成的 token 数（num_predict），key 为 face / tongue / voice
+     */
+    private Map<Modality, Integer> numPredict = new EnumMap<>(Modality.class);
+
+    public int numPredictFor(Modality modality) {
+        return numPredict.getOrDefault(modality, defaultNumPredict);
+    }
+
+    public Duration timeoutFor(Modality modality) {
+        return timeout.getOrDefault(modality, defaultTimeout);
+    }
+}
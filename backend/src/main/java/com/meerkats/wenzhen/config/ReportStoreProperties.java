@@ -0,0 +1,46 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.ZoneId;
+
+/**
+ * 报告存储配置，对应 report.store.*
+ */
+@Data
+@ConfigurationProperties(prefix = "report.store")
+public class ReportStoreProperties {
+
+    /**
+     * 存储目录，报告追加写入其中的分段文件
+     */
+    private String dir = "./reports";
+
+    /**
+     * 单个分段文件的大小上限，写满后封存并开始新的分段；过期按整个分段删除
+     */
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    /**
+     * 每条报告写入后是否立即落盘；关闭后断电可能丢失最近的报告，但不会损坏已有数据
+     */
+    private boolean fsync = true;
+
+    /**
+     * 报告的保留时间，分段中最新的报告超过该时间后删除整个分段
+     */
+    private Duration retention = Duration.ofDays(365);
+
+    /**
+     * 按日期查询历史报告时每页的最大条数
+     */
+    private int maxPageSize = 100;
+
+    /**
+     * 按日期查询时使用的时区
+     */
+    private ZoneId zone = ZoneId.systemDefault();
+}
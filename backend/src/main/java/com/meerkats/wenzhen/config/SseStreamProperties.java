@@ -0,0 +1,48 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 流式对话推送配置，对应 sse.stream.*
+ */
+@Data
+@ConfigurationProperties(prefix = "sse.stream")
+public class SseStreamProperties {
+
+    /**
+     * 两次推送的最短间隔，期间到达的 token 合并为一帧
+     */
+    private Duration flushInterval = Duration.ofMillis(30);
+
+    /**
+     * 待推送内容达到该字节数时不等间隔立即推送
+     */
+    private int flushBytes = 64;
+
+    /**
+     * 单个连接允许积压的最大字节数，超出后按 slowConsumerPolicy 处理
+     */
+    private DataSize maxBuffered = DataSize.ofKilobytes(64);
+
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+
+    /**
+     * 空闲多久发送一次心跳注释，防止代理断开空闲连接
+     */
+    private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+    public enum SlowConsumerPolicy {
+        /**
+         * 生成方等待客户端接收，背压一直传到模型输出流
+         */
+        BLOCK,
+        /**
+         * 断开该客户端并中止生成，释放推理名额
+         */
+        DISCONNECT
+    }
+}
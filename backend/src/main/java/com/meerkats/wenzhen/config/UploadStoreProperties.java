@@ -0,0 +1,35 @@
+package com.meerkats.wenzhen.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 聊天图片上传存储配置，对应 media.upload.*
+ */
+@Data
+@ConfigurationProperties(prefix = "media.upload")
+public class UploadStoreProperties {
+
+    /**
+     * 存储目录，文件按内容的 SHA-256 分两级子目录存放
+     */
+    private String dir = "./uploads";
+
+    /**
+     * 文件最后一次上传或被对话引用后的保留时间
+     */
+    private Duration ttl = Duration.ofHours(24);
+
+    /**
+     * 图片响应的 Cache-Control max-age；地址由内容决定，内容不会变化
+     */
+    private Duration cacheMaxAge = Duration.ofDays(7);
+
+    /**
+     * 不小于该大小的响应交给 Tomcat 的 sendfile 发送，更小的文件直接写出更省事
+     */
+    private DataSize sendfileThreshold = DataSize.ofKilobytes(48);
+}
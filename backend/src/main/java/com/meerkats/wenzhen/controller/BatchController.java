@@ -0,0 +1,89 @@
+package com.meerkats.wenzhen.controller;
+
+import com.meerkats.wenzhen.report.BatchScreeningService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * 批量筛查接口：请求体为 zip 压缩包，结果以 NDJSON 逐行返回
+ */
+@RestController
+public class BatchController {
+
+    private static final String BATCH_ID_HEADER = "X-Batch-Id";
+
+    private final BatchScreeningService batchScreeningService;
+
+    public BatchController(BatchScreeningService batchScreeningService) {
+        this.batchScreeningService = batchScreeningService;
+    }
+
+    /**
+     * 提交批次并开始执行 (POST)，响应头 X-Batch-Id 为批次 ID，连接中断后可用它续跑或查询结果
+     */
+    @PostMapping(value = "/batch", consumes = {"application/zip", "application/octet-stream"})
+    public ResponseEntity<ResponseBodyEmitter> submit(InputStream body) throws IOException {
+        return stream(batchScreeningService.create(body));
+    }
+
+    /**
+     * 从断点继续执行 (POST)，已完成的学生直接补发结果，失败和未开始的学生重新分析
+     */
+    @PostMapping("/batch/{batchId}/resume")
+    public ResponseEntity<ResponseBodyEmitter> resume(@PathVariable String batchId) {
+        if (!batchScreeningService.exists(batchId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return stream(batchId);
+    }
+
+    /**
+     * 已完成学生的最新结果 (GET)，批次执行中也可查询
+     */
+    @GetMapping("/batch/{batchId}/results")
+    public ResponseEntity<StreamingResponseBody> results(@PathVariable String batchId) {
+        if (!batchScreeningService.exists(batchId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .header(BATCH_ID_HEADER, batchId)
+                .header("X-Batch-Running", String.valueOf(batchScreeningService.isRunning(batchId)))
+                .contentType(BatchScreeningService.NDJSON)
+                .body(out -> batchScreeningService.writeResults(batchId, out));
+    }
+
+    /**
+     * 压缩包无效
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> invalidArchive(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+
+    /**
+     * 批次正在执行
+     */
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<Map<String, String>> alreadyRunning(IllegalStateException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+    }
+
+    private ResponseEntity<ResponseBodyEmitter> stream(String batchId) {
+        ResponseBodyEmitter emitter = batchScreeningService.start(batchId);
+        return ResponseEntity.ok()
+                .header(BATCH_ID_HEADER, batchId)
+                .contentType(BatchScreeningService.NDJSON)
+                .body(emitter);
+    }
+}
@@ -1,14 +1,20 @@
 package com.meerkats.wenzhen.controller;
 
-import com.meerkats.wenzhen.Models;
+import com.meerkats.wenzhen.inference.InferenceScheduler;
+import com.meerkats.wenzhen.inference.OllamaRouter;
+import com.meerkats.wenzhen.inference.Workload;
+import com.meerkats.wenzhen.metrics.InferenceMetrics;
+import com.meerkats.wenzhen.stream.SseStreamWriter;
+import com.meerkats.wenzhen.stream.SseStreams;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.ollama.api.OllamaApi;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -16,13 +22,23 @@ import java.util.concurrent.Executors;
 @RestController
 public class ChatController {
 
-    private final OllamaApi ollamaApi;
+    private final OllamaRouter ollamaRouter;
+
+    private final InferenceScheduler inferenceScheduler;
+
+    private final SseStreams sseStreams;
+
+    private final InferenceMetrics inferenceMetrics;
 
     private final Executor executor = Executors.newVirtualThreadPerTaskExecutor();
 
     @Autowired
-    public ChatController(OllamaApi ollamaApi) {
-        this.ollamaApi = ollamaApi;
+    public ChatController(OllamaRouter ollamaRouter, InferenceScheduler inferenceScheduler, SseStreams sseStreams,
+                          InferenceMetrics inferenceMetrics) {
+        this.inferenceMetrics = inferenceMetrics;
+        this.ollamaRouter = ollamaRouter;
+        this.inferenceScheduler = inferenceScheduler;
+        this.sseStreams = sseStreams;
     }
 
     /**
@@ -35,13 +51,15 @@ public class ChatController {
     public OllamaApi.ChatResponse chat(String systemMessage, @RequestBody String message) {
         // 构建Prompt并调用模型
         Prompt prompt = new Prompt(message);
-        OllamaApi.ChatResponse response = ollamaApi
-                .chat(OllamaApi.ChatRequest.builder(Models.GEMMA3_4B).messages(
-                        List.of(
-                                OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM).content("你是一个中医问诊专家").build(),
-                                OllamaApi.Message.builder(OllamaApi.Message.Role.USER).content(message).build()
-                        )
-                ).build());
+        String model = ollamaRouter.modelFor(Workload.CHAT);
+        OllamaApi.ChatResponse response = inferenceScheduler.execute(model,
+                InferenceScheduler.Priority.INTERACTIVE, () -> inferenceMetrics.record("/chat", model, () -> ollamaRouter
+                        .chat(OllamaApi.ChatRequest.builder(model).messages(
+                                List.of(
+                                        OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM).content("你是一个中医问诊专家").build(),
+                                        OllamaApi.Message.builder(OllamaApi.Message.Role.USER).content(message).build()
+                                )
+                        ).build())));
         // 提取模型返回内容
         return response;
     }
@@ -49,48 +67,65 @@ public class ChatController {
     @GetMapping(value = "/chat-stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public SseEmitter chatStream(@RequestParam String message) {
         SseEmitter emitter = new SseEmitter(60_000L);
+        SseStreamWriter writer = sseStreams.open(emitter);
 
         executor.execute(() -> {
-            try {
+            // 连接提前关闭时中断本线程：排队中的放弃排队位置，生成中的取消订阅
+            writer.onClose(Thread.currentThread()::interrupt);
+            String model = ollamaRouter.modelFor(Workload.CHAT);
+            try (InferenceScheduler.Permit ignored = inferenceScheduler.acquire(model,
+                    InferenceScheduler.Priority.INTERACTIVE, position -> writer.event("queue", position))) {
                 // 假设ollamaApi.chatStream返回一个流式响应
-                ollamaApi.streamingChat(OllamaApi.ChatRequest.builder(Models.GEMMA3_4B)
-                        .stream(true)
-                        .messages(
-                                List.of(
-                                        OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM)
-                                                .content("你是一个中医问诊专家").build(),
-                                        OllamaApi.Message.builder(OllamaApi.Message.Role.USER)
-                                                .content(message).build()
-                                )
-                        ).build()).toStream().forEach(response -> {
-                    try {
-                        // 发送消息内容
-                        if (response.message() != null && response.message().content() != null) {
-                            emitter.send(SseEmitter.event()
-                                    .data(response.message().content())
-                                    .name("message"));
-                        }
-
-                        // 如果对话完成，发送完成事件
-                        if (response.done() != null && response.done()) {
-                            emitter.send(SseEmitter.event()
-                                    .name("complete")
-                                    .data(""));
-                            emitter.complete();
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException("SSE发送失败", e);
-                    }
-                });
+                String answer = streamTo(writer, inferenceMetrics.observe("/chat-stream", model,
+                        ollamaRouter.streamingChat(OllamaApi.ChatRequest.builder(model)
+                                .stream(true)
+                                .messages(
+                                        List.of(
+                                                OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM)
+                                                        .content("你是一个中医问诊专家").build(),
+                                                OllamaApi.Message.builder(OllamaApi.Message.Role.USER)
+                                                        .content(message).build()
+                                        )
+                                ).build())));
+                if (answer != null) {
+                    writer.event("complete", "");
+                }
+                writer.complete();
             } catch (Exception e) {
-                emitter.completeWithError(e);
+                writer.completeWithError(e);
             }
         });
-        // 连接生命周期回调
-        emitter.onCompletion(() -> System.out.println("SSE连接完成"));
-        emitter.onTimeout(() -> System.out.println("SSE连接超时"));
-        emitter.onError(ex -> System.out.println("SSE连接错误: " + ex.getMessage()));
         return emitter;
     }
 
-}
\ No newline at end of file
+    /**
+     * 把模型输出流写入 writer，连接提前关闭时立即结束订阅，
+     * 上游 HTTP 请求随之取消，Ollama 不再为已离开的客户端生成。完成事件由调用方在处理完回答后发送
+     *
+     * @return 完整的回答；模型没有输出完（连接提前关闭）时返回 null
+     */
+    static String streamTo(SseStreamWriter writer, Flux<OllamaApi.ChatResponse> responses) {
+        Sinks.One<Boolean> closed = Sinks.one();
+        writer.onClose(() -> closed.tryEmitValue(true));
+        StringBuilder answer = new StringBuilder();
+        boolean done = responses.takeUntilOther(closed.asMono())
+                .toStream()
+                .map(response -> writeChunk(writer, response, answer))
+                .reduce(false, Boolean::logicalOr);
+        return done ? answer.toString() : null;
+    }
+
+    /**
+     * 模型输出的内容交给 writer 合并推送
+     *
+     * @return 是否为最后一帧
+     */
+    static boolean writeChunk(SseStreamWriter writer, OllamaApi.ChatResponse response, StringBuilder answer) {
+        if (response.message() != null && response.message().content() != null) {
+            writer.append(response.message().content());
+            answer.append(response.message().content());
+        }
+        return response.done() != null && response.done();
+    }
+
+}
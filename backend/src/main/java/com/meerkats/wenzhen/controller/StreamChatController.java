@@ -1,13 +1,26 @@
 package com.meerkats.wenzhen.controller;
 
-import com.meerkats.wenzhen.Models;
+import com.meerkats.wenzhen.chat.Conversation;
+import com.meerkats.wenzhen.chat.ConversationService;
+import com.meerkats.wenzhen.inference.InferenceScheduler;
+import com.meerkats.wenzhen.inference.OllamaRouter;
+import com.meerkats.wenzhen.inference.Workload;
+import com.meerkats.wenzhen.media.FileSender;
+import com.meerkats.wenzhen.media.PreparedImage;
+import com.meerkats.wenzhen.media.PreparedImageStore;
+import com.meerkats.wenzhen.media.UploadStore;
+import com.meerkats.wenzhen.metrics.InferenceMetrics;
+import com.meerkats.wenzhen.stream.SseStreamWriter;
+import com.meerkats.wenzhen.stream.SseStreams;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.ollama.api.OllamaApi;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
@@ -15,17 +28,11 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.Base64;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -34,183 +41,166 @@ import java.util.concurrent.Executors;
 public class StreamChatController {
 
     private static final Logger log = LoggerFactory.getLogger(StreamChatController.class);
-    private final OllamaApi ollamaApi;
+    private final OllamaRouter ollamaRouter;
+    private final InferenceScheduler inferenceScheduler;
+    private final PreparedImageStore preparedImageStore;
+    private final UploadStore uploadStore;
+    private final FileSender fileSender;
+    private final SseStreams sseStreams;
+    private final InferenceMetrics inferenceMetrics;
+    private final DistributionSummary uploadSize;
+    private final ConversationService conversationService;
     private final Executor executor = Executors.newVirtualThreadPerTaskExecutor();
-    private final Map<String, ChatSession> sessions = new ConcurrentHashMap<>();
-
-    @Value("${file.upload-dir:file_dir}")
-    private String uploadDir;
 
     @Autowired
-    public StreamChatController(OllamaApi ollamaApi) {
-        this.ollamaApi = ollamaApi;
+    public StreamChatController(OllamaRouter ollamaRouter, InferenceScheduler inferenceScheduler,
+                                PreparedImageStore preparedImageStore, UploadStore uploadStore,
+                                FileSender fileSender, SseStreams sseStreams,
+                                InferenceMetrics inferenceMetrics, ConversationService conversationService,
+                                MeterRegistry meterRegistry) {
+        this.ollamaRouter = ollamaRouter;
+        this.inferenceScheduler = inferenceScheduler;
+        this.preparedImageStore = preparedImageStore;
+        this.uploadStore = uploadStore;
+        this.fileSender = fileSender;
+        this.sseStreams = sseStreams;
+        this.inferenceMetrics = inferenceMetrics;
+        this.conversationService = conversationService;
+        this.uploadSize = DistributionSummary.builder("wenzhen.upload.size")
+                .description("上传文件大小")
+                .baseUnit("bytes")
+                .tags("endpoint", "/api/upload", "part", "image")
+                .register(meterRegistry);
     }
 
     /**
-     * 图片上传接口
+     * 图片上传接口，相同内容只保存、预处理一次；返回的 url 即图片访问地址，发起对话时原样传回
      */
     @PostMapping("/upload")
     public ResponseEntity<Map<String, String>> uploadFile(@RequestParam("file") MultipartFile file) {
         try {
-            // 确保上传目录存在
-            Path uploadPath = Paths.get(uploadDir);
-            if (!Files.exists(uploadPath)) {
-                Files.createDirectories(uploadPath);
+            UploadStore.StoredFile stored;
+            try (InputStream in = file.getInputStream()) {
+                stored = uploadStore.store(in, file.getContentType());
             }
+            uploadSize.record(file.getSize());
+            // 上传时完成编码，发起对话时不必再读盘编码；重复上传的图片沿用上次的结果
+            String visionModel = ollamaRouter.primaryModel(Workload.VISION);
+            PreparedImage prepared = stored.deduplicated() ? preparedImageStore.metadata(stored.path(), visionModel)
+                    : preparedImageStore.prepare(stored.path(), stored.contentType(), visionModel);
 
-            // 生成唯一文件名
-            String filename = StringUtils.cleanPath(file.getOriginalFilename());
-            String uniqueFilename = UUID.randomUUID() + "_" + filename;
-
-            // 保存文件
-            Path targetLocation = uploadPath.resolve(uniqueFilename);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-
-            // 返回文件访问URL
-            String fileUrl = "/api/images/" + uniqueFilename;
-            log.info("file url: {}", fileUrl);
-            File uploadDirFile = new File(uploadDir);
-            log.info("uploadDirFile.getAbsolutePath(): {}", uploadDirFile.getAbsolutePath());
+            log.info("file url: {}{}", stored.url(), stored.deduplicated() ? "（已存在）" : "");
             return ResponseEntity.ok(Map.of(
-                    "url", uploadDirFile.getAbsolutePath() + "/" + uniqueFilename,
-                    "filename", filename,
-                    "size", String.valueOf(file.getSize())
+                    "url", stored.url(),
+                    "filename", StringUtils.cleanPath(String.valueOf(file.getOriginalFilename())),
+                    "size", String.valueOf(file.getSize()),
+                    "contentType", String.valueOf(prepared.contentType()),
+                    "width", String.valueOf(prepared.width()),
+                    "height", String.valueOf(prepared.height())
             ));
         } catch (IOException ex) {
+            log.warn("文件上传失败", ex);
             return ResponseEntity.internalServerError().body(Map.of("error", "文件上传失败"));
         }
     }
 
     /**
-     * 图片访问接口
+     * 图片访问接口，地址由内容决定，可以长期缓存
      */
-    @GetMapping("/images/{filename:.+}")
-    public ResponseEntity<Resource> serveFile(@PathVariable String filename) {
-        try {
-            Path filePath = Paths.get(uploadDir).resolve(filename).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists() || resource.isReadable()) {
-                return ResponseEntity.ok()
-                        .contentType(MediaType.IMAGE_JPEG) // 根据实际类型调整
-                        .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
-            }
-        } catch (Exception ex) {
-            return ResponseEntity.notFound().build();
+    @GetMapping("/images/{id:.+}")
+    public void serveFile(@PathVariable String id, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Path path = uploadStore.find(id);
+        if (path == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        fileSender.send(path, UploadStore.contentType(id), id.substring(0, id.indexOf('.')), request, response);
     }
 
     /**
-     * 创建聊天会话 (POST)
+     * 创建聊天会话 (POST)，第一个问题通过 /chat/stream 获取回答
      */
     @PostMapping("/chat/session")
     public Map<String, String> createChatSession(@RequestBody ChatRequest request) {
-        String sessionId = UUID.randomUUID().toString();
-        sessions.put(sessionId, new ChatSession(request.getMessage(), request.getImages()));
-        return Map.of("sessionId", sessionId, "message", request.getMessage());
+        Conversation conversation = conversationService.create(request.getMessage(), request.getImages());
+        return Map.of("sessionId", conversation.id(), "message", request.getMessage());
     }
 
     /**
-     * 流式聊天接口 (GET)
+     * 在已有会话中追问 (POST)，回答同样通过 /chat/stream 获取
+     */
+    @PostMapping("/chat/session/{sessionId}/messages")
+    public ResponseEntity<Map<String, String>> appendMessage(@PathVariable String sessionId,
+                                                             @RequestBody ChatRequest request) {
+        Conversation conversation = conversationService.get(sessionId);
+        if (conversation == null) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            conversationService.ask(conversation, request.getMessage(), request.getImages());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.ok(Map.of("sessionId", sessionId, "message", request.getMessage(),
+                "turn", String.valueOf(conversation.turnCount() + 1)));
+    }
+
+    /**
+     * 结束会话
+     */
+    @DeleteMapping("/chat/session/{sessionId}")
+    public ResponseEntity<Void> deleteChatSession(@PathVariable String sessionId) {
+        conversationService.remove(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * 流式聊天接口 (GET)，回答会话中待回答的问题；回答完成后会话保留，可继续追问
      */
     @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public SseEmitter streamChat(@RequestParam String sessionId) {
         SseEmitter emitter = new SseEmitter(60_000L);
 
-        ChatSession session = sessions.get(sessionId);
-        if (session == null) {
+        Conversation conversation = conversationService.get(sessionId);
+        if (conversation == null) {
             emitter.completeWithError(new IllegalArgumentException("无效的会话ID：" + sessionId));
             return emitter;
         }
-        log.info("session: {}", session);
+        SseStreamWriter writer = sseStreams.open(emitter);
 
         executor.execute(() -> {
+            // 连接提前关闭时中断本线程：排队中的放弃排队位置，生成中的取消订阅
+            writer.onClose(Thread.currentThread()::interrupt);
+            boolean started = false;
             try {
-                // 构建系统提示词，包含图片信息
-                String systemPrompt = "你是一个中医问诊专家";
-                if (session.images != null && !session.images.isEmpty()) {
-                    systemPrompt += "。用户上传了" + session.images.size() + "张图片作为参考，" +
-                            "请结合图片内容和用户问题进行分析。";
+                OllamaApi.ChatRequest request = conversationService.beginTurn(conversation);
+                started = true;
+                String answer;
+                try (InferenceScheduler.Permit ignored = inferenceScheduler.acquire(request.model(),
+                        InferenceScheduler.Priority.INTERACTIVE, position -> writer.event("queue", position))) {
+                    answer = ChatController.streamTo(writer, inferenceMetrics.observe("/api/chat/stream",
+                            request.model(), ollamaRouter.streamingChat(request, conversation.affinity())));
                 }
-
-                List<String> pngBase64s = session.images.stream().map(e -> {
-                    try {
-                        byte[] pngBytes = Files.readAllBytes(Path.of(e));
-                        return new String(Base64.getEncoder().encode(pngBytes));
-                    } catch (IOException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }).toList();
-                ollamaApi.streamingChat(OllamaApi.ChatRequest.builder(Models.GEMMA3_4B)
-                                .stream(true)
-                                .messages(List.of(
-                                        OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM)
-                                                .content(systemPrompt).build(),
-                                        OllamaApi.Message.builder(OllamaApi.Message.Role.USER)
-                                                .content(session.message).images(pngBase64s).build()
-                                )).build())
-                        .toStream()
-                        .forEach(response -> {
-                            try {
-                                if (response.message() != null && response.message().content() != null) {
-                                    emitter.send(SseEmitter.event()
-                                            .data(response.message().content())
-                                            .name("message"));
-                                }
-                                if (response.done() != null && response.done()) {
-                                    emitter.send(SseEmitter.event()
-                                            .name("complete")
-                                            .data(""));
-                                    emitter.complete();
-                                    sessions.remove(sessionId); // 清理会话
-                                }
-                            } catch (IOException e) {
-                                throw new RuntimeException("SSE发送失败", e);
-                            }
-                        });
+                if (answer != null) {
+                    // 先记录本轮，客户端收到完成事件后即可追问
+                    conversationService.completeTurn(conversation, answer);
+                    writer.event("complete", "");
+                } else {
+                    conversationService.abortTurn(conversation);
+                }
+                writer.complete();
             } catch (Exception e) {
-                emitter.completeWithError(e);
-                sessions.remove(sessionId); // 清理会话
+                if (started) {
+                    conversationService.abortTurn(conversation);
+                }
+                writer.completeWithError(e);
             }
         });
 
-        emitter.onCompletion(() -> {
-            System.out.println("SSE连接完成");
-            sessions.remove(sessionId); // 清理会话
-        });
-        emitter.onTimeout(() -> {
-            System.out.println("SSE连接超时");
-            sessions.remove(sessionId); // 清理会话
-        });
-        emitter.onError(ex -> {
-            System.out.println("SSE连接错误: " + ex.getMessage());
-            sessions.remove(sessionId); // 清理会话
-        });
-
         return emitter;
     }
 
-    // 会话数据类
-    private static class ChatSession {
-        String message;
-        List<String> images;
-
-        public ChatSession(String message, List<String> images) {
-            this.message = message;
-            this.images = images;
-        }
-
-        @Override
-        public String toString() {
-            return "ChatSession{" +
-                    "message='" + message + '\'' +
-                    ", images=" + images +
-                    '}';
-        }
-    }
-
     // 请求DTO
     public static class ChatRequest {
         private String message;
@@ -0,0 +1,15 @@
+package com.meerkats.wenzhen.inference;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * 推理队列已满或排队超时
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class InferenceBusyException extends RuntimeException {
+
+    public InferenceBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,314 @@
+package com.meerkats.wenzhen.inference;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.InferenceCacheProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 推理结果缓存，key 为模型、提示词、图片和参数的 SHA-256。
+ * <p>
+ * 内存一级按 LRU + TTL 淘汰；配置了 disk-dir 时结果同时落盘，重启后仍可命中。
+ * 相同 key 的并发请求只会真正调用一次模型，其余请求等待同一个结果。
+ */
+@Component
+public class InferenceCache implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(InferenceCache.class);
+
+    private final InferenceCacheProperties properties;
+    private final ObjectMapper objectMapper;
+    private final Path diskDir;
+
+    private final Map<String, Entry> memory;
+    private final Map<String, CompletableFuture<OllamaApi.ChatResponse>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder sharedLoads = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public record Stats(long hits, long diskHits, long sharedLoads, long misses, int size) {
+    }
+
+    private record Entry(OllamaApi.ChatResponse response, long expiresAt) {
+    }
+
+    public InferenceCache(InferenceCacheProperties properties, ObjectMapper objectMapper) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.diskDir = StringUtils.hasText(properties.getDiskDir()) ? Paths.get(properties.getDiskDir()) : null;
+        int maxEntries = properties.getMaxEntries();
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 计算缓存 key，图片按原始字节参与摘要，命中时无需再做 Base64 编码
+     */
+    public static String mediaKey(String model, String systemMessage, String userMessage,
+                                  List<ByteBuffer> images, Map<String, Object> options) {
+        Digest digest = new Digest();
+        digest.add(model).add(systemMessage).add(userMessage);
+        digest.add(String.valueOf(images.size()));
+        images.forEach(digest::add);
+        digest.add(options == null ? "" : new TreeMap<>(options).toString());
+        return digest.hex();
+    }
+
+    /**
+     * 命中则直接返回，否则调用 loader 并缓存结果。
+     * <p>
+     * 等待同一 key 正在进行的调用时可以被中断（如报告的某一维度超时被取消）；
+     * 发起调用的请求自己被取消时，它的失败不传给等待者，等待者重新查询或自己调用
+     */
+    public OllamaApi.ChatResponse get(String key, Supplier<OllamaApi.ChatResponse> loader) {
+        if (!properties.isEnabled()) {
+            return loader.get();
+        }
+        while (true) {
+            OllamaApi.ChatResponse cached = lookup(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            CompletableFuture<OllamaApi.ChatResponse> mine = new CompletableFuture<>();
+            CompletableFuture<OllamaApi.ChatResponse> existing = loading.putIfAbsent(key, mine);
+            if (existing == null) {
+                return load(key, loader, mine);
+            }
+            sharedLoads.increment();
+            try {
+                return existing.get();
+            } catch (CancellationException e) {
+                // 发起调用的请求被取消，重试
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InferenceBusyException("等待相同请求的推理结果被中断");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * 调用 loader 并把结果交给等待同一 key 的请求；先从 loading 中移除再通知，重试的等待者不会再拿到这次的调用
+     */
+    private OllamaApi.ChatResponse load(String key, Supplier<OllamaApi.ChatResponse> loader,
+                                        CompletableFuture<OllamaApi.ChatResponse> mine) {
+        try {
+            misses.increment();
+            OllamaApi.ChatResponse response = loader.get();
+            if (isCacheable(response)) {
+                store(key, response);
+            }
+            loading.remove(key, mine);
+            mine.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            loading.remove(key, mine);
+            if (cancelled(e)) {
+                mine.cancel(false);
+            } else {
+                mine.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 调用失败是否因为本线程被中断（所在任务被取消），而不是模型或节点的问题
+     */
+    private static boolean cancelled(Throwable error) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException || cause instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), diskHits.sum(), sharedLoads.sum(), misses.sum(), size());
+    }
+
+    public int size() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindResult(registry, "hit", hits);
+        bindResult(registry, "disk_hit", diskHits);
+        bindResult(registry, "shared", sharedLoads);
+        bindResult(registry, "miss", misses);
+        Gauge.builder("wenzhen.cache.entries", this, InferenceCache::size)
+                .description("内存中的推理结果条数")
+                .register(registry);
+    }
+
+    private void bindResult(MeterRegistry registry, String result, LongAdder counter) {
+        FunctionCounter.builder("wenzhen.cache.requests", counter, LongAdder::sum)
+                .description("推理结果缓存查询次数，shared 为等待同一 key 正在进行的调用")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private OllamaApi.ChatResponse lookup(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.increment();
+                    return entry.response;
+                }
+                memory.remove(key);
+            }
+        }
+        OllamaApi.ChatResponse fromDisk = readDisk(key, now);
+        if (fromDisk != null) {
+            diskHits.increment();
+            putMemory(key, fromDisk, now);
+        }
+        return fromDisk;
+    }
+
+    private void store(String key, OllamaApi.ChatResponse response) {
+        putMemory(key, response, System.currentTimeMillis());
+        writeDisk(key, response);
+    }
+
+    private void putMemory(String key, OllamaApi.ChatResponse response, long now) {
+        synchronized (memory) {
+            memory.put(key, new Entry(response, now + properties.getTtl().toMillis()));
+        }
+    }
+
+    private boolean isCacheable(OllamaApi.ChatResponse response) {
+        return response != null && response.message() != null && response.message().content() != null;
+    }
+
+    private Path diskPath(String key) {
+        return diskDir.resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+
+    private OllamaApi.ChatResponse readDisk(String key, long now) {
+        if (diskDir == null) {
+            return null;
+        }
+        Path path = diskPath(key);
+        try {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            if (Files.getLastModifiedTime(path).toMillis() + properties.getTtl().toMillis() <= now) {
+                Files.deleteIfExists(path);
+                return null;
+            }
+            return objectMapper.readValue(path.toFile(), OllamaApi.ChatResponse.class);
+        } catch (IOException e) {
+            log.warn("读取磁盘缓存失败: {}", path, e);
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, OllamaApi.ChatResponse response) {
+        if (diskDir == null) {
+            return;
+        }
+        Path path = diskPath(key);
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+            objectMapper.writeValue(tmp.toFile(), response);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("写入磁盘缓存失败: {}", path, e);
+        }
+    }
+
+    /**
+     * 分段摘要，每段前写入长度避免拼接歧义
+     */
+    public static final class Digest {
+        private final MessageDigest sha256;
+
+        public Digest() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public Digest add(String part) {
+            return add(part == null ? new byte[0] : part.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public Digest add(byte[] part) {
+            sha256.update(longBytes(part.length));
+            sha256.update(part);
+            return this;
+        }
+
+        public Digest add(ByteBuffer part) {
+            sha256.update(longBytes(part.remaining()));
+            sha256.update(part.duplicate());
+            return this;
+        }
+
+        public String hex() {
+            return HexFormat.of().formatHex(sha256.digest());
+        }
+
+        private static byte[] longBytes(long value) {
+            byte[] bytes = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                bytes[i] = (byte) value;
+                value >>>= 8;
+            }
+            return bytes;
+        }
+    }
+}
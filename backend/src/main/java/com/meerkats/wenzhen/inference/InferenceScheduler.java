@@ -0,0 +1,289 @@
+package com.meerkats.wenzhen.inference;
+
+import com.meerkats.wenzhen.config.InferenceSchedulerProperties;
+import com.meerkats.wenzhen.config.OllamaRoutingProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 推理调度器：所有对 Ollama 的调用都先在这里取得许可。
+ * <p>
+ * 每个模型一条通道，同时推理数受限，超出的请求按优先级排队（交互对话优先于报告生成），
+ * 排队超时或队列已满时抛出 {@link InferenceBusyException}。
+ * 通道容量为单节点并发数乘以提供该模型的节点数，增加节点即增加容量。
+ */
+@Component
+public class InferenceScheduler implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(InferenceScheduler.class);
+
+    // 排队期间检查并上报排队位置的间隔
+    private static final long POSITION_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public enum Priority {
+        INTERACTIVE,
+        BATCH
+    }
+
+    /**
+     * 推理许可，用完必须关闭，重复关闭无副作用
+     */
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final InferenceSchedulerProperties properties;
+    private final OllamaRoutingProperties routingProperties;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile MeterRegistry meterRegistry;
+
+    public InferenceScheduler(InferenceSchedulerProperties properties, OllamaRoutingProperties routingProperties) {
+        this.properties = properties;
+        this.routingProperties = routingProperties;
+    }
+
+    /**
+     * 取得许可后执行一次阻塞调用
+     */
+    public <T> T execute(String model, Priority priority, Supplier<T> call) {
+        try (Permit ignored = acquire(model, priority, null)) {
+            return call.get();
+        }
+    }
+
+    /**
+     * 申请推理许可，必要时排队等待
+     *
+     * @param positionListener 排队位置（从1开始）变化时回调，可为null
+     */
+    public Permit acquire(String model, Priority priority, IntConsumer positionListener) {
+        Lane lane = lanes.computeIfAbsent(model, m -> {
+            Lane created = new Lane(m, properties.maxConcurrentFor(m) * routingProperties.backendsServing(m));
+            bindLane(created);
+            return created;
+        });
+        long start = System.nanoTime();
+        Ticket ticket;
+        lane.lock.lock();
+        try {
+            if (lane.inFlight < lane.maxConcurrent && lane.waiting.isEmpty()) {
+                lane.inFlight++;
+                recordWait(model, priority, "immediate", start);
+                return new LanePermit(lane);
+            }
+            if (lane.waiting.size() >= properties.getMaxQueueLength()) {
+                recordWait(model, priority, "rejected", start);
+                throw new InferenceBusyException("推理队列已满: " + model);
+            }
+            ticket = new Ticket(priority, sequence.incrementAndGet(), new CompletableFuture<>());
+            lane.waiting.add(ticket);
+        } finally {
+            lane.lock.unlock();
+        }
+
+        long deadline = System.nanoTime() + properties.getQueueTimeout().toNanos();
+        int lastPosition = 0;
+        try {
+            while (true) {
+                int position = lane.positionOf(ticket);
+                if (positionListener != null && position > 0 && position != lastPosition) {
+                    positionListener.accept(position);
+                    lastPosition = position;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    recordWait(model, priority, "timeout", start);
+                    throw new InferenceBusyException("推理排队超时: " + model);
+                }
+                try {
+                    ticket.granted.get(Math.min(remaining, POSITION_POLL_NANOS), TimeUnit.NANOSECONDS);
+                    recordWait(model, priority, "queued", start);
+                    return new LanePermit(lane);
+                } catch (TimeoutException ignored) {
+                    // 继续等待并刷新排队位置
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lane.abandon(ticket);
+            throw new InferenceBusyException("推理排队被中断: " + model);
+        } catch (ExecutionException e) {
+            lane.abandon(ticket);
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            lane.abandon(ticket);
+            throw e;
+        }
+    }
+
+    public int inFlight(String model) {
+        Lane lane = lanes.get(model);
+        return lane == null ? 0 : lane.inFlight;
+    }
+
+    public int queueDepth(String model) {
+        Lane lane = lanes.get(model);
+        return lane == null ? 0 : lane.waiting.size();
+    }
+
+    /**
+     * 该模型的并发已用满或已有请求在排队，新请求需要等待
+     */
+    public boolean saturated(String model) {
+        Lane lane = lanes.get(model);
+        if (lane == null) {
+            return false;
+        }
+        lane.lock.lock();
+        try {
+            return lane.inFlight >= lane.maxConcurrent || !lane.waiting.isEmpty();
+        } finally {
+            lane.lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        lanes.values().forEach(this::bindLane);
+    }
+
+    private void bindLane(Lane lane) {
+        MeterRegistry registry = meterRegistry;
+        if (registry == null) {
+            return;
+        }
+        Gauge.builder("wenzhen.inference.in.flight", lane, l -> l.inFlight)
+                .description("正在推理的请求数")
+                .tag("model", lane.model)
+                .register(registry);
+        Gauge.builder("wenzhen.inference.queue.depth", lane, l -> l.waiting.size())
+                .description("排队等待推理许可的请求数")
+                .tag("model", lane.model)
+                .register(registry);
+        Gauge.builder("wenzhen.inference.capacity", lane, l -> l.maxConcurrent)
+                .description("允许同时推理的请求数")
+                .tag("model", lane.model)
+                .register(registry);
+    }
+
+    /**
+     * 记录申请许可的等待时间，result 区分直接获得、排队后获得、排队超时和队满拒绝
+     */
+    private void recordWait(String model, Priority priority, String result, long start) {
+        MeterRegistry registry = meterRegistry;
+        if (registry == null) {
+            return;
+        }
+        Timer.builder("wenzhen.inference.queue.wait")
+                .description("申请推理许可的等待时间")
+                .tags("model", model, "priority", priority.name().toLowerCase(), "result", result)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private record Ticket(Priority priority, long seq, CompletableFuture<Void> granted) {
+        static final Comparator<Ticket> ORDER = Comparator.comparing(Ticket::priority)
+                .thenComparingLong(Ticket::seq);
+    }
+
+    private static final class Lane {
+        final String model;
+        final int maxConcurrent;
+        final ReentrantLock lock = new ReentrantLock();
+        final PriorityQueue<Ticket> waiting = new PriorityQueue<>(Ticket.ORDER);
+        volatile int inFlight;
+
+        Lane(String model, int maxConcurrent) {
+            this.model = model;
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        int positionOf(Ticket ticket) {
+            lock.lock();
+            try {
+                if (ticket.granted.isDone() || !waiting.contains(ticket)) {
+                    return 0;
+                }
+                int ahead = 0;
+                for (Ticket other : waiting) {
+                    if (Ticket.ORDER.compare(other, ticket) < 0) {
+                        ahead++;
+                    }
+                }
+                return ahead + 1;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                Ticket next = waiting.poll();
+                if (next != null) {
+                    // 许可直接转交给下一个排队者，inFlight 不变
+                    next.granted.complete(null);
+                } else {
+                    inFlight--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void abandon(Ticket ticket) {
+            boolean removed;
+            lock.lock();
+            try {
+                removed = waiting.remove(ticket);
+            } finally {
+                lock.unlock();
+            }
+            if (!removed) {
+                // 放弃前恰好拿到了许可，需要归还
+                release();
+            }
+        }
+    }
+
+    private static final class LanePermit implements Permit {
+        private final Lane lane;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        LanePermit(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                lane.release();
+            } else {
+                log.debug("重复释放推理许可: {}", lane.model);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.meerkats.wenzhen.inference;
+
+import com.meerkats.wenzhen.config.ModelWarmupProperties;
+import com.meerkats.wenzhen.config.OllamaRoutingProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模型预热与保活，避免用户请求遇到冷启动的模型。
+ * <p>
+ * 启动时在各节点上预加载模型，全部完成或超时后才报告就绪（ApplicationRunner 执行完之后 Spring Boot 才切换到
+ * ACCEPTING_TRAFFIC）；之后定期检查，模型快要到期卸载时发送一个不带消息的请求重新计时。
+ * 配置了 active-hours 时，时段之外只为最近有请求的模型保活，其余任其卸载，到时段开始时重新加载。
+ */
+@Component
+public class ModelWarmer implements ApplicationRunner, HealthIndicator {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelWarmer.class);
+
+    // 加载耗时超过该值认为模型此前未加载
+    private static final Duration COLD_LOAD = Duration.ofMillis(500);
+
+    private final ModelWarmupProperties properties;
+    private final OllamaRouter ollamaRouter;
+    private final MeterRegistry meterRegistry;
+    private final List<String> models;
+
+    public ModelWarmer(ModelWarmupProperties properties, OllamaRoutingProperties routingProperties,
+                       OllamaRouter ollamaRouter, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.ollamaRouter = ollamaRouter;
+        this.meterRegistry = meterRegistry;
+        this.models = !properties.getModels().isEmpty() ? List.copyOf(properties.getModels())
+                : routingProperties.getTiers().values().stream().flatMap(List::stream).distinct().toList();
+        for (OllamaBackend backend : ollamaRouter.backends()) {
+            for (String model : models) {
+                Gauge.builder("wenzhen.ollama.model.loaded", backend.residency(model), r -> r.loaded() ? 1 : 0)
+                        .description("模型是否已在节点上加载，1 为已加载")
+                        .tags("backend", backend.name(), "model", model)
+                        .register(meterRegistry);
+            }
+        }
+    }
+
+    /**
+     * 启动时预加载，各节点、各模型并行加载，最多等待 startup-timeout
+     */
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        log.info("预加载模型: {}", models);
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (OllamaBackend backend : ollamaRouter.backends()) {
+            for (String model : models) {
+                if (backend.serves(model)) {
+                    warmAsync(backend, model, "startup").ifPresent(threads::add);
+                }
+            }
+        }
+        long deadline = start + properties.getStartupTimeout().toNanos();
+        for (Thread thread : threads) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !thread.join(Duration.ofNanos(remaining))) {
+                log.warn("模型预加载超过 {}，继续启动，未完成的模型在后台继续加载", properties.getStartupTimeout());
+                return;
+            }
+        }
+        log.info("模型预加载完成，用时 {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 定期保活：模型未加载或快要到期时重新加载
+     */
+    @Scheduled(fixedDelayString = "${inference.warmup.check-interval-ms:30000}")
+    public void keepWarm() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        boolean active = properties.isActiveAt(LocalTime.now());
+        for (OllamaBackend backend : ollamaRouter.backends()) {
+            if (!backend.available()) {
+                continue;
+            }
+            for (String model : models) {
+                if (!backend.serves(model)) {
+                    continue;
+                }
+                OllamaBackend.Residency residency = backend.residency(model);
+                if (!active) {
+                    Duration idle = residency.sinceLastRequest();
+                    if (idle == null || idle.compareTo(properties.getTrafficWindow()) > 0) {
+                        continue;
+                    }
+                }
+                if (residency.remaining().compareTo(properties.getRefreshBefore()) > 0) {
+                    continue;
+                }
+                warmAsync(backend, model, residency.loaded() ? "refresh" : "load");
+            }
+        }
+    }
+
+    /**
+     * 各节点上各模型的加载情况
+     */
+    @Override
+    public Health health() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        for (OllamaBackend backend : ollamaRouter.backends()) {
+            Map<String, Object> states = new LinkedHashMap<>();
+            for (String model : models) {
+                if (!backend.serves(model)) {
+                    continue;
+                }
+                OllamaBackend.Residency residency = backend.residency(model);
+                Duration remaining = residency.remaining();
+                states.put(model, !residency.loaded() ? "unloaded"
+                        : remaining.toNanos() == Long.MAX_VALUE ? "loaded" : "loaded, " + remaining.toSeconds() + "s left");
+            }
+            details.put(backend.name(), states);
+        }
+        return Health.up().withDetails(details).build();
+    }
+
+    /**
+     * 在虚拟线程中加载；同一节点上的同一模型已在加载时跳过
+     */
+    private Optional<Thread> warmAsync(OllamaBackend backend, String model, String trigger) {
+        OllamaBackend.Residency residency = backend.residency(model);
+        if (!residency.warming.compareAndSet(false, true)) {
+            return Optional.empty();
+        }
+        return Optional.of(Thread.ofVirtual().name("model-warmup-" + backend.name()).start(() -> {
+            try {
+                warm(backend, model, trigger);
+            } finally {
+                residency.warming.set(false);
+            }
+        }));
+    }
+
+    private void warm(OllamaBackend backend, String model, String trigger) {
+        long start = System.nanoTime();
+        String result = "success";
+        try {
+            OllamaApi.ChatResponse response = ollamaRouter.load(backend, model);
+            Long load = response.loadDuration();
+            if (load != null && load > COLD_LOAD.toNanos()) {
+                log.info("模型 {} 已在节点 {} 加载，用时 {} ms", model, backend.name(), TimeUnit.NANOSECONDS.toMillis(load));
+            }
+        } catch (RuntimeException e) {
+            result = "error";
+            backend.residency(model).unloaded();
+            log.warn("模型 {} 在节点 {} 加载失败: {}", model, backend.name(), e.toString());
+        } finally {
+            Timer.builder("wenzhen.ollama.warmup")
+                    .description("预热和保活请求耗时，包含模型加载时间")
+                    .tags("backend", backend.name(), "model", model, "trigger", trigger, "result", result)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.meerkats.wenzhen.inference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 一个 Ollama 节点：记录进行中的请求数、连续失败次数和熔断状态，探活时查到的模型列表，以及各模型的加载情况
+ */
+class OllamaBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaBackend.class);
+
+    /**
+     * 一个模型在该节点上的加载情况。Ollama 在每个请求结束后按请求的 keep_alive 重新计时，到期卸载模型
+     */
+    static final class Residency {
+
+        // 预计卸载的时间（nanoTime），0 表示未加载
+        private volatile long expiresAt;
+        // 最近一次业务请求的时间（nanoTime），0 表示还没有
+        private volatile long lastRequest;
+        final AtomicBoolean warming = new AtomicBoolean();
+
+        void requested() {
+            lastRequest = System.nanoTime();
+        }
+
+        /**
+         * 请求结束，模型保持加载到 keepAlive 之后；keepAlive 为负数时常驻
+         */
+        void served(Duration keepAlive) {
+            long now = System.nanoTime();
+            expiresAt = keepAlive.isNegative() ? Long.MAX_VALUE : Math.max(1, now + keepAlive.toNanos());
+        }
+
+        void unloaded() {
+            expiresAt = 0;
+        }
+
+        boolean loaded() {
+            long expires = expiresAt;
+            return expires != 0 && (expires == Long.MAX_VALUE || System.nanoTime() - expires < 0);
+        }
+
+        /**
+         * 距离卸载的时间，未加载时为 {@link Duration#ZERO}，常驻时为 Long.MAX_VALUE 纳秒
+         */
+        Duration remaining() {
+            long expires = expiresAt;
+            if (expires == Long.MAX_VALUE) {
+                return Duration.ofNanos(Long.MAX_VALUE);
+            }
+            long remaining = expires - System.nanoTime();
+            return expires == 0 || remaining <= 0 ? Duration.ZERO : Duration.ofNanos(remaining);
+        }
+
+        /**
+         * 距离最近一次业务请求的时间，还没有请求时返回 null
+         */
+        Duration sinceLastRequest() {
+            long last = lastRequest;
+            return last == 0 ? null : Duration.ofNanos(System.nanoTime() - last);
+        }
+    }
+
+    private final String name;
+    private final OllamaApi api;
+    private final List<String> configuredModels;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    final AtomicBoolean checking = new AtomicBoolean();
+    private volatile boolean open;
+    private volatile long openUntil;
+    // 熔断到期后是否已有试探请求在进行，同一时间只放行一个
+    private final AtomicBoolean probing = new AtomicBoolean();
+    // 探活查到的模型，null 表示还没有查到
+    private volatile Set<String> discoveredModels;
+    private final Map<String, Residency> residencies = new ConcurrentHashMap<>();
+
+    OllamaBackend(String name, OllamaApi api, List<String> configuredModels, int failureThreshold, Duration openDuration) {
+        this.name = name;
+        this.api = api;
+        this.configuredModels = List.copyOf(configuredModels);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openDuration.toNanos();
+    }
+
+    String name() {
+        return name;
+    }
+
+    OllamaApi api() {
+        return api;
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    int consecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    boolean serves(String model) {
+        if (!configuredModels.isEmpty() && !configuredModels.contains(model)) {
+            return false;
+        }
+        Set<String> discovered = discoveredModels;
+        return discovered == null || discovered.contains(model);
+    }
+
+    Residency residency(String model) {
+        return residencies.computeIfAbsent(model, m -> new Residency());
+    }
+
+    Set<String> models() {
+        Set<String> discovered = discoveredModels;
+        return discovered != null ? discovered : Set.copyOf(configuredModels);
+    }
+
+    /**
+     * 熔断期间不可用；熔断到期后只放行一个试探请求，它的结果决定恢复还是重新熔断，结束前其他请求仍视为不可用
+     */
+    boolean available() {
+        return !open || (System.nanoTime() - openUntil >= 0 && !probing.get());
+    }
+
+    /**
+     * 选中节点时调用：未熔断时总是成功；熔断到期后只有一个调用方能拿到试探名额，
+     * 拿到名额后发出的请求即为试探请求，结束时归还
+     *
+     * @return 是否可以向该节点发出请求，失败时调用方应另选节点
+     */
+    boolean tryAcquire() {
+        if (!open) {
+            return true;
+        }
+        return System.nanoTime() - openUntil >= 0 && probing.compareAndSet(false, true);
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * 调用前需经 {@link #tryAcquire()} 选中；熔断状态下发出的请求是试探请求
+     */
+    <T> T call(Function<OllamaApi, T> call) {
+        boolean probe = open;
+        outstanding.incrementAndGet();
+        try {
+            T result = call.apply(api);
+            succeeded();
+            return result;
+        } catch (RuntimeException e) {
+            failed(e);
+            throw e;
+        } finally {
+            outstanding.decrementAndGet();
+            releaseProbe(probe);
+        }
+    }
+
+    /**
+     * 订阅时计入进行中请求，结束、出错或取消时扣除；取消不算节点失败。调用前同样需经 {@link #tryAcquire()} 选中
+     */
+    <T> Flux<T> stream(Function<OllamaApi, Flux<T>> call) {
+        return Flux.defer(() -> {
+            boolean probe = open;
+            outstanding.incrementAndGet();
+            return call.apply(api)
+                    .doOnComplete(this::succeeded)
+                    .doOnError(this::failed)
+                    .doFinally(signal -> {
+                        outstanding.decrementAndGet();
+                        releaseProbe(probe);
+                    });
+        });
+    }
+
+    /**
+     * 试探请求结束时已经由 succeeded/failed 决定了熔断状态；请求本身的问题或取消不改变状态，下一个请求继续试探
+     */
+    private void releaseProbe(boolean probe) {
+        if (probe) {
+            probing.set(false);
+        }
+    }
+
+    void refreshed(Set<String> models) {
+        discoveredModels = Set.copyOf(models);
+        succeeded();
+    }
+
+    void succeeded() {
+        consecutiveFailures.set(0);
+        if (open) {
+            open = false;
+            log.info("Ollama 节点恢复: {}", name);
+        }
+    }
+
+    void failed(Throwable error) {
+        if (!isBackendFault(error)) {
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openUntil = System.nanoTime() + openNanos;
+            if (!open) {
+                open = true;
+                // 节点可能已经重启，恢复后按未加载处理，由预热重新加载
+                residencies.values().forEach(Residency::unloaded);
+                log.warn("Ollama 节点熔断: {}，原因: {}", name, error.toString());
+            }
+        }
+    }
+
+    /**
+     * 连接失败和 5xx 说明节点本身有问题，4xx（如模型名错误）是请求的问题，不计入熔断
+     */
+    static boolean isBackendFault(Throwable error) {
+        if (error instanceof WebClientResponseException response) {
+            return response.getStatusCode().is5xxServerError();
+        }
+        return error instanceof ResourceAccessException
+                || error instanceof TransientAiException
+                || error instanceof HttpServerErrorException
+                || error instanceof WebClientRequestException;
+    }
+}
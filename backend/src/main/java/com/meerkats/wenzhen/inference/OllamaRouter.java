@@ -0,0 +1,294 @@
+package com.meerkats.wenzhen.inference;
+
+import com.meerkats.wenzhen.config.ModelWarmupProperties;
+import com.meerkats.wenzhen.config.OllamaRoutingProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Ollama 多节点路由，所有模型调用都经过这里。
+ * <p>
+ * 按模型在健康且提供该模型的节点中选择进行中请求最少的一个；节点连续失败时熔断一段时间，
+ * 并定期探活、刷新各节点上的模型列表。按请求类型在 inference.routing.tiers 配置的模型中选择，
+ * 前面的模型已满载时降级到后面的模型。
+ * <p>
+ * 所有请求都带上按模型配置的 keep_alive，并记录各节点上模型预计保持加载到什么时候，供 {@link ModelWarmer} 保活。
+ */
+@Component
+public class OllamaRouter implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaRouter.class);
+
+    public record BackendStatus(String name, int outstanding, int consecutiveFailures, boolean open, Set<String> models) {
+    }
+
+    /**
+     * 请求与节点的绑定：多轮对话的各轮请求尽量发往同一节点，命中该节点上已缓存的提示词前缀
+     */
+    public static final class Affinity {
+
+        private volatile String backend;
+
+        public String backend() {
+            return backend;
+        }
+    }
+
+    private final OllamaRoutingProperties properties;
+    private final ModelWarmupProperties warmupProperties;
+    private final InferenceScheduler inferenceScheduler;
+    private final List<OllamaBackend> backends;
+    // 进行中请求数相同的节点轮流使用
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    public OllamaRouter(OllamaApi ollamaApi, OllamaRoutingProperties properties, ModelWarmupProperties warmupProperties,
+                        InferenceScheduler inferenceScheduler, ObjectProvider<RestClient.Builder> restClientBuilder,
+                        ObjectProvider<WebClient.Builder> webClientBuilder) {
+        this.properties = properties;
+        this.warmupProperties = warmupProperties;
+        this.inferenceScheduler = inferenceScheduler;
+        if (properties.getBackends().isEmpty()) {
+            // 未配置节点列表时沿用 spring.ai.ollama.base-url
+            this.backends = List.of(new OllamaBackend("default", ollamaApi, List.of(),
+                    properties.getFailureThreshold(), properties.getOpenDuration()));
+        } else {
+            this.backends = properties.getBackends().stream().map(backend -> new OllamaBackend(
+                    backend.getName() != null ? backend.getName() : backend.getBaseUrl(),
+                    OllamaApi.builder()
+                            .baseUrl(backend.getBaseUrl())
+                            .restClientBuilder(restClientBuilder.getIfAvailable(RestClient::builder))
+                            .webClientBuilder(webClientBuilder.getIfAvailable(WebClient::builder))
+                            .build(),
+                    backend.getModels(), properties.getFailureThreshold(), properties.getOpenDuration())).toList();
+        }
+        log.info("Ollama 节点: {}", backends.stream().map(OllamaBackend::name).toList());
+    }
+
+    /**
+     * 为一类请求选择模型：依次取梯队中有可用节点且未满载的模型，都满载时取第一个有可用节点的模型排队
+     */
+    public String modelFor(Workload workload) {
+        List<String> tier = properties.tierFor(workload);
+        String fallback = null;
+        for (String model : tier) {
+            if (backends.stream().noneMatch(backend -> backend.available() && backend.serves(model))) {
+                continue;
+            }
+            if (!inferenceScheduler.saturated(model)) {
+                return model;
+            }
+            if (fallback == null) {
+                fallback = model;
+            }
+        }
+        return fallback != null ? fallback : tier.getFirst();
+    }
+
+    /**
+     * 该类请求首选的模型，用于上传时按模型预处理图片等不需要考虑负载的场合
+     */
+    public String primaryModel(Workload workload) {
+        return properties.tierFor(workload).getFirst();
+    }
+
+    /**
+     * 非流式调用；连接失败时请求还没有到达模型，换一个节点重试一次
+     */
+    public OllamaApi.ChatResponse chat(OllamaApi.ChatRequest request) {
+        OllamaBackend backend = choose(request.model(), null);
+        try {
+            return call(backend, request);
+        } catch (ResourceAccessException e) {
+            OllamaBackend other = backends.size() > 1 ? choose(request.model(), backend) : null;
+            if (other == null) {
+                throw e;
+            }
+            log.warn("Ollama 节点 {} 连接失败，改用 {}", backend.name(), other.name());
+            return call(other, request);
+        }
+    }
+
+    /**
+     * 流式调用，订阅时才选择节点；已经输出的内容无法撤回，所以失败时不重试
+     */
+    public Flux<OllamaApi.ChatResponse> streamingChat(OllamaApi.ChatRequest request) {
+        return Flux.defer(() -> stream(choose(request.model(), null), request));
+    }
+
+    /**
+     * 流式调用，优先使用 affinity 上次使用的节点，该节点不可用时另选并更新绑定
+     */
+    public Flux<OllamaApi.ChatResponse> streamingChat(OllamaApi.ChatRequest request, Affinity affinity) {
+        return Flux.defer(() -> {
+            OllamaBackend backend = preferred(request.model(), affinity.backend);
+            if (backend == null) {
+                backend = choose(request.model(), null);
+            }
+            affinity.backend = backend.name();
+            return stream(backend, request);
+        });
+    }
+
+    /**
+     * Ollama 的 keep_alive 取值，如 1800s；负数表示常驻
+     */
+    public static String keepAliveValue(Duration keepAlive) {
+        return keepAlive.isNegative() ? "-1s" : keepAlive.toSeconds() + "s";
+    }
+
+    public List<BackendStatus> status() {
+        return backends.stream().map(backend -> new BackendStatus(backend.name(), backend.outstanding(),
+                backend.consecutiveFailures(), backend.isOpen(), backend.models())).toList();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (OllamaBackend backend : backends) {
+            Gauge.builder("wenzhen.ollama.backend.outstanding", backend, OllamaBackend::outstanding)
+                    .description("节点上进行中的请求数")
+                    .tag("backend", backend.name())
+                    .register(registry);
+            Gauge.builder("wenzhen.ollama.backend.open", backend, b -> b.isOpen() ? 1 : 0)
+                    .description("节点是否处于熔断状态，1 为熔断")
+                    .tag("backend", backend.name())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * 定期探活，同时刷新各节点上已有的模型；每个节点单独一个虚拟线程，慢节点不拖累其他节点
+     */
+    @Scheduled(fixedDelayString = "${inference.routing.health-check-interval-ms:10000}")
+    public void checkHealth() {
+        for (OllamaBackend backend : backends) {
+            if (!backend.checking.compareAndSet(false, true)) {
+                continue;
+            }
+            Thread.ofVirtual().name("ollama-health-" + backend.name()).start(() -> {
+                try {
+                    OllamaApi.ListModelResponse response = backend.api().listModels();
+                    backend.refreshed(response.models() == null ? Set.of() : response.models().stream()
+                            .map(OllamaApi.Model::name).collect(Collectors.toSet()));
+                } catch (RuntimeException e) {
+                    log.debug("Ollama 节点探活失败: {}", backend.name(), e);
+                    backend.failed(e);
+                } finally {
+                    backend.checking.set(false);
+                }
+            });
+        }
+    }
+
+    List<OllamaBackend> backends() {
+        return backends;
+    }
+
+    /**
+     * 在指定节点上加载模型：不带消息的请求只加载模型、重新计算 keep_alive，不做推理。不计为业务请求
+     */
+    OllamaApi.ChatResponse load(OllamaBackend backend, String model) {
+        if (!backend.tryAcquire()) {
+            throw new InferenceBusyException("Ollama 节点不可用: " + backend.name());
+        }
+        OllamaApi.ChatRequest request = withKeepAlive(OllamaApi.ChatRequest.builder(model).messages(List.of()).build());
+        OllamaApi.ChatResponse response = backend.call(api -> api.chat(request));
+        backend.residency(model).served(warmupProperties.keepAliveFor(model));
+        return response;
+    }
+
+    /**
+     * 在指定节点上非流式调用，记录模型的加载情况
+     */
+    private OllamaApi.ChatResponse call(OllamaBackend backend, OllamaApi.ChatRequest request) {
+        OllamaApi.ChatRequest sent = withKeepAlive(request);
+        OllamaBackend.Residency residency = backend.residency(request.model());
+        residency.requested();
+        OllamaApi.ChatResponse response = backend.call(api -> api.chat(sent));
+        residency.served(warmupProperties.keepAliveFor(request.model()));
+        return response;
+    }
+
+    private Flux<OllamaApi.ChatResponse> stream(OllamaBackend backend, OllamaApi.ChatRequest request) {
+        OllamaApi.ChatRequest sent = withKeepAlive(request);
+        OllamaBackend.Residency residency = backend.residency(request.model());
+        residency.requested();
+        return backend.stream(api -> api.streamingChat(sent))
+                .doOnComplete(() -> residency.served(warmupProperties.keepAliveFor(request.model())));
+    }
+
+    /**
+     * 没有指定 keep_alive 的请求按模型配置补上，否则 Ollama 用默认的 5 分钟重新计时，会缩短预热设置的常驻时间
+     */
+    private OllamaApi.ChatRequest withKeepAlive(OllamaApi.ChatRequest request) {
+        if (request.keepAlive() != null) {
+            return request;
+        }
+        return new OllamaApi.ChatRequest(request.model(), request.messages(), request.stream(), request.format(),
+                keepAliveValue(warmupProperties.keepAliveFor(request.model())), request.tools(), request.options());
+    }
+
+    private OllamaBackend preferred(String model, String name) {
+        if (name == null) {
+            return null;
+        }
+        for (OllamaBackend backend : backends) {
+            if (backend.name().equals(name)) {
+                return backend.serves(model) && backend.tryAcquire() ? backend : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在提供该模型的可用节点中选进行中请求最少的一个。刚结束熔断的节点没有进行中的请求，总是排在最前，
+     * 但只有一个请求能拿到它的试探名额，其余请求跳过它选下一个节点
+     *
+     * @param exclude 不参与选择的节点，可为 null
+     * @return 选中的节点；指定了 exclude 且没有其他节点时返回 null
+     * @throws InferenceBusyException 没有任何可用节点
+     */
+    private OllamaBackend choose(String model, OllamaBackend exclude) {
+        int size = backends.size();
+        int start = Math.floorMod(cursor.getAndIncrement(), size);
+        List<Candidate> candidates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            OllamaBackend backend = backends.get((start + i) % size);
+            if (backend != exclude && backend.available() && backend.serves(model)) {
+                candidates.add(new Candidate(backend, backend.outstanding()));
+            }
+        }
+        // 按取到的快照稳定排序，进行中请求数相同时保持轮转的顺序
+        candidates.sort(Comparator.comparingInt(Candidate::outstanding));
+        for (Candidate candidate : candidates) {
+            if (candidate.backend().tryAcquire()) {
+                return candidate.backend();
+            }
+        }
+        if (exclude == null) {
+            throw new InferenceBusyException("没有可用的推理节点: " + model);
+        }
+        return null;
+    }
+
+    private record Candidate(OllamaBackend backend, int outstanding) {
+    }
+}
@@ -0,0 +1,13 @@
+package com.meerkats.wenzhen.inference;
+
+import java.util.List;
+
+/**
+ * 结构化调用的输出约束
+ *
+ * @param schema    JSON Schema 文本，作为 Ollama 的 format 参数；属性顺序即模型的输出顺序
+ * @param required  读到这些顶层字段后即可停止生成
+ * @param maxTokens 最多生成的 token 数（num_predict）
+ */
+public record StructuredOutput(String schema, List<String> required, int maxTokens) {
+}
@@ -0,0 +1,128 @@
+package com.meerkats.wenzhen.inference;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 增量解析模型流式输出的 JSON 对象：每收到一段就推进解析，顶层字段的值读完即可取用，
+ * 不必等整个对象结束，调用方据此在必需字段到齐时取消生成。
+ * <p>
+ * 非线程安全，一次调用一个实例。
+ */
+public final class StructuredOutputParser {
+
+    private final ObjectMapper objectMapper;
+    private final Set<String> required;
+    private final JsonParser parser;
+    private final ObjectNode fields;
+    private int depth;
+    private String field;
+    private TokenBuffer nested;
+    private int nestedDepth;
+
+    public StructuredOutputParser(ObjectMapper objectMapper, Collection<String> required) {
+        this.objectMapper = objectMapper;
+        this.required = new LinkedHashSet<>(required);
+        this.fields = objectMapper.createObjectNode();
+        try {
+            this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 追加一段输出
+     *
+     * @return 必需字段是否已全部读到
+     * @throws IllegalStateException 输出不是合法的 JSON 对象
+     */
+    public boolean feed(String chunk) {
+        if (chunk == null || chunk.isEmpty() || complete()) {
+            return complete();
+        }
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        try {
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                accept(token);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("模型输出不是合法的 JSON: " + e.getMessage(), e);
+        }
+        return complete();
+    }
+
+    public boolean complete() {
+        return required.stream().allMatch(fields::has);
+    }
+
+    /**
+     * 尚未读到的必需字段
+     */
+    public List<String> missing() {
+        List<String> missing = new ArrayList<>();
+        for (String name : required) {
+            if (!fields.has(name)) {
+                missing.add(name);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 已读完的顶层字段
+     */
+    public ObjectNode fields() {
+        return fields;
+    }
+
+    private void accept(JsonToken token) throws IOException {
+        if (nested != null) {
+            nested.copyCurrentEvent(parser);
+            if (token.isStructStart()) {
+                nestedDepth++;
+            } else if (token.isStructEnd() && --nestedDepth == 0) {
+                fields.set(field, objectMapper.readTree(nested.asParser()));
+                nested = null;
+            }
+            return;
+        }
+        if (depth == 0) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("模型输出不是 JSON 对象");
+            }
+            depth = 1;
+            return;
+        }
+        switch (token) {
+            case FIELD_NAME -> field = parser.currentName();
+            case END_OBJECT -> depth = 0;
+            case START_OBJECT, START_ARRAY -> {
+                nested = new TokenBuffer(objectMapper, false);
+                nested.copyCurrentEvent(parser);
+                nestedDepth = 1;
+            }
+            case VALUE_STRING -> fields.put(field, parser.getText());
+            case VALUE_NUMBER_INT -> fields.put(field, parser.getLongValue());
+            case VALUE_NUMBER_FLOAT -> fields.put(field, parser.getDoubleValue());
+            case VALUE_TRUE, VALUE_FALSE -> fields.put(field, token == JsonToken.VALUE_TRUE);
+            case VALUE_NULL -> fields.putNull(field);
+            default -> {
+            }
+        }
+    }
+}
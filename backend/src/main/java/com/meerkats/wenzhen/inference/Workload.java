@@ -0,0 +1,19 @@
+package com.meerkats.wenzhen.inference;
+
+/**
+ * 请求类型，决定在哪一档模型中选择，见 inference.routing.tiers
+ */
+public enum Workload {
+    /**
+     * 纯文本的即时问答，要求响应快
+     */
+    CHAT,
+    /**
+     * 带图片的问诊和面部、舌苔分析，只能使用视觉模型
+     */
+    VISION,
+    /**
+     * 报告中的文本分析，允许更慢、更大的模型
+     */
+    ANALYSIS
+}
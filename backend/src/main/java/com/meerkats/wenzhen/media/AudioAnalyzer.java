@@ -0,0 +1,129 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.config.AudioProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 语音的声学特征提取，把语速、停顿、音调、气息换算成几行数字交给文本模型，
+ * 代替原来只能告诉模型的格式和文件大小。
+ * <ul>
+ *     <li>WAV：javax.sound 解码为 PCM，计算响度和音高</li>
+ *     <li>MP3 / AAC（ADTS）：JDK 没有解码器，只解析帧边信息中的 global_gain 得到响度，没有音高</li>
+ * </ul>
+ * 单次读取、不缓存整段音频，占用内存与录音长度无关；同时分析的数量受 media.audio.max-concurrent 限制。
+ */
+@Component
+public class AudioAnalyzer {
+
+    private static final Logger log = LoggerFactory.getLogger(AudioAnalyzer.class);
+
+    private static final int SNIFF_BYTES = 12;
+    private static final int ID3_HEADER_BYTES = 10;
+
+    private final AudioProperties properties;
+    private final Semaphore permits;
+    private final MeterRegistry meterRegistry;
+
+    public AudioAnalyzer(AudioProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.permits = new Semaphore(Math.max(1, properties.getMaxConcurrent()));
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @return 声学特征；未开启或无法识别的格式（如 MP4 封装的 AAC）返回 null
+     */
+    public AudioFeatures analyze(MediaBlob audio) throws IOException {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待语音分析被中断");
+        }
+        long start = System.nanoTime();
+        try (InputStream in = new BufferedInputStream(audio.openStream(), 64 * 1024)) {
+            AudioFeatures features = analyze(in);
+            Timer.builder("wenzhen.audio.analysis")
+                    .description("语音声学特征提取耗时")
+                    .tag("source", features == null ? "unsupported" : features.source().name())
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return features;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private AudioFeatures analyze(InputStream in) throws IOException {
+        double maxSeconds = properties.getMaxDuration().toMillis() / 1000.0;
+        double longPause = properties.getLongPause().toMillis() / 1000.0;
+        skipId3(in);
+        byte[] head = peek(in);
+        if (isWav(head)) {
+            try {
+                return AudioFeatures.of(AudioFeatures.Source.PCM, PcmAudioReader.read(in, maxSeconds), longPause);
+            } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+                log.info("无法解码的 WAV: {}", e.getMessage());
+                return null;
+            }
+        }
+        if (head.length >= 2 && (head[0] & 0xFF) == 0xFF) {
+            if ((head[1] & 0xF6) == 0xF0) {
+                AudioEnvelope envelope = CompressedAudioReader.readAdts(in, maxSeconds);
+                return envelope == null ? null : AudioFeatures.of(AudioFeatures.Source.AAC, envelope, longPause);
+            }
+            if ((head[1] & 0xE0) == 0xE0) {
+                AudioEnvelope envelope = CompressedAudioReader.readMp3(in, maxSeconds);
+                return envelope == null ? null : AudioFeatures.of(AudioFeatures.Source.MP3, envelope, longPause);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] peek(InputStream in) throws IOException {
+        in.mark(SNIFF_BYTES);
+        byte[] head = in.readNBytes(SNIFF_BYTES);
+        in.reset();
+        return head;
+    }
+
+    private static boolean isWav(byte[] head) {
+        return head.length >= SNIFF_BYTES
+                && new String(head, 0, 4, StandardCharsets.US_ASCII).equals("RIFF")
+                && new String(head, 8, 4, StandardCharsets.US_ASCII).equals("WAVE");
+    }
+
+    /**
+     * 跳过开头的 ID3v2 标签，标签里可能有封面图片，其中的字节会被误认为帧头
+     */
+    private static void skipId3(InputStream in) throws IOException {
+        in.mark(ID3_HEADER_BYTES);
+        byte[] header = in.readNBytes(ID3_HEADER_BYTES);
+        if (header.length < ID3_HEADER_BYTES || header[0] != 'I' || header[1] != 'D' || header[2] != '3') {
+            in.reset();
+            return;
+        }
+        // 标签长度为 4 个 7 位的同步安全整数，不含标签头；有标签尾时再加 10 字节
+        long size = ((header[6] & 0x7F) << 21) | ((header[7] & 0x7F) << 14) | ((header[8] & 0x7F) << 7) | (header[9] & 0x7F);
+        if ((header[5] & 0x10) != 0) {
+            size += ID3_HEADER_BYTES;
+        }
+        in.skipNBytes(size);
+    }
+}
@@ -0,0 +1,84 @@
+package com.meerkats.wenzhen.media;
+
+import java.util.Arrays;
+
+/**
+ * 逐帧的响度（dB）和音高（Hz），由解码或解析音频时顺序追加，后续的特征计算只看这两条曲线。
+ * 帧数有上限，超出后忽略后面的帧，占用内存与录音长度无关。
+ * <p>
+ * 响度只要求帧与帧之间可比：PCM 为 dBFS，压缩格式为帧增益换算的相对值。
+ * 没有编码内容（完全静音）的帧记为 NaN，音高不可测的帧记为 NaN。
+ */
+final class AudioEnvelope {
+
+    private final double frameSeconds;
+    private final int maxFrames;
+    private final boolean pitched;
+    private float[] levels = new float[1024];
+    private float[] pitches;
+    private int size;
+    private boolean truncated;
+
+    /**
+     * @param pitched 是否带音高，压缩格式不解码，没有音高
+     */
+    AudioEnvelope(double frameSeconds, int maxFrames, boolean pitched) {
+        this.frameSeconds = frameSeconds;
+        this.maxFrames = maxFrames;
+        this.pitched = pitched;
+        this.pitches = pitched ? new float[levels.length] : null;
+    }
+
+    /**
+     * @return 是否还能继续追加，达到上限后返回 false，调用方应停止读取
+     */
+    boolean add(float levelDb, float pitchHz) {
+        if (size >= maxFrames) {
+            truncated = true;
+            return false;
+        }
+        if (size == levels.length) {
+            levels = Arrays.copyOf(levels, Math.min(maxFrames, size * 2));
+            if (pitched) {
+                pitches = Arrays.copyOf(pitches, levels.length);
+            }
+        }
+        levels[size] = levelDb;
+        if (pitched) {
+            pitches[size] = pitchHz;
+        }
+        size++;
+        return true;
+    }
+
+    double frameSeconds() {
+        return frameSeconds;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float level(int frame) {
+        return levels[frame];
+    }
+
+    /**
+     * @return 不带音高时恒为 NaN
+     */
+    float pitch(int frame) {
+        return pitched ? pitches[frame] : Float.NaN;
+    }
+
+    boolean pitched() {
+        return pitched;
+    }
+
+    boolean truncated() {
+        return truncated;
+    }
+
+    double durationSeconds() {
+        return size * frameSeconds;
+    }
+}
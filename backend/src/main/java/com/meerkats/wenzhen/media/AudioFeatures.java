@@ -0,0 +1,299 @@
+package com.meerkats.wenzhen.media;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 录音的声学特征，对应语音分析提示词中的语速、停顿、音调和气息几项，由 {@link AudioAnalyzer} 计算
+ *
+ * @param source                 特征的来源，决定响度的精度和是否有音高
+ * @param durationSeconds        分析的时长
+ * @param speechSeconds          其中判定为发声的时长
+ * @param syllableRate           发声段内每秒的音节数（按响度峰计），没有发声时为 0
+ * @param pauses                 句中 0.3 秒以上的停顿次数，不含开头和结尾的静音
+ * @param longPauses             其中超过 longPauseSeconds 的次数
+ * @param meanPauseSeconds       停顿的平均时长
+ * @param longestPauseSeconds    最长的停顿
+ * @param levelVariationDb       发声段内响度的标准差，越小越平直
+ * @param breathEvents           介于背景噪声和说话之间、持续 0.3～2.5 秒的声音，多为叹气或深呼吸
+ * @param pitchMedianHz          基频中位数，无法测量时为 null
+ * @param pitchVariationSemitones 基频相对中位数的标准差（半音），无法测量时为 null
+ * @param pitchRangeSemitones    基频第 10 到第 90 百分位的跨度（半音），无法测量时为 null
+ * @param truncated              录音超过 media.audio.max-duration，只分析了开头
+ */
+public record AudioFeatures(Source source, double durationSeconds, double speechSeconds, double syllableRate,
+                            int pauses, int longPauses, double longPauseSeconds, double meanPauseSeconds,
+                            double longestPauseSeconds, double levelVariationDb, int breathEvents,
+                            Double pitchMedianHz, Double pitchVariationSemitones, Double pitchRangeSemitones,
+                            boolean truncated) {
+
+    public enum Source {
+        PCM("解码后计算"),
+        MP3("由 MP3 帧增益估算，响度精度约 1.5 dB"),
+        AAC("由 AAC 帧增益估算，响度精度约 1.5 dB");
+
+        private final String description;
+
+        Source(String description) {
+            this.description = description;
+        }
+    }
+
+    // 语音检测阈值位于背景噪声与响亮语音之间的位置
+    private static final double SPEECH_FRACTION = 0.4;
+    private static final double BREATH_FRACTION = 0.15;
+    // 动态范围小于此值时无法区分说话和停顿，整段视为发声
+    private static final double MIN_RANGE_DB = 6;
+    private static final double SMOOTHING_SECONDS = 0.05;
+    private static final double MIN_SPEECH_SECONDS = 0.05;
+    // 短于此值的静音是字内的塞音闭塞或字间过渡，不算停顿
+    private static final double BRIDGE_SECONDS = 0.15;
+    private static final double MIN_PAUSE_SECONDS = 0.3;
+    private static final double MIN_BREATH_SECONDS = 0.3;
+    private static final double MAX_BREATH_SECONDS = 2.5;
+    // 相邻音节之间的响度谷至少比两侧的峰低这么多
+    private static final double SYLLABLE_DIP_DB = 3;
+    private static final double MIN_SYLLABLE_SECONDS = 0.1;
+    private static final int MIN_PITCHED_FRAMES = 10;
+
+    /**
+     * 生成写入提示词的描述，附带常见范围供模型对照
+     */
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        text.append("声学特征（").append(source.description).append("）：\n");
+        text.append(format("- 时长 %.1f 秒，其中发声 %.1f 秒（占 %d%%）", durationSeconds, speechSeconds,
+                durationSeconds > 0 ? Math.round(100 * speechSeconds / durationSeconds) : 0));
+        text.append(truncated ? "，只分析了开头部分\n" : "\n");
+        if (speechSeconds == 0) {
+            text.append("- 未检测到明显的发声\n");
+            return text.toString();
+        }
+        text.append(format("- 语速：发声段内约 %.1f 个音节/秒（日常交谈一般约 3.5～5.5）\n", syllableRate));
+        text.append(format("- 停顿：0.3 秒以上 %d 次，平均 %.1f 秒，最长 %.1f 秒；超过 %s 秒的 %d 次\n",
+                pauses, meanPauseSeconds, longestPauseSeconds, format("%.0f", longPauseSeconds), longPauses));
+        text.append(format("- 响度起伏：发声段内标准差 %.1f dB（越小越平直）\n", levelVariationDb));
+        text.append(format("- 疑似叹气或深呼吸：%d 次，约 %.1f 次/分钟\n", breathEvents,
+                breathEvents * 60 / Math.max(durationSeconds, 1)));
+        if (pitchMedianHz != null) {
+            text.append(format("- 音高：中位数 %.0f Hz，波动（标准差）%.1f 个半音，主要范围 %.1f 个半音（波动低于约 2 个半音听感偏单调）\n",
+                    pitchMedianHz, pitchVariationSemitones, pitchRangeSemitones));
+        } else {
+            text.append(source == Source.PCM ? "- 音高：有效的浊音太少，无法测量\n" : "- 音高：压缩音频未解码，无法测量\n");
+        }
+        return text.toString();
+    }
+
+    private static String format(String pattern, Object... args) {
+        return String.format(Locale.ROOT, pattern, args);
+    }
+
+    /**
+     * @return 没有任何帧时返回 null
+     */
+    static AudioFeatures of(Source source, AudioEnvelope envelope, double longPauseSeconds) {
+        int n = envelope.size();
+        if (n == 0) {
+            return null;
+        }
+        double dt = envelope.frameSeconds();
+        double[] finite = new double[n];
+        int finiteCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Float.isNaN(envelope.level(i))) {
+                finite[finiteCount++] = envelope.level(i);
+            }
+        }
+        if (finiteCount == 0) {
+            return new AudioFeatures(source, envelope.durationSeconds(), 0, 0, 0, 0, longPauseSeconds, 0, 0, 0, 0,
+                    null, null, null, envelope.truncated());
+        }
+        Arrays.sort(finite, 0, finiteCount);
+        double floor = finite[(int) (0.10 * (finiteCount - 1))];
+        double peak = finite[(int) (0.95 * (finiteCount - 1))];
+        double range = peak - floor;
+
+        double[] smoothed = smooth(envelope, floor - 2 * MIN_RANGE_DB, frames(SMOOTHING_SECONDS, dt));
+        boolean[] speech = new boolean[n];
+        double threshold = floor + SPEECH_FRACTION * range;
+        for (int i = 0; i < n; i++) {
+            speech[i] = range < MIN_RANGE_DB || smoothed[i] >= threshold;
+        }
+        fill(speech, true, frames(MIN_SPEECH_SECONDS, dt), false);
+        fill(speech, false, frames(BRIDGE_SECONDS, dt), true);
+
+        int first = 0;
+        while (first < n && !speech[first]) {
+            first++;
+        }
+        int last = n - 1;
+        while (last >= 0 && !speech[last]) {
+            last--;
+        }
+        int speechFrames = 0;
+        int pauses = 0;
+        int longPauses = 0;
+        double pauseTotal = 0;
+        double longestPause = 0;
+        for (int i = first; i <= last; ) {
+            int end = runEnd(speech, i);
+            if (speech[i]) {
+                speechFrames += end - i;
+            } else {
+                double seconds = (end - i) * dt;
+                if (seconds >= MIN_PAUSE_SECONDS) {
+                    pauses++;
+                    pauseTotal += seconds;
+                    longestPause = Math.max(longestPause, seconds);
+                    if (seconds > longPauseSeconds) {
+                        longPauses++;
+                    }
+                }
+            }
+            i = end;
+        }
+        double speechSeconds = speechFrames * dt;
+
+        int breathEvents = 0;
+        double breathLevel = floor + BREATH_FRACTION * range;
+        for (int i = 0; i < n; ) {
+            int end = i;
+            while (end < n && !speech[end] && smoothed[end] >= breathLevel) {
+                end++;
+            }
+            double seconds = (end - i) * dt;
+            if (range >= MIN_RANGE_DB && seconds >= MIN_BREATH_SECONDS && seconds <= MAX_BREATH_SECONDS) {
+                breathEvents++;
+            }
+            i = Math.max(end, i + 1);
+        }
+
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            mean += speech[i] ? smoothed[i] : 0;
+        }
+        mean = speechFrames > 0 ? mean / speechFrames : 0;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            variance += speech[i] ? (smoothed[i] - mean) * (smoothed[i] - mean) : 0;
+        }
+        double levelVariation = speechFrames > 0 ? Math.sqrt(variance / speechFrames) : 0;
+
+        int syllables = syllables(smoothed, speech, frames(MIN_SYLLABLE_SECONDS, dt));
+
+        Double pitchMedian = null;
+        Double pitchVariation = null;
+        Double pitchRange = null;
+        List<Double> pitches = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (speech[i] && !Float.isNaN(envelope.pitch(i))) {
+                pitches.add((double) envelope.pitch(i));
+            }
+        }
+        if (pitches.size() >= MIN_PITCHED_FRAMES) {
+            pitches.sort(null);
+            double median = pitches.get(pitches.size() / 2);
+            double sum = 0;
+            double sumSquares = 0;
+            for (double hz : pitches) {
+                double semitones = 12 * Math.log(hz / median) / Math.log(2);
+                sum += semitones;
+                sumSquares += semitones * semitones;
+            }
+            double semitoneMean = sum / pitches.size();
+            pitchMedian = median;
+            pitchVariation = Math.sqrt(Math.max(0, sumSquares / pitches.size() - semitoneMean * semitoneMean));
+            pitchRange = 12 * Math.log(pitches.get((int) (0.9 * (pitches.size() - 1)))
+                    / pitches.get((int) (0.1 * (pitches.size() - 1)))) / Math.log(2);
+        }
+
+        return new AudioFeatures(source, envelope.durationSeconds(), speechSeconds,
+                speechSeconds > 0 ? syllables / speechSeconds : 0,
+                pauses, longPauses, longPauseSeconds, pauses > 0 ? pauseTotal / pauses : 0, longestPause,
+                levelVariation, breathEvents, pitchMedian, pitchVariation, pitchRange, envelope.truncated());
+    }
+
+    private static int frames(double seconds, double frameSeconds) {
+        return Math.max(1, (int) Math.round(seconds / frameSeconds));
+    }
+
+    /**
+     * 居中的滑动平均，静音帧按 silence 计
+     */
+    private static double[] smooth(AudioEnvelope envelope, double silence, int width) {
+        int n = envelope.size();
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            float level = envelope.level(i);
+            values[i] = Float.isNaN(level) ? silence : level;
+        }
+        double[] smoothed = new double[n];
+        int half = width / 2;
+        double sum = 0;
+        int count = 0;
+        for (int i = 0, right = 0, left = 0; i < n; i++) {
+            while (right < n && right <= i + half) {
+                sum += values[right++];
+                count++;
+            }
+            while (left < i - half) {
+                sum -= values[left++];
+                count--;
+            }
+            smoothed[i] = sum / count;
+        }
+        return smoothed;
+    }
+
+    /**
+     * 把值为 value、短于 minFrames 的段取反；interior 为 true 时不处理开头和结尾的段
+     */
+    private static void fill(boolean[] mask, boolean value, int minFrames, boolean interior) {
+        for (int i = 0; i < mask.length; ) {
+            int end = runEnd(mask, i);
+            if (mask[i] == value && end - i < minFrames && (!interior || i > 0 && end < mask.length)) {
+                Arrays.fill(mask, i, end, !value);
+            }
+            i = end;
+        }
+    }
+
+    private static int runEnd(boolean[] mask, int start) {
+        int end = start;
+        while (end < mask.length && mask[end] == mask[start]) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * 按响度峰数音节：峰之间的谷足够深、间隔足够长才算两个音节，否则保留较高的峰
+     */
+    private static int syllables(double[] smoothed, boolean[] speech, int minGap) {
+        int count = 0;
+        int lastPeak = -1;
+        double valley = Double.POSITIVE_INFINITY;
+        for (int i = 1; i < smoothed.length - 1; i++) {
+            if (!speech[i]) {
+                lastPeak = -1;
+                continue;
+            }
+            valley = Math.min(valley, smoothed[i]);
+            if (smoothed[i] < smoothed[i - 1] || smoothed[i] < smoothed[i + 1]) {
+                continue;
+            }
+            boolean separate = lastPeak < 0 || i - lastPeak >= minGap
+                    && Math.min(smoothed[lastPeak], smoothed[i]) - valley >= SYLLABLE_DIP_DB;
+            if (separate) {
+                count++;
+            } else if (smoothed[i] <= smoothed[lastPeak]) {
+                continue;
+            }
+            lastPeak = i;
+            valley = smoothed[i];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,260 @@
+package com.meerkats.wenzhen.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 不解码、只解析帧头和边信息，从 MP3 / AAC（ADTS）码流中读出逐帧的响度。
+ * <p>
+ * 两种格式的量化器都按 global_gain 决定步长，每增加 1 约等于幅度增大 1.5 dB，
+ * 编码器为响的帧选用大步长、为安静的帧选用小步长，因此 1.5 × global_gain 可以作为帧响度的相对值
+ * （精度约 1.5 dB，时间分辨率为一个 granule / 帧，即 13～26 ms）。
+ * 没有任何编码内容的 MP3 granule（part2_3_length 为 0）记为静音。
+ * <p>
+ * 只需要每帧读几十个字节，不需要哈夫曼解码、反量化和滤波器组，
+ * 一分钟的录音在毫秒级完成，缓冲区大小固定为一帧。
+ */
+final class CompressedAudioReader {
+
+    private static final double GAIN_STEP_DB = 1.5;
+
+    private static final int MP3_GRANULE_SAMPLES = 576;
+    private static final int AAC_FRAME_SAMPLES = 1024;
+    private static final int MAX_FRAME_BYTES = 8192;
+    private static final int ADTS_HEADER_BYTES = 7;
+
+    private static final int[] MP3_V1_BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] MP3_V2_BITRATES = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+    private static final int[] MP3_V1_SAMPLE_RATES = {44100, 48000, 32000};
+    private static final int[] ADTS_SAMPLE_RATES =
+            {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    private static final int AAC_SCE = 0;
+    private static final int AAC_CPE = 1;
+    private static final int AAC_LFE = 3;
+    private static final int AAC_EIGHT_SHORT_SEQUENCE = 2;
+
+    private CompressedAudioReader() {
+    }
+
+    /**
+     * @param in 从第一个帧头（或其之前的任意垃圾数据）开始，ID3v2 标签需由调用方跳过
+     * @return 没有找到任何有效帧时返回 null
+     */
+    static AudioEnvelope readMp3(InputStream in, double maxSeconds) throws IOException {
+        byte[] frame = new byte[MAX_FRAME_BYTES];
+        AudioEnvelope envelope = null;
+        if (!readFully(in, frame, 0, 4)) {
+            return null;
+        }
+        while (true) {
+            int header = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+            int length = mp3FrameLength(header);
+            if (length < 0) {
+                // 不是帧头（标签、损坏的数据），逐字节向后找同步字
+                if (!shift(in, frame, 4)) {
+                    break;
+                }
+                continue;
+            }
+            if (!readFully(in, frame, 4, length - 4)) {
+                break;
+            }
+            boolean mpeg1 = ((header >>> 19) & 3) == 3;
+            int sampleRate = mp3SampleRate(header);
+            if (envelope == null) {
+                envelope = new AudioEnvelope((double) MP3_GRANULE_SAMPLES / sampleRate,
+                        (int) Math.ceil(maxSeconds * sampleRate / MP3_GRANULE_SAMPLES), false);
+            }
+            boolean mono = ((header >>> 6) & 3) == 3;
+            int channels = mono ? 1 : 2;
+            boolean crc = ((header >>> 16) & 1) == 0;
+            BitReader side = new BitReader(frame, crc ? 6 : 4, length);
+            int granules = mpeg1 ? 2 : 1;
+            if (mpeg1) {
+                side.skip(9 + (mono ? 5 : 3) + 4 * channels);
+            } else {
+                side.skip(8 + (mono ? 1 : 2));
+            }
+            boolean more = true;
+            for (int gr = 0; gr < granules && more; gr++) {
+                float level = Float.NaN;
+                for (int ch = 0; ch < channels; ch++) {
+                    int part23Length = side.bits(12);
+                    side.skip(9);
+                    int globalGain = side.bits(8);
+                    // scalefac_compress、window_switching_flag 及其后的分区信息、preflag 等
+                    side.skip(mpeg1 ? 4 + 1 + 22 + 3 : 9 + 1 + 22 + 2);
+                    if (part23Length > 0) {
+                        level = Float.isNaN(level) ? (float) (GAIN_STEP_DB * globalGain)
+                                : Math.max(level, (float) (GAIN_STEP_DB * globalGain));
+                    }
+                }
+                more = envelope.add(level, Float.NaN);
+            }
+            if (!more || !readFully(in, frame, 0, 4)) {
+                break;
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * @return 没有找到任何有效帧时返回 null
+     */
+    static AudioEnvelope readAdts(InputStream in, double maxSeconds) throws IOException {
+        byte[] frame = new byte[MAX_FRAME_BYTES];
+        AudioEnvelope envelope = null;
+        if (!readFully(in, frame, 0, ADTS_HEADER_BYTES)) {
+            return null;
+        }
+        while (true) {
+            int sampleRateIndex = (frame[2] >> 2) & 0xF;
+            int length = ((frame[3] & 0x3) << 11) | ((frame[4] & 0xFF) << 3) | ((frame[5] & 0xFF) >> 5);
+            int blocks = (frame[6] & 0x3) + 1;
+            boolean protectionAbsent = (frame[1] & 1) == 1;
+            // 有 CRC 时，第一个数据块前还有其余块的位置表和校验值，各 16 位
+            int dataOffset = ADTS_HEADER_BYTES + (protectionAbsent ? 0 : 2 * blocks);
+            boolean sync = (frame[0] & 0xFF) == 0xFF && (frame[1] & 0xF6) == 0xF0
+                    && sampleRateIndex < ADTS_SAMPLE_RATES.length && length > dataOffset && length <= MAX_FRAME_BYTES;
+            if (!sync) {
+                if (!shift(in, frame, ADTS_HEADER_BYTES)) {
+                    break;
+                }
+                continue;
+            }
+            if (!readFully(in, frame, ADTS_HEADER_BYTES, length - ADTS_HEADER_BYTES)) {
+                break;
+            }
+            int sampleRate = ADTS_SAMPLE_RATES[sampleRateIndex];
+            if (envelope == null) {
+                envelope = new AudioEnvelope((double) AAC_FRAME_SAMPLES / sampleRate,
+                        (int) Math.ceil(maxSeconds * sampleRate / AAC_FRAME_SAMPLES), false);
+            }
+            // 一帧中有多个数据块时只解析第一个，其余块沿用它的响度
+            float level = aacGlobalGain(new BitReader(frame, dataOffset, length));
+            boolean more = true;
+            for (int i = 0; i < blocks && more; i++) {
+                more = envelope.add(level, Float.NaN);
+            }
+            if (!more || !readFully(in, frame, 0, ADTS_HEADER_BYTES)) {
+                break;
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * @return 帧长（字节），不是合法的 MPEG Layer III 帧头时返回 -1
+     */
+    static int mp3FrameLength(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 3;
+        // 不支持 free format（码率索引 0）
+        if ((header >>> 21) != 0x7FF || version == 1 || layer != 1
+                || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return -1;
+        }
+        boolean mpeg1 = version == 3;
+        int bitrate = (mpeg1 ? MP3_V1_BITRATES : MP3_V2_BITRATES)[bitrateIndex] * 1000;
+        int padding = (header >>> 9) & 1;
+        return (mpeg1 ? 144 : 72) * bitrate / mp3SampleRate(header) + padding;
+    }
+
+    private static int mp3SampleRate(int header) {
+        int version = (header >>> 19) & 3;
+        int base = MP3_V1_SAMPLE_RATES[(header >>> 10) & 3];
+        // MPEG-2 为一半，MPEG-2.5 为四分之一
+        return switch (version) {
+            case 3 -> base;
+            case 2 -> base / 2;
+            default -> base / 4;
+        };
+    }
+
+    /**
+     * 读出第一个声道元素的 global_gain，CPE 只取第一个声道
+     */
+    private static float aacGlobalGain(BitReader reader) {
+        try {
+            int element = reader.bits(3);
+            reader.skip(4);
+            if (element == AAC_CPE && reader.bits(1) == 1) {
+                // common_window：两个声道共用的 ics_info 和 M/S 信息在 global_gain 之前
+                reader.skip(1);
+                int windowSequence = reader.bits(2);
+                reader.skip(1);
+                int maxSfb;
+                int groups = 1;
+                if (windowSequence == AAC_EIGHT_SHORT_SEQUENCE) {
+                    maxSfb = reader.bits(4);
+                    groups += 7 - Integer.bitCount(reader.bits(7));
+                } else {
+                    maxSfb = reader.bits(6);
+                    if (reader.bits(1) == 1) {
+                        // 预测只出现在 AAC Main，不解析
+                        return Float.NaN;
+                    }
+                }
+                if (reader.bits(2) == 1) {
+                    reader.skip(groups * maxSfb);
+                }
+            } else if (element != AAC_SCE && element != AAC_LFE && element != AAC_CPE) {
+                return Float.NaN;
+            }
+            return (float) (GAIN_STEP_DB * reader.bits(8));
+        } catch (IndexOutOfBoundsException e) {
+            return Float.NaN;
+        }
+    }
+
+    /**
+     * 丢弃第一个字节，再读入一个字节补齐 headerBytes 个字节
+     */
+    private static boolean shift(InputStream in, byte[] frame, int headerBytes) throws IOException {
+        System.arraycopy(frame, 1, frame, 0, headerBytes - 1);
+        return readFully(in, frame, headerBytes - 1, 1);
+    }
+
+    /**
+     * @return 流在读满之前结束时返回 false
+     */
+    private static boolean readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        return in.readNBytes(buffer, offset, length) == length;
+    }
+
+    /**
+     * 大端位读取，越界时抛 IndexOutOfBoundsException
+     */
+    private static final class BitReader {
+
+        private final byte[] data;
+        private final int limit;
+        private long position;
+
+        BitReader(byte[] data, int offset, int limit) {
+            this.data = data;
+            this.limit = limit;
+            this.position = offset * 8L;
+        }
+
+        int bits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                int index = (int) (position >>> 3);
+                if (index >= limit) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                value = (value << 1) | ((data[index] >> (7 - (int) (position & 7))) & 1);
+                position++;
+            }
+            return value;
+        }
+
+        void skip(int count) {
+            position += count;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.config.ImageProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 图片预处理：按 EXIF 转正、缩放到模型原生输入尺寸、重新压缩为 JPEG。
+ * <p>
+ * 手机照片动辄几千像素，而视觉模型内部只用 {@link com.meerkats.wenzhen.Models#GEMMA3_4B_IMAGE_SIZE} 左右的分辨率，
+ * 提前缩小可以把请求体和模型的图片编码时间都降一个数量级。大图解码时直接按比例跳采样，避免先解出全尺寸像素。
+ */
+@Component
+public class ImageNormalizer {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageNormalizer.class);
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    private final ImageProperties properties;
+    private final Semaphore decodePermits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ImageNormalizer(ImageProperties properties) {
+        this.properties = properties;
+        this.decodePermits = new Semaphore(Math.max(1, properties.getMaxConcurrent()));
+    }
+
+    /**
+     * 在虚拟线程上异步预处理，多张图片可以并行；图片损坏等原因导致预处理失败时结果为 null，直接使用原图
+     */
+    public CompletableFuture<NormalizedImage> normalizeAsync(InputStreamSource source, String contentType, String model) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return normalize(source, contentType, model);
+            } catch (IOException | RuntimeException e) {
+                log.warn("图片预处理失败，使用原图: {}", e.toString());
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * @return 处理后的图片；未开启预处理、格式无法识别或原图已足够小时返回 null，表示直接使用原图
+     */
+    public NormalizedImage normalize(InputStreamSource source, String contentType, String model) throws IOException {
+        if (!properties.isNormalize()) {
+            return null;
+        }
+        try {
+            decodePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待图片解码被中断");
+        }
+        try {
+            return doNormalize(source, properties.targetSizeFor(model));
+        } finally {
+            decodePermits.release();
+        }
+    }
+
+    private NormalizedImage doNormalize(InputStreamSource source, int target) throws IOException {
+        int orientation;
+        try (InputStream in = source.getInputStream()) {
+            orientation = readOrientation(in);
+        }
+
+        BufferedImage decoded;
+        try (InputStream in = source.getInputStream();
+             ImageInputStream iis = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                log.warn("无法识别的图片格式，跳过预处理");
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (Math.max(width, height) <= target && orientation <= 1) {
+                    return null;
+                }
+                // 先按整数倍跳采样解码，保留目标尺寸两倍以上的像素留给后面的平滑缩放
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (target * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        BufferedImage oriented = orient(scale(decoded, target), orientation);
+        byte[] jpeg = writeJpeg(oriented, properties.getQuality());
+        return new NormalizedImage(jpeg, "image/jpeg", oriented.getWidth(), oriented.getHeight());
+    }
+
+    /**
+     * 逐级减半缩放到最长边不超过 target，同时转为不带透明通道的 RGB
+     */
+    private static BufferedImage scale(BufferedImage source, int target) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double ratio = Math.min(1.0, (double) target / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+
+        BufferedImage current = source;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    /**
+     * 按 EXIF Orientation 把像素转正
+     */
+    private static BufferedImage orient(BufferedImage source, int orientation) {
+        int w = source.getWidth();
+        int h = source.getHeight();
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, w, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, w, h);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, h);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, h, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, h, w);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, w);
+            default -> null;
+        };
+        if (transform == null) {
+            return source;
+        }
+        boolean swap = orientation >= 5;
+        BufferedImage target = new BufferedImage(swap ? h : w, swap ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.drawImage(source, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] writeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 从 JPEG 的 APP1(Exif) 段读取方向，非 JPEG 或没有该标签时返回 1
+     */
+    static int readOrientation(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (data.readUnsignedShort() != 0xFFD8) {
+                return 1;
+            }
+            while (true) {
+                int marker = data.readUnsignedShort();
+                // 到达图像数据（SOS）说明元数据段已经结束
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA) {
+                    return 1;
+                }
+                int length = data.readUnsignedShort() - 2;
+                if (marker == 0xFFE1) {
+                    int orientation = parseExifOrientation(data.readNBytes(length));
+                    if (orientation > 0) {
+                        return orientation;
+                    }
+                } else {
+                    data.skipNBytes(length);
+                }
+            }
+        } catch (EOFException e) {
+            return 1;
+        }
+    }
+
+    private static int parseExifOrientation(byte[] segment) {
+        byte[] header = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+        if (segment.length < 14 || !Arrays.equals(segment, 0, 6, header, 0, 6)) {
+            return 0;
+        }
+        int tiff = 6;
+        ByteOrder order = segment[tiff] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        ByteBuffer buffer = ByteBuffer.wrap(segment).order(order);
+        try {
+            int ifd = tiff + buffer.getInt(tiff + 4);
+            int entries = buffer.getShort(ifd) & 0xFFFF;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd + 2 + i * 12;
+                if ((buffer.getShort(entry) & 0xFFFF) == EXIF_ORIENTATION_TAG) {
+                    return buffer.getShort(entry + 8) & 0xFFFF;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            log.debug("EXIF 段不完整，忽略方向信息");
+        }
+        return 0;
+    }
+}
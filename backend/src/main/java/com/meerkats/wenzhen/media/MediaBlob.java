@@ -0,0 +1,27 @@
+package com.meerkats.wenzhen.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 媒体存储中的一个文件，内容位于堆外内存或磁盘映射中
+ */
+public interface MediaBlob {
+
+    String contentType();
+
+    long size();
+
+    /**
+     * 只读视图，每次调用返回独立的 position/limit
+     */
+    ByteBuffer buffer() throws IOException;
+
+    InputStream openStream() throws IOException;
+
+    /**
+     * 是否已转存到磁盘
+     */
+    boolean spilled();
+}
@@ -0,0 +1,67 @@
+package com.meerkats.wenzhen.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 媒体文件编码工具
+ */
+public final class MediaEncoding {
+
+    private MediaEncoding() {
+    }
+
+    public static int base64Length(long size) {
+        long length = (size + 2) / 3 * 4;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("文件过大，无法编码: " + size);
+        }
+        return (int) length;
+    }
+
+    /**
+     * 从存储中流式读取并编码为 Base64。
+     * <p>
+     * 编码结果直接写入一个长度精确的数组，不产生原始内容的堆上副本，也没有扩容拷贝。
+     */
+    public static String base64(MediaBlob blob) throws IOException {
+        try (InputStream in = blob.openStream()) {
+            return base64(in, blob.size());
+        }
+    }
+
+    /**
+     * 流式编码长度已知的输入流，调用方负责关闭
+     */
+    public static String base64(InputStream in, long size) throws IOException {
+        byte[] encoded = new byte[base64Length(size)];
+        try (OutputStream out = Base64.getEncoder().wrap(new FixedArrayOutputStream(encoded))) {
+            in.transferTo(out);
+        }
+        // Base64 只含 ASCII，按 Latin-1 构造 String 不需要解码
+        return new String(encoded, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class FixedArrayOutputStream extends OutputStream {
+        private final byte[] target;
+        private int position;
+
+        FixedArrayOutputStream(byte[] target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            target[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, target, position, len);
+            position += len;
+        }
+    }
+}
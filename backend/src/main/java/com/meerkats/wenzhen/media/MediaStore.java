@@ -0,0 +1,37 @@
+package com.meerkats.wenzhen.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * 按会话暂存用户上传的多媒体文件，线程安全，占用内存有上限
+ */
+public interface MediaStore {
+
+    /**
+     * 写入一个文件，同名文件会被替换
+     *
+     * @param size 内容长度，未知时传 -1（直接写入磁盘）
+     */
+    MediaBlob put(String sessionId, String name, String contentType, long size, InputStream data) throws IOException;
+
+    /**
+     * @return 文件不存在或已过期时返回 null
+     */
+    MediaBlob get(String sessionId, String name);
+
+    /**
+     * @return 会话下的全部文件，会话不存在时返回空 Map
+     */
+    Map<String, MediaBlob> getSession(String sessionId);
+
+    boolean contains(String sessionId);
+
+    void remove(String sessionId);
+
+    Stats stats();
+
+    record Stats(int sessions, long memoryBytes, long diskBytes) {
+    }
+}
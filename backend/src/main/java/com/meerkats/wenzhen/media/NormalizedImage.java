@@ -0,0 +1,7 @@
+package com.meerkats.wenzhen.media;
+
+/**
+ * 预处理后准备发送给模型的图片
+ */
+public record NormalizedImage(byte[] data, String contentType, int width, int height) {
+}
@@ -0,0 +1,425 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.config.MediaStoreProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 媒体存储实现：文件内容放在堆外直接内存中，超出内存预算时把最久未访问会话的文件转存到磁盘，
+ * 读取转存文件时使用内存映射。会话超过 TTL 未访问或磁盘预算不足时整体淘汰。
+ */
+@Component
+public class OffHeapMediaStore implements MediaStore, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(OffHeapMediaStore.class);
+
+    private final MediaStoreProperties properties;
+    private final Path spillDir;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    // 预算记账和转存/淘汰决策都在这把锁内完成
+    private final Object budgetLock = new Object();
+    private long memoryUsed;
+    private long diskUsed;
+
+    public OffHeapMediaStore(MediaStoreProperties properties) throws IOException {
+        this.properties = properties;
+        // 同一目录可能被同一台机器上的其他实例共用，每个实例只使用并清理自己的子目录
+        Path root = Paths.get(properties.getSpillDir());
+        Files.createDirectories(root);
+        this.spillDir = Files.createTempDirectory(root, "instance-");
+    }
+
+    @Override
+    public MediaBlob put(String sessionId, String name, String contentType, long size, InputStream data) throws IOException {
+        Session session = sessions.computeIfAbsent(sessionId, Session::new);
+        session.touch();
+
+        Blob blob;
+        if (size >= 0 && size <= Integer.MAX_VALUE && reserveMemory(session, size)) {
+            try {
+                blob = readDirect(contentType, (int) size, data);
+            } catch (IOException | RuntimeException e) {
+                releaseMemory(size);
+                throw e;
+            }
+        } else {
+            Path file = spillDir.resolve(UUID.randomUUID().toString());
+            long written = Files.copy(data, file, StandardCopyOption.REPLACE_EXISTING);
+            reserveDisk(session, written, file);
+            blob = new FileBlob(contentType, written, file);
+        }
+
+        synchronized (budgetLock) {
+            // 读入期间会话可能已被删除或因磁盘预算不足被淘汰，此时不能再挂到它上面，否则文件无人释放
+            if (sessions.get(sessionId) != session) {
+                release(blob);
+                throw new IOException("媒体会话已被移除: " + sessionId);
+            }
+            Blob old = session.blobs.put(name, blob);
+            if (old != null) {
+                release(old);
+            }
+        }
+        return blob;
+    }
+
+    @Override
+    public MediaBlob get(String sessionId, String name) {
+        Session session = touch(sessionId);
+        return session == null ? null : session.blobs.get(name);
+    }
+
+    @Override
+    public Map<String, MediaBlob> getSession(String sessionId) {
+        Session session = touch(sessionId);
+        return session == null ? Map.of() : Map.copyOf(session.blobs);
+    }
+
+    @Override
+    public boolean contains(String sessionId) {
+        return touch(sessionId) != null;
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        // 与转存在同一把锁内进行，转存不会再选中已移除的会话，释放时看到的也是转存后的文件
+        synchronized (budgetLock) {
+            Session session = sessions.remove(sessionId);
+            if (session != null) {
+                session.blobs.values().forEach(this::release);
+                session.blobs.clear();
+            }
+        }
+    }
+
+    @Override
+    public Stats stats() {
+        synchronized (budgetLock) {
+            return new Stats(sessions.size(), memoryUsed, diskUsed);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("wenzhen.media.sessions", this, store -> store.stats().sessions())
+                .description("媒体存储中的会话数")
+                .register(registry);
+        Gauge.builder("wenzhen.media.bytes", this, store -> store.stats().memoryBytes())
+                .description("媒体存储占用的字节数")
+                .baseUnit("bytes")
+                .tag("tier", "memory")
+                .register(registry);
+        Gauge.builder("wenzhen.media.bytes", this, store -> store.stats().diskBytes())
+                .description("媒体存储占用的字节数")
+                .baseUnit("bytes")
+                .tag("tier", "disk")
+                .register(registry);
+    }
+
+    /**
+     * 定期清理超过 TTL 未访问的会话
+     */
+    @Scheduled(fixedDelayString = "${media.store.cleanup-interval-ms:60000}")
+    public void evictExpired() {
+        long deadline = System.currentTimeMillis() - properties.getTtl().toMillis();
+        sessions.values().stream()
+                .filter(s -> s.lastAccess < deadline)
+                .map(s -> s.id)
+                .toList()
+                .forEach(id -> {
+                    log.debug("媒体会话过期: {}", id);
+                    remove(id);
+                });
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        sessions.keySet().forEach(this::remove);
+        FileSystemUtils.deleteRecursively(spillDir);
+    }
+
+    private Session touch(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    private boolean reserveMemory(Session current, long size) {
+        long budget = properties.getMemoryBudget().toBytes();
+        if (size > budget) {
+            return false;
+        }
+        synchronized (budgetLock) {
+            while (memoryUsed + size > budget) {
+                Session victim = sessions.values().stream()
+                        .filter(s -> s != current && sessions.get(s.id) == s && s.hasMemoryBlobs())
+                        .min(Comparator.comparingLong(s -> s.lastAccess))
+                        .orElse(null);
+                if (victim == null || !spill(victim)) {
+                    return false;
+                }
+            }
+            memoryUsed += size;
+            return true;
+        }
+    }
+
+    private void releaseMemory(long size) {
+        synchronized (budgetLock) {
+            memoryUsed -= size;
+        }
+    }
+
+    private void reserveDisk(Session current, long size, Path file) throws IOException {
+        long budget = properties.getDiskBudget().toBytes();
+        synchronized (budgetLock) {
+            while (diskUsed + size > budget) {
+                Session victim = sessions.values().stream()
+                        .filter(s -> s != current && sessions.get(s.id) == s)
+                        .min(Comparator.comparingLong(s -> s.lastAccess))
+                        .orElse(null);
+                if (victim == null) {
+                    Files.deleteIfExists(file);
+                    throw new IOException("媒体存储空间不足");
+                }
+                log.warn("磁盘预算不足，淘汰媒体会话: {}", victim.id);
+                // 已持有 budgetLock，remove 内部的记账会重入
+                remove(victim.id);
+            }
+            diskUsed += size;
+        }
+    }
+
+    /**
+     * 把会话中的堆外文件写入磁盘，调用方需持有 budgetLock
+     *
+     * @return 是否至少转存了一个文件
+     */
+    private boolean spill(Session session) {
+        if (sessions.get(session.id) != session) {
+            return false;
+        }
+        boolean spilled = false;
+        for (Map.Entry<String, Blob> entry : session.blobs.entrySet()) {
+            if (!(entry.getValue() instanceof DirectBlob direct)) {
+                continue;
+            }
+            Path file = spillDir.resolve(UUID.randomUUID().toString());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer source = direct.buffer();
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            } catch (IOException e) {
+                log.warn("媒体文件转存失败: {}/{}", session.id, entry.getKey(), e);
+                continue;
+            }
+            if (session.blobs.replace(entry.getKey(), direct, new FileBlob(direct.contentType, direct.size, file))) {
+                memoryUsed -= direct.size;
+                diskUsed += direct.size;
+                spilled = true;
+            } else {
+                deleteQuietly(file);
+            }
+        }
+        return spilled;
+    }
+
+    private void release(Blob blob) {
+        synchronized (budgetLock) {
+            if (blob instanceof DirectBlob direct) {
+                memoryUsed -= direct.size;
+            } else if (blob instanceof FileBlob fileBlob) {
+                diskUsed -= fileBlob.size;
+                deleteQuietly(fileBlob.file);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("删除媒体文件失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 按声明的大小读入直接内存，实际内容与声明不符时抛出异常，由调用方释放预留的内存预算
+     */
+    private static DirectBlob readDirect(String contentType, int size, InputStream data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        ReadableByteChannel channel = Channels.newChannel(data);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // 读满为止
+        }
+        if (buffer.hasRemaining()) {
+            throw new EOFException("媒体文件不完整: 声明 " + size + " 字节，实际 " + buffer.position() + " 字节");
+        }
+        if (channel.read(ByteBuffer.allocate(1)) >= 0) {
+            throw new IOException("媒体文件大于声明的 " + size + " 字节");
+        }
+        buffer.flip();
+        return new DirectBlob(contentType, size, buffer.asReadOnlyBuffer());
+    }
+
+    private static final class Session {
+        final String id;
+        final Map<String, Blob> blobs = new ConcurrentHashMap<>();
+        volatile long lastAccess;
+
+        Session(String id) {
+            this.id = id;
+            touch();
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        boolean hasMemoryBlobs() {
+            return blobs.values().stream().anyMatch(DirectBlob.class::isInstance);
+        }
+    }
+
+    private sealed interface Blob extends MediaBlob permits DirectBlob, FileBlob {
+    }
+
+    private static final class DirectBlob implements Blob {
+        final String contentType;
+        final long size;
+        final ByteBuffer data;
+
+        DirectBlob(String contentType, long size, ByteBuffer data) {
+            this.contentType = contentType;
+            this.size = size;
+            this.data = data;
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            return data.duplicate();
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteBufferInputStream(data.duplicate());
+        }
+
+        @Override
+        public boolean spilled() {
+            return false;
+        }
+    }
+
+    private static final class FileBlob implements Blob {
+        final String contentType;
+        final long size;
+        final Path file;
+        private volatile ByteBuffer mapped;
+
+        FileBlob(String contentType, long size, Path file) {
+            this.contentType = contentType;
+            this.size = size;
+            this.file = file;
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public ByteBuffer buffer() throws IOException {
+            ByteBuffer view = mapped;
+            if (view == null) {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    view = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                mapped = view;
+            }
+            return view.duplicate();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return Files.newInputStream(file);
+        }
+
+        @Override
+        public boolean spilled() {
+            return true;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
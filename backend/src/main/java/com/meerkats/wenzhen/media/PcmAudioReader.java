@@ -0,0 +1,168 @@
+package com.meerkats.wenzhen.media;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 用 javax.sound 解码 WAV 等 PCM 音频，边读边混为单声道，按 20 ms 一帧计算响度（dBFS），
+ * 并在降采样到约 8 kHz 的信号上用 YIN 算法估计每帧的音高。只保留最近一个分析窗口的样本。
+ */
+final class PcmAudioReader {
+
+    static final double FRAME_SECONDS = 0.02;
+
+    private static final double PITCH_TARGET_RATE = 8000;
+    private static final double PITCH_WINDOW_SECONDS = 0.04;
+    private static final double MIN_PITCH_HZ = 60;
+    private static final double MAX_PITCH_HZ = 400;
+    private static final double YIN_THRESHOLD = 0.15;
+    // 低于该响度的帧不估计音高，省去静音段的计算
+    private static final double PITCH_MIN_LEVEL_DB = -50;
+
+    private PcmAudioReader() {
+    }
+
+    /**
+     * @throws UnsupportedAudioFileException 不是 javax.sound 能识别的格式，或无法转为 16 位 PCM
+     */
+    static AudioEnvelope read(InputStream in, double maxSeconds) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(in);
+             AudioInputStream pcm = toPcm16(source)) {
+            AudioFormat format = pcm.getFormat();
+            int channels = format.getChannels();
+            boolean bigEndian = format.isBigEndian();
+            float sampleRate = format.getSampleRate();
+            int frameSamples = Math.max(1, Math.round((float) (sampleRate * FRAME_SECONDS)));
+            int decimation = Math.max(1, (int) Math.round(sampleRate / PITCH_TARGET_RATE));
+            PitchTracker pitch = new PitchTracker(sampleRate / decimation);
+
+            AudioEnvelope envelope = new AudioEnvelope((double) frameSamples / sampleRate,
+                    (int) Math.ceil(maxSeconds / ((double) frameSamples / sampleRate)), true);
+            int bytesPerFrame = 2 * channels;
+            byte[] buffer = new byte[bytesPerFrame * 4096];
+            double sumSquares = 0;
+            int inFrame = 0;
+            double decimated = 0;
+            int inDecimation = 0;
+            int carry = 0;
+            int n;
+            while ((n = pcm.read(buffer, carry, buffer.length - carry)) != -1) {
+                int available = carry + n;
+                int whole = available - available % bytesPerFrame;
+                for (int offset = 0; offset < whole; offset += bytesPerFrame) {
+                    double sample = 0;
+                    for (int ch = 0; ch < channels; ch++) {
+                        int i = offset + 2 * ch;
+                        int value = bigEndian ? (buffer[i] << 8) | (buffer[i + 1] & 0xFF)
+                                : (buffer[i + 1] << 8) | (buffer[i] & 0xFF);
+                        sample += value / 32768.0;
+                    }
+                    sample /= channels;
+                    sumSquares += sample * sample;
+                    decimated += sample;
+                    if (++inDecimation == decimation) {
+                        pitch.add(decimated / decimation);
+                        decimated = 0;
+                        inDecimation = 0;
+                    }
+                    if (++inFrame == frameSamples) {
+                        double level = 10 * Math.log10(sumSquares / frameSamples + 1e-12);
+                        float hz = level >= PITCH_MIN_LEVEL_DB ? pitch.estimate() : Float.NaN;
+                        if (!envelope.add((float) level, hz)) {
+                            return envelope;
+                        }
+                        sumSquares = 0;
+                        inFrame = 0;
+                    }
+                }
+                // 不足一个采样帧的字节留到下一次
+                carry = available - whole;
+                System.arraycopy(buffer, whole, buffer, 0, carry);
+            }
+            return envelope;
+        }
+    }
+
+    private static AudioInputStream toPcm16(AudioInputStream source) {
+        AudioFormat format = source.getFormat();
+        if (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED && format.getSampleSizeInBits() == 16) {
+            return source;
+        }
+        AudioFormat target = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                format.getChannels(), 2 * format.getChannels(), format.getSampleRate(), false);
+        // 不支持的转换抛 IllegalArgumentException
+        return AudioSystem.getAudioInputStream(target, source);
+    }
+
+    /**
+     * YIN 音高估计，在最近一个窗口的样本上计算
+     */
+    private static final class PitchTracker {
+
+        private final double sampleRate;
+        private final double[] window;
+        private final double[] linear;
+        private final double[] difference;
+        private final int minLag;
+        private final int maxLag;
+        private int position;
+        private long count;
+
+        PitchTracker(double sampleRate) {
+            this.sampleRate = sampleRate;
+            this.minLag = (int) Math.floor(sampleRate / MAX_PITCH_HZ);
+            this.maxLag = (int) Math.ceil(sampleRate / MIN_PITCH_HZ);
+            this.window = new double[Math.max((int) Math.round(sampleRate * PITCH_WINDOW_SECONDS), 2 * maxLag)];
+            this.linear = new double[window.length];
+            this.difference = new double[maxLag + 1];
+        }
+
+        void add(double sample) {
+            window[position] = sample;
+            position = (position + 1) % window.length;
+            count++;
+        }
+
+        /**
+         * @return 当前窗口的基频，清音、静音或样本不足时返回 NaN
+         */
+        float estimate() {
+            if (count < window.length) {
+                return Float.NaN;
+            }
+            int start = position;
+            System.arraycopy(window, start, linear, 0, window.length - start);
+            System.arraycopy(window, 0, linear, window.length - start, start);
+            int length = window.length - maxLag;
+            // 差分函数 d(τ) 与累积均值归一化 d'(τ)
+            double runningSum = 0;
+            for (int lag = 1; lag <= maxLag; lag++) {
+                double sum = 0;
+                for (int i = 0; i < length; i++) {
+                    double delta = linear[i] - linear[i + lag];
+                    sum += delta * delta;
+                }
+                runningSum += sum;
+                difference[lag] = runningSum == 0 ? 1 : sum * lag / runningSum;
+            }
+            for (int lag = Math.max(2, minLag); lag < maxLag; lag++) {
+                if (difference[lag] < YIN_THRESHOLD) {
+                    while (lag + 1 < maxLag && difference[lag + 1] < difference[lag]) {
+                        lag++;
+                    }
+                    // 抛物线插值得到亚采样精度的周期
+                    double left = difference[lag - 1];
+                    double right = difference[lag + 1];
+                    double denominator = left - 2 * difference[lag] + right;
+                    double shift = denominator == 0 ? 0 : 0.5 * (left - right) / denominator;
+                    return (float) (sampleRate / (lag + shift));
+                }
+            }
+            return Float.NaN;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.meerkats.wenzhen.media;
+
+/**
+ * 上传时预处理好的图片信息，编码结果保存在原图旁的 .b64 文件中
+ *
+ * @param contentType 按文件内容识别出的 MIME 类型
+ * @param width       宽度，无法识别时为 -1
+ * @param height      高度，无法识别时为 -1
+ * @param size        实际发送给模型的图片字节数
+ */
+public record PreparedImage(String contentType, int width, int height, long size) {
+}
@@ -0,0 +1,212 @@
+package com.meerkats.wenzhen.media;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.ImageProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片在上传时就完成缩放、Base64 编码和元数据识别，结果写入原图旁的 .b64 / .meta.json 文件，
+ * 并在内存中缓存最近使用的编码，发起流式对话时直接引用，不再读盘编码。
+ * <p>
+ * 缩放尺寸由模型决定（{@link ImageProperties#targetSizeFor(String)}），旁路文件和内存缓存都按原图和尺寸区分，
+ * 如 abcd….jpg.896.b64，同一张图片发给输入尺寸不同的模型时各用各的编码。
+ */
+@Component
+public class PreparedImageStore {
+
+    private static final Logger log = LoggerFactory.getLogger(PreparedImageStore.class);
+
+    private static final String ENCODED_SUFFIX = ".b64";
+    private static final String META_SUFFIX = ".meta.json";
+
+    private final ImageProperties properties;
+    private final ObjectMapper objectMapper;
+    private final ImageNormalizer imageNormalizer;
+    private final long cacheBudget;
+    private final Timer prepareTimer;
+
+    /**
+     * @param image      原图的绝对路径
+     * @param targetSize 缩放的目标尺寸
+     */
+    private record Key(Path image, int targetSize) {
+    }
+
+    // 按访问顺序淘汰
+    private final LinkedHashMap<Key, String> hot = new LinkedHashMap<>(16, 0.75f, true);
+    private long hotBytes;
+
+    public PreparedImageStore(ImageProperties properties, ObjectMapper objectMapper, ImageNormalizer imageNormalizer,
+                              MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.imageNormalizer = imageNormalizer;
+        this.cacheBudget = properties.getEncodedCacheBudget().toBytes();
+        this.prepareTimer = Timer.builder("wenzhen.media.prepare")
+                .description("上传图片缩放、编码并写入 .b64 文件的耗时")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 预处理刚上传的图片：缩放转正到模型输入尺寸、识别类型和尺寸、编码并持久化
+     *
+     * @param declaredType 客户端声明的类型，无法从内容识别时使用
+     * @param model        图片将要发送给的模型，决定缩放尺寸
+     */
+    public PreparedImage prepare(Path image, String declaredType, String model) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return doPrepare(image, declaredType, model);
+        } finally {
+            prepareTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private PreparedImage doPrepare(Path image, String declaredType, String model) throws IOException {
+        Key key = key(image, model);
+        NormalizedImage normalized = imageNormalizer.normalize(new FileSystemResource(key.image()), declaredType, model);
+
+        PreparedImage prepared;
+        String encoded;
+        if (normalized != null) {
+            prepared = new PreparedImage(normalized.contentType(), normalized.width(), normalized.height(),
+                    normalized.data().length);
+            encoded = Base64.getEncoder().encodeToString(normalized.data());
+        } else {
+            prepared = inspect(key.image(), declaredType);
+            try (InputStream in = Files.newInputStream(key.image())) {
+                encoded = MediaEncoding.base64(in, prepared.size());
+            }
+        }
+        writeAtomically(sidecar(key, ENCODED_SUFFIX), encoded.getBytes(StandardCharsets.ISO_8859_1));
+        writeAtomically(sidecar(key, META_SUFFIX), objectMapper.writeValueAsBytes(prepared));
+        cache(key, encoded);
+        return prepared;
+    }
+
+    /**
+     * 取图片按该模型尺寸的 Base64 编码，依次查内存缓存、.b64 文件，都没有时现场编码
+     */
+    public String encoded(Path image, String model) throws IOException {
+        Key key = key(image, model);
+        synchronized (hot) {
+            String encoded = hot.get(key);
+            if (encoded != null) {
+                return encoded;
+            }
+        }
+        Path encodedFile = sidecar(key, ENCODED_SUFFIX);
+        if (Files.exists(encodedFile)) {
+            String encoded = Files.readString(encodedFile, StandardCharsets.ISO_8859_1);
+            cache(key, encoded);
+            return encoded;
+        }
+        log.info("图片未按 {} 预处理，现场编码: {}", model, key.image());
+        prepare(key.image(), null, model);
+        return encoded(key.image(), model);
+    }
+
+    /**
+     * 原图已删除，丢弃内存中各尺寸的编码
+     */
+    public void forget(Path image) {
+        Path path = image.toAbsolutePath().normalize();
+        synchronized (hot) {
+            Iterator<Map.Entry<Key, String>> it = hot.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, String> entry = it.next();
+                if (entry.getKey().image().equals(path)) {
+                    hotBytes -= entry.getValue().length();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按该模型尺寸预处理后的类型和尺寸，还没有预处理时返回原图的
+     */
+    public PreparedImage metadata(Path image, String model) throws IOException {
+        Key key = key(image, model);
+        Path metaFile = sidecar(key, META_SUFFIX);
+        if (Files.exists(metaFile)) {
+            return objectMapper.readValue(metaFile.toFile(), PreparedImage.class);
+        }
+        return inspect(key.image(), null);
+    }
+
+    /**
+     * 只读取图片头部获取类型和尺寸，不解码像素
+     */
+    private PreparedImage inspect(Path image, String declaredType) throws IOException {
+        long size = Files.size(image);
+        try (ImageInputStream iis = ImageIO.createImageInputStream(image.toFile())) {
+            Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (readers != null && readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iis, true, true);
+                    String[] mimeTypes = reader.getOriginatingProvider().getMIMETypes();
+                    String contentType = mimeTypes != null && mimeTypes.length > 0 ? mimeTypes[0] : declaredType;
+                    return new PreparedImage(contentType, reader.getWidth(0), reader.getHeight(0), size);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+        return new PreparedImage(declaredType, -1, -1, size);
+    }
+
+    private Key key(Path image, String model) {
+        return new Key(image.toAbsolutePath().normalize(), properties.targetSizeFor(model));
+    }
+
+    private void cache(Key key, String encoded) {
+        if (encoded.length() > cacheBudget) {
+            return;
+        }
+        synchronized (hot) {
+            String old = hot.put(key, encoded);
+            if (old != null) {
+                hotBytes -= old.length();
+            }
+            hotBytes += encoded.length();
+            Iterator<Map.Entry<Key, String>> it = hot.entrySet().iterator();
+            while (hotBytes > cacheBudget && it.hasNext()) {
+                Map.Entry<Key, String> eldest = it.next();
+                hotBytes -= eldest.getValue().length();
+                it.remove();
+            }
+        }
+    }
+
+    private static Path sidecar(Key key, String suffix) {
+        return key.image().resolveSibling(key.image().getFileName() + "." + key.targetSize() + suffix);
+    }
+
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        Files.write(tmp, content);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
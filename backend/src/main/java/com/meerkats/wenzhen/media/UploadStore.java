@@ -0,0 +1,305 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.config.UploadStoreProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 聊天图片的上传存储，按内容寻址：文件名为内容的 SHA-256 加扩展名，放在以哈希前两级命名的子目录中
+ * （如 ab/cd/abcd….jpg），相同内容只存一份。预处理生成的 .b64 / .meta.json 与原图放在一起，重复上传时直接复用。
+ * <p>
+ * 文件的修改时间记录最后一次上传或被对话引用的时间，超过 TTL 的文件连同旁路文件在后台删除。
+ */
+@Component
+public class UploadStore {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadStore.class);
+
+    /**
+     * 图片访问地址的前缀，地址中的文件名即存储 ID
+     */
+    public static final String URL_PREFIX = "/api/images/";
+
+    private static final Pattern ID = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9]{1,5}");
+    private static final int HASH_LENGTH = 64;
+
+    private static final Map<String, String> EXTENSIONS = Map.of(
+            "image/jpeg", "jpg",
+            "image/png", "png",
+            "image/gif", "gif",
+            "image/webp", "webp",
+            "image/bmp", "bmp");
+
+    public record StoredFile(String id, Path path, String contentType, long size, boolean deduplicated) {
+
+        public String url() {
+            return URL_PREFIX + id;
+        }
+    }
+
+    private final UploadStoreProperties properties;
+    private final PreparedImageStore preparedImageStore;
+    private final Path root;
+    private final Path tmpDir;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Counter deduplicated;
+    // 按哈希首字节分段的锁：上传、引用时刷新保留时间与后台清理判断过期并删除互斥，
+    // 不会把刚刚复用或引用的文件删掉
+    private final Object[] locks = new Object[256];
+
+    public UploadStore(UploadStoreProperties properties, PreparedImageStore preparedImageStore,
+                       MeterRegistry meterRegistry) throws IOException {
+        this.properties = properties;
+        this.preparedImageStore = preparedImageStore;
+        this.root = Paths.get(properties.getDir()).toAbsolutePath().normalize();
+        this.tmpDir = root.resolve(".tmp");
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        // 上次运行中断的上传
+        FileSystemUtils.deleteRecursively(tmpDir);
+        Files.createDirectories(tmpDir);
+        scan(Long.MIN_VALUE);
+
+        Gauge.builder("wenzhen.upload.files", files, AtomicLong::get)
+                .description("上传存储中的文件数，不含旁路文件")
+                .register(meterRegistry);
+        Gauge.builder("wenzhen.upload.bytes", bytes, AtomicLong::get)
+                .description("上传存储中原图占用的字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.deduplicated = Counter.builder("wenzhen.upload.deduplicated")
+                .description("内容已存在、没有重复保存的上传次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 保存上传内容：边写临时文件边计算哈希，内容已存在时丢弃临时文件并刷新保留时间
+     *
+     * @param declaredType 客户端声明的类型，无法从内容识别时使用
+     */
+    public StoredFile store(InputStream data, String declaredType) throws IOException {
+        Path tmp = Files.createTempFile(tmpDir, "upload", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            byte[] head = new byte[16];
+            int headLength = 0;
+            long size = 0;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), digest)) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = data.read(buffer)) != -1) {
+                    if (headLength < head.length) {
+                        int copy = Math.min(n, head.length - headLength);
+                        System.arraycopy(buffer, 0, head, headLength, copy);
+                        headLength += copy;
+                    }
+                    out.write(buffer, 0, n);
+                    size += n;
+                }
+            }
+            String contentType = sniff(head, headLength, declaredType);
+            String id = HexFormat.of().formatHex(digest.digest()) + "." + EXTENSIONS.getOrDefault(contentType, "bin");
+            Path target = path(id);
+            boolean existed;
+            synchronized (lock(id)) {
+                existed = Files.exists(target) && touchIfExists(target);
+                if (existed) {
+                    deduplicated.increment();
+                } else {
+                    Files.createDirectories(target.getParent());
+                    // 并发上传相同内容时后完成的一方覆盖，内容相同，不影响已有的旁路文件
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    files.incrementAndGet();
+                    bytes.addAndGet(size);
+                }
+            }
+            return new StoredFile(id, target, contentType, size, existed);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 按存储 ID 查找文件，ID 格式不对或文件不存在（已过期）时返回 null
+     */
+    public Path find(String id) {
+        if (id == null || !ID.matcher(id).matches()) {
+            return null;
+        }
+        Path path = path(id);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /**
+     * 解析对话中引用的图片（上传时返回的地址或存储 ID）并刷新保留时间，找不到时返回 null
+     */
+    public Path resolve(String reference) throws IOException {
+        String id = reference != null && reference.startsWith(URL_PREFIX) ? reference.substring(URL_PREFIX.length()) : reference;
+        Path path = find(id);
+        if (path == null) {
+            return null;
+        }
+        synchronized (lock(id)) {
+            return touchIfExists(path) ? path : null;
+        }
+    }
+
+    public static String contentType(String id) {
+        String extension = id.substring(id.lastIndexOf('.') + 1);
+        return EXTENSIONS.entrySet().stream()
+                .filter(entry -> entry.getValue().equals(extension))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElse("application/octet-stream");
+    }
+
+    /**
+     * 定期删除超过 TTL 未使用的文件及其旁路文件
+     */
+    @Scheduled(fixedDelayString = "${media.upload.cleanup-interval-ms:600000}")
+    public void evictExpired() {
+        try {
+            scan(System.currentTimeMillis() - properties.getTtl().toMillis());
+        } catch (IOException e) {
+            log.warn("清理上传目录失败: {}", root, e);
+        }
+    }
+
+    /**
+     * 遍历分片目录，删除最后使用早于 deadline 的文件，同时重新统计文件数和大小
+     */
+    private synchronized void scan(long deadline) throws IOException {
+        long fileCount = 0;
+        long byteCount = 0;
+        for (Path first : directories(root)) {
+            for (Path second : directories(first)) {
+                // 同一哈希的原图和旁路文件归为一组，一起保留或删除
+                Map<String, List<Path>> groups = new TreeMap<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(second)) {
+                    for (Path entry : entries) {
+                        String name = entry.getFileName().toString();
+                        if (name.length() > HASH_LENGTH) {
+                            groups.computeIfAbsent(name.substring(0, HASH_LENGTH), k -> new ArrayList<>()).add(entry);
+                        }
+                    }
+                }
+                for (Map.Entry<String, List<Path>> group : groups.entrySet()) {
+                    Path original = group.getValue().stream()
+                            .filter(p -> ID.matcher(p.getFileName().toString()).matches())
+                            .findFirst().orElse(null);
+                    synchronized (lock(group.getKey())) {
+                        try {
+                            if (original != null && Files.getLastModifiedTime(original).toMillis() >= deadline) {
+                                fileCount++;
+                                byteCount += Files.size(original);
+                                continue;
+                            }
+                        } catch (NoSuchFileException e) {
+                            // 同时被其他清理删除
+                        }
+                        for (Path path : group.getValue()) {
+                            Files.deleteIfExists(path);
+                        }
+                    }
+                    if (original != null) {
+                        preparedImageStore.forget(original);
+                        log.debug("上传文件过期: {}", original.getFileName());
+                    }
+                }
+            }
+        }
+        files.set(fileCount);
+        bytes.set(byteCount);
+    }
+
+    private static List<Path> directories(Path dir) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir,
+                entry -> Files.isDirectory(entry) && entry.getFileName().toString().matches("[0-9a-f]{2}"))) {
+            entries.forEach(result::add);
+        }
+        return result;
+    }
+
+    private Path path(String id) {
+        return root.resolve(id.substring(0, 2)).resolve(id.substring(2, 4)).resolve(id);
+    }
+
+    private Object lock(String hash) {
+        return locks[Integer.parseInt(hash, 0, 2, 16)];
+    }
+
+    /**
+     * 刷新保留时间，调用方需持有该文件的分段锁
+     *
+     * @return 文件已不存在（在检查之后被删除）时返回 false
+     */
+    private static boolean touchIfExists(Path path) throws IOException {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 按文件头识别图片类型，不信任客户端声明的类型
+     */
+    private static String sniff(byte[] head, int length, String declaredType) {
+        if (length >= 3 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8 && (head[2] & 0xff) == 0xff) {
+            return "image/jpeg";
+        }
+        if (length >= 8 && (head[0] & 0xff) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+            return "image/png";
+        }
+        if (length >= 4 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8') {
+            return "image/gif";
+        }
+        if (length >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+            return "image/webp";
+        }
+        if (length >= 2 && head[0] == 'B' && head[1] == 'M') {
+            return "image/bmp";
+        }
+        return EXTENSIONS.containsKey(declaredType) ? declaredType : "application/octet-stream";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
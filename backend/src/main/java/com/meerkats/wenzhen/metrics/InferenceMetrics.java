@@ -0,0 +1,137 @@
+package com.meerkats.wenzhen.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 模型调用指标：首字延迟、生成耗时、输出速度、模型加载耗时和 token 数，按接口和模型打标签。
+ * 只记录真正发给模型的调用，命中结果缓存的请求不计入。
+ */
+@Component
+public class InferenceMetrics {
+
+    private final MeterRegistry registry;
+
+    public InferenceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 记录一次非流式调用
+     */
+    public OllamaApi.ChatResponse record(String endpoint, String model, Supplier<OllamaApi.ChatResponse> call) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            OllamaApi.ChatResponse response = call.get();
+            outcome = "success";
+            recordUsage(endpoint, model, response);
+            return response;
+        } finally {
+            duration(endpoint, model, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 观察一次流式调用，订阅时开始计时：第一段非空内容记为首字延迟，最后一帧带有 token 统计
+     */
+    public Flux<OllamaApi.ChatResponse> observe(String endpoint, String model, Flux<OllamaApi.ChatResponse> responses) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            return responses
+                    .doOnNext(response -> {
+                        if (hasContent(response) && firstToken.compareAndSet(false, true)) {
+                            Timer.builder("wenzhen.inference.ttft")
+                                    .description("从发出请求到收到第一段输出的时间")
+                                    .tags("endpoint", endpoint, "model", model)
+                                    .publishPercentileHistogram()
+                                    .register(registry)
+                                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                        if (Boolean.TRUE.equals(response.done())) {
+                            recordUsage(endpoint, model, response);
+                        }
+                    })
+                    .doFinally(signal -> duration(endpoint, model, outcome(signal))
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    /**
+     * 结构化调用读到所需字段后主动结束生成
+     */
+    public void earlyStop(String endpoint, String model) {
+        Counter.builder("wenzhen.inference.early.stop")
+                .description("读到所需字段后提前取消生成的结构化调用次数")
+                .tags("endpoint", endpoint, "model", model)
+                .register(registry)
+                .increment();
+    }
+
+    private Timer duration(String endpoint, String model, String outcome) {
+        return Timer.builder("wenzhen.inference.duration")
+                .description("一次模型调用的总耗时，流式调用到最后一帧或取消为止")
+                .tags("endpoint", endpoint, "model", model, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private void recordUsage(String endpoint, String model, OllamaApi.ChatResponse response) {
+        if (response == null) {
+            return;
+        }
+        if (response.promptEvalCount() != null) {
+            tokens(endpoint, model, "prompt").record(response.promptEvalCount());
+        }
+        if (response.evalCount() != null) {
+            tokens(endpoint, model, "eval").record(response.evalCount());
+            Long evalNanos = response.evalDuration();
+            if (evalNanos != null && evalNanos > 0) {
+                DistributionSummary.builder("wenzhen.inference.tokens.per.second")
+                        .description("模型输出速度，按 Ollama 返回的 eval_count / eval_duration 计算")
+                        .tags("endpoint", endpoint, "model", model)
+                        .register(registry)
+                        .record(response.evalCount() * 1e9 / evalNanos);
+            }
+        }
+        if (response.loadDuration() != null && response.loadDuration() > 0) {
+            Timer.builder("wenzhen.inference.load")
+                    .description("Ollama 加载模型的耗时，持续偏高说明模型频繁被换出")
+                    .tags("model", model)
+                    .register(registry)
+                    .record(response.loadDuration(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private DistributionSummary tokens(String endpoint, String model, String type) {
+        return DistributionSummary.builder("wenzhen.inference.tokens")
+                .description("每次调用的 token 数，type=prompt 为输入，type=eval 为输出")
+                .baseUnit("tokens")
+                .tags("endpoint", endpoint, "model", model, "type", type)
+                .register(registry);
+    }
+
+    private static boolean hasContent(OllamaApi.ChatResponse response) {
+        return response.message() != null && response.message().content() != null
+                && !response.message().content().isEmpty();
+    }
+
+    private static String outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_COMPLETE -> "success";
+            case CANCEL -> "cancelled";
+            default -> "error";
+        };
+    }
+}
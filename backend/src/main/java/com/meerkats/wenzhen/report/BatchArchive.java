@@ -0,0 +1,164 @@
+package com.meerkats.wenzhen.report;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 批量筛查压缩包的目录：只读取 zip 的中央目录，文件内容在分析到该学生时才读取。
+ * <p>
+ * 两种组织方式：
+ * <ul>
+ *     <li>根目录有 manifest.csv 时按清单，表头为 student,face,tongue,audio，后三列为包内路径</li>
+ *     <li>否则每个学生一个目录，目录名为学生编号，文件名以 face、tongue、audio（或 voice）开头</li>
+ * </ul>
+ */
+final class BatchArchive {
+
+    static final String MANIFEST = "manifest.csv";
+
+    /**
+     * @param files 各维度的文件，缺少的维度不在其中
+     * @param error 清单本身有问题时的说明，正常为 null
+     */
+    record Student(String id, Map<Modality, ZipEntry> files, String error) {
+
+        List<Modality> missing() {
+            List<Modality> missing = new ArrayList<>();
+            for (Modality modality : Modality.values()) {
+                if (!files.containsKey(modality)) {
+                    missing.add(modality);
+                }
+            }
+            return missing;
+        }
+    }
+
+    private BatchArchive() {
+    }
+
+    /**
+     * @return 按清单顺序（或学生编号排序）排列的学生
+     */
+    static List<Student> students(ZipFile zip) throws IOException {
+        ZipEntry manifest = zip.getEntry(MANIFEST);
+        return manifest != null ? fromManifest(zip, manifest) : fromDirectories(zip);
+    }
+
+    /**
+     * 按扩展名判断文件类型，包内文件没有可信的类型信息
+     */
+    static String contentType(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return "image/jpeg";
+        }
+        if (lower.endsWith(".png")) {
+            return "image/png";
+        }
+        if (lower.endsWith(".mp3")) {
+            return "audio/mpeg";
+        }
+        if (lower.endsWith(".aac") || lower.endsWith(".m4a")) {
+            return "audio/aac";
+        }
+        if (lower.endsWith(".wav")) {
+            return "audio/wav";
+        }
+        return "application/octet-stream";
+    }
+
+    private static List<Student> fromManifest(ZipFile zip, ZipEntry manifest) throws IOException {
+        List<Student> students = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(zip.getInputStream(manifest), StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null || !header.strip().replace("﻿", "").equalsIgnoreCase("student,face,tongue,audio")) {
+                throw new IllegalArgumentException(MANIFEST + " 的表头应为 student,face,tongue,audio");
+            }
+            String line;
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] columns = line.split(",", -1);
+                String id = columns[0].strip();
+                if (id.isEmpty()) {
+                    id = "第" + lineNumber + "行";
+                }
+                // 结果按学生编号记录断点，编号必须唯一
+                if (!seen.add(id)) {
+                    throw new IllegalArgumentException(MANIFEST + " 中学生编号重复: " + id);
+                }
+                if (columns.length != 4) {
+                    students.add(new Student(id, Map.of(), "清单第 " + lineNumber + " 行应为 4 列"));
+                    continue;
+                }
+                Map<Modality, ZipEntry> files = new EnumMap<>(Modality.class);
+                for (Modality modality : Modality.values()) {
+                    String path = columns[modality.ordinal() + 1].strip();
+                    ZipEntry entry = path.isEmpty() ? null : zip.getEntry(path);
+                    if (entry != null && !entry.isDirectory()) {
+                        files.put(modality, entry);
+                    }
+                }
+                students.add(new Student(id, files, null));
+            }
+        }
+        return students;
+    }
+
+    private static List<Student> fromDirectories(ZipFile zip) {
+        Map<String, Map<Modality, ZipEntry>> byStudent = new TreeMap<>();
+        for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            int slash = name.lastIndexOf('/');
+            if (entry.isDirectory() || slash <= 0 || name.startsWith("__MACOSX/")) {
+                continue;
+            }
+            String directory = name.substring(0, slash);
+            // 学生目录可以放在一个总目录下，取最后一级目录名作为编号
+            String id = directory.substring(directory.lastIndexOf('/') + 1);
+            Modality modality = modality(name.substring(slash + 1));
+            if (modality != null) {
+                byStudent.computeIfAbsent(id, k -> new EnumMap<>(Modality.class)).putIfAbsent(modality, entry);
+            }
+        }
+        List<Student> students = new ArrayList<>();
+        byStudent.forEach((id, files) -> students.add(new Student(id, files, null)));
+        return students;
+    }
+
+    private static Modality modality(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        if (lower.startsWith(".")) {
+            return null;
+        }
+        if (lower.startsWith("face")) {
+            return Modality.FACE;
+        }
+        if (lower.startsWith("tongue")) {
+            return Modality.TONGUE;
+        }
+        if (lower.startsWith("audio") || lower.startsWith("voice")) {
+            return Modality.VOICE;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 批次的断点文件：每个学生分析完追加一行 JSON 并落盘，同一学生有多行时以最后一行为准。
+ * 进程在写入中途退出时最后一行可能不完整，重新打开时截掉。
+ */
+final class BatchCheckpoint implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchCheckpoint.class);
+
+    private final ObjectMapper objectMapper;
+    private final FileChannel channel;
+    private final Map<String, ObjectNode> latest;
+
+    private BatchCheckpoint(ObjectMapper objectMapper, FileChannel channel, Map<String, ObjectNode> latest) {
+        this.objectMapper = objectMapper;
+        this.channel = channel;
+        this.latest = latest;
+    }
+
+    static BatchCheckpoint open(Path path, ObjectMapper objectMapper) throws IOException {
+        byte[] content = readAllBytes(path);
+        int end = lastLineEnd(content);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (end < content.length) {
+                log.warn("断点文件 {} 末尾有 {} 字节不完整的记录，已截掉", path, content.length - end);
+                channel.truncate(end);
+            }
+            channel.position(end);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new BatchCheckpoint(objectMapper, channel, parse(Arrays.copyOf(content, end), objectMapper));
+    }
+
+    /**
+     * 只读取，不修改文件，可以在批次执行中调用
+     *
+     * @return 每个学生最后一次的结果，按首次出现的顺序排列
+     */
+    static Map<String, ObjectNode> read(Path path, ObjectMapper objectMapper) throws IOException {
+        byte[] content = readAllBytes(path);
+        return parse(Arrays.copyOf(content, lastLineEnd(content)), objectMapper);
+    }
+
+    /**
+     * 追加一行并落盘
+     *
+     * @return 写入的内容，含换行符
+     */
+    synchronized byte[] append(ObjectNode line) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(line);
+        byte[] bytes = Arrays.copyOf(json, json.length + 1);
+        bytes[json.length] = '\n';
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        latest.put(line.path("student").asText(), line);
+        return bytes;
+    }
+
+    synchronized Map<String, ObjectNode> latest() {
+        return new LinkedHashMap<>(latest);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static byte[] readAllBytes(Path path) throws IOException {
+        try {
+            return Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return new byte[0];
+        }
+    }
+
+    private static int lastLineEnd(byte[] content) {
+        for (int i = content.length - 1; i >= 0; i--) {
+            if (content[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static Map<String, ObjectNode> parse(byte[] content, ObjectMapper objectMapper) {
+        Map<String, ObjectNode> latest = new LinkedHashMap<>();
+        for (String line : new String(content, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                if (objectMapper.readTree(line) instanceof ObjectNode node && node.hasNonNull("student")) {
+                    latest.put(node.get("student").asText(), node);
+                }
+            } catch (IOException e) {
+                log.warn("跳过无法解析的断点记录: {}", e.getMessage());
+            }
+        }
+        return latest;
+    }
+}
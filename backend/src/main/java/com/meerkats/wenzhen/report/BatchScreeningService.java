@@ -0,0 +1,435 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.meerkats.wenzhen.config.BatchProperties;
+import com.meerkats.wenzhen.inference.OllamaRouter;
+import com.meerkats.wenzhen.inference.Workload;
+import com.meerkats.wenzhen.media.ImageNormalizer;
+import com.meerkats.wenzhen.media.MediaStore;
+import com.meerkats.wenzhen.media.NormalizedImage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * 批量筛查：一个压缩包包含一个班级（或全校）学生的面部、舌苔和语音文件，逐个学生生成报告。
+ * <ul>
+ *     <li>压缩包先落盘，学生的文件在分析到该学生时才从包中读取，分析完即从媒体存储中删除，内存占用与批次大小无关</li>
+ *     <li>所有批次共用 parallelism 个名额，超出的学生排队，不会因为一次提交几百个学生而挤占在线用户的推理名额</li>
+ *     <li>每个学生的结果追加到批次目录的断点文件并落盘，同时以 NDJSON 推送给提交方；
+ *     客户端断开不影响执行，服务重启后可从断点继续，已完成（失败的除外）的学生不再重复分析</li>
+ * </ul>
+ */
+@Component
+public class BatchScreeningService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchScreeningService.class);
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private static final String ARCHIVE = "input.zip";
+    private static final String RESULTS = "results.ndjson";
+    private static final Pattern BATCH_ID =
+            Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    /**
+     * 单个学生的结果：SUCCESS 三个维度都有结论，PARTIAL 部分维度有结论，
+     * FAILED 所有维度都失败（续跑时会重试），INVALID 学生的文件缺失或无法读取（续跑时不重试）
+     */
+    public enum StudentStatus {
+        SUCCESS,
+        PARTIAL,
+        FAILED,
+        INVALID
+    }
+
+    private final ReportGenerator reportGenerator;
+    private final MediaStore mediaStore;
+    private final ImageNormalizer imageNormalizer;
+    private final OllamaRouter ollamaRouter;
+    private final BatchProperties properties;
+    private final ObjectMapper objectMapper;
+    private final Path root;
+    private final Semaphore permits;
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final Map<StudentStatus, Counter> studentCounters = new EnumMap<>(StudentStatus.class);
+
+    public BatchScreeningService(ReportGenerator reportGenerator, MediaStore mediaStore,
+                                 ImageNormalizer imageNormalizer, OllamaRouter ollamaRouter,
+                                 BatchProperties properties, ObjectMapper objectMapper,
+                                 MeterRegistry meterRegistry) throws IOException {
+        this.reportGenerator = reportGenerator;
+        this.mediaStore = mediaStore;
+        this.imageNormalizer = imageNormalizer;
+        this.ollamaRouter = ollamaRouter;
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.root = Paths.get(properties.getDir()).toAbsolutePath().normalize();
+        // 公平模式：多个批次同时执行时按到达顺序轮流取得名额
+        this.permits = new Semaphore(Math.max(1, properties.getParallelism()), true);
+        Files.createDirectories(root);
+
+        Gauge.builder("wenzhen.batch.running", running, Set::size)
+                .description("正在执行的批次数")
+                .register(meterRegistry);
+        Gauge.builder("wenzhen.batch.permits.available", permits, Semaphore::availablePermits)
+                .description("批量筛查空闲的分析名额")
+                .register(meterRegistry);
+        for (StudentStatus status : StudentStatus.values()) {
+            studentCounters.put(status, Counter.builder("wenzhen.batch.students")
+                    .description("批量筛查完成的学生数")
+                    .tag("status", status.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * 保存上传的压缩包并检查目录，不开始分析
+     *
+     * @return 批次 ID
+     * @throws MaxUploadSizeExceededException 压缩包超过大小上限
+     * @throws IllegalArgumentException       不是有效的 zip 或其中没有学生
+     */
+    public String create(InputStream body) throws IOException {
+        String batchId = UUID.randomUUID().toString();
+        Path dir = root.resolve(batchId);
+        Files.createDirectories(dir);
+        try {
+            Path part = dir.resolve(ARCHIVE + ".part");
+            long max = properties.getMaxArchiveSize().toBytes();
+            try (OutputStream out = Files.newOutputStream(part)) {
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                int n;
+                while ((n = body.read(buffer)) != -1) {
+                    total += n;
+                    if (total > max) {
+                        throw new MaxUploadSizeExceededException(max);
+                    }
+                    out.write(buffer, 0, n);
+                }
+            }
+            Path archive = Files.move(part, dir.resolve(ARCHIVE), StandardCopyOption.ATOMIC_MOVE);
+            try (ZipFile zip = new ZipFile(archive.toFile())) {
+                int students = BatchArchive.students(zip).size();
+                if (students == 0) {
+                    throw new IllegalArgumentException("压缩包中没有找到学生，需包含 " + BatchArchive.MANIFEST
+                            + " 或每个学生一个目录");
+                }
+                log.info("批次已创建: {}，{} 个学生，{} KB", batchId, students, Files.size(archive) / 1024);
+            } catch (ZipException e) {
+                throw new IllegalArgumentException("不是有效的 zip 压缩包", e);
+            }
+            return batchId;
+        } catch (IOException | RuntimeException e) {
+            FileSystemUtils.deleteRecursively(dir);
+            throw e;
+        }
+    }
+
+    public boolean exists(String batchId) {
+        return batchId != null && BATCH_ID.matcher(batchId).matches()
+                && Files.exists(root.resolve(batchId).resolve(ARCHIVE));
+    }
+
+    public boolean isRunning(String batchId) {
+        return running.contains(batchId);
+    }
+
+    /**
+     * 开始或继续执行批次，第一行为批次信息，随后先补发断点中已完成的学生，
+     * 再按完成顺序推送新的结果，最后一行为汇总
+     *
+     * @throws IllegalStateException 批次正在执行
+     */
+    public ResponseBodyEmitter start(String batchId) {
+        if (!exists(batchId)) {
+            throw new IllegalArgumentException("无效的batchId");
+        }
+        if (!running.add(batchId)) {
+            throw new IllegalStateException("批次正在执行，可通过 results 查看已完成的结果");
+        }
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(properties.getResponseTimeout().toMillis());
+        Sink sink = new Sink(emitter);
+        emitter.onTimeout(sink::detach);
+        emitter.onError(e -> sink.detach());
+        emitter.onCompletion(sink::detach);
+        try {
+            Thread.ofVirtual().name("batch-" + batchId).start(() -> run(batchId, sink));
+        } catch (RuntimeException e) {
+            running.remove(batchId);
+            throw e;
+        }
+        return emitter;
+    }
+
+    /**
+     * 写出每个学生最新的结果，每行一个，批次执行中也可调用
+     */
+    public void writeResults(String batchId, OutputStream out) throws IOException {
+        for (ObjectNode line : BatchCheckpoint.read(root.resolve(batchId).resolve(RESULTS), objectMapper).values()) {
+            out.write(ndjson(line));
+        }
+    }
+
+    private void run(String batchId, Sink sink) {
+        long start = System.nanoTime();
+        Path dir = root.resolve(batchId);
+        try (ZipFile zip = new ZipFile(dir.resolve(ARCHIVE).toFile());
+             BatchCheckpoint checkpoint = BatchCheckpoint.open(dir.resolve(RESULTS), objectMapper)) {
+            List<BatchArchive.Student> students = BatchArchive.students(zip);
+            Map<String, ObjectNode> completed = checkpoint.latest();
+            completed.values().removeIf(line -> StudentStatus.FAILED.name().equals(line.path("status").asText()));
+            completed.keySet().retainAll(students.stream().map(BatchArchive.Student::id).toList());
+
+            sink.send(ndjson(objectMapper.createObjectNode()
+                    .put("type", "batch")
+                    .put("batchId", batchId)
+                    .put("students", students.size())
+                    .put("completed", completed.size())));
+            for (ObjectNode line : completed.values()) {
+                sink.send(ndjson(line));
+            }
+            log.info("批次开始执行: {}，{} 个学生，断点中已完成 {} 个", batchId, students.size(), completed.size());
+
+            // 名额在派发前取得，同时存在的分析线程不超过 parallelism 个；close 时等待全部完成
+            try (ExecutorService scope = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < students.size(); i++) {
+                    BatchArchive.Student student = students.get(i);
+                    if (completed.containsKey(student.id())) {
+                        continue;
+                    }
+                    permits.acquire();
+                    String sessionId = "batch-" + batchId + "-" + i;
+                    try {
+                        scope.submit(() -> {
+                            try {
+                                ObjectNode line = process(sessionId, student, zip);
+                                synchronized (checkpoint) {
+                                    sink.send(checkpoint.append(line));
+                                }
+                            } catch (IOException e) {
+                                log.error("写入断点失败: {} {}", batchId, student.id(), e);
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+            }
+
+            Map<StudentStatus, Integer> counts = new EnumMap<>(StudentStatus.class);
+            for (ObjectNode line : checkpoint.latest().values()) {
+                counts.merge(StudentStatus.valueOf(line.path("status").asText()), 1, Integer::sum);
+            }
+            ObjectNode summary = objectMapper.createObjectNode()
+                    .put("type", "summary")
+                    .put("batchId", batchId)
+                    .put("students", students.size());
+            for (StudentStatus status : StudentStatus.values()) {
+                summary.put(status.name().toLowerCase(Locale.ROOT), counts.getOrDefault(status, 0));
+            }
+            summary.put("durationMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            sink.send(ndjson(summary));
+            log.info("批次执行完成: {}，{}", batchId, counts);
+            sink.complete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("批次被中断: {}，可从断点继续", batchId);
+            sink.fail(e);
+        } catch (IOException | RuntimeException e) {
+            log.error("批次执行失败: {}，可从断点继续", batchId, e);
+            sink.fail(e);
+        } finally {
+            running.remove(batchId);
+        }
+    }
+
+    /**
+     * 分析一个学生，文件问题和模型失败都记在结果中，不影响批次中的其他学生
+     */
+    private ObjectNode process(String sessionId, BatchArchive.Student student, ZipFile zip) {
+        long start = System.nanoTime();
+        ObjectNode line = objectMapper.createObjectNode()
+                .put("type", "student")
+                .put("student", student.id());
+        StudentStatus status;
+        try {
+            if (student.error() != null) {
+                throw new IllegalArgumentException(student.error());
+            }
+            if (student.files().isEmpty()) {
+                throw new IllegalArgumentException("未找到面部、舌苔或语音文件");
+            }
+            for (Map.Entry<Modality, ZipEntry> file : student.files().entrySet()) {
+                store(sessionId, file.getKey(), file.getValue(), zip);
+            }
+            if (!student.missing().isEmpty()) {
+                line.set("missing", objectMapper.valueToTree(student.missing()));
+            }
+            DiagnosisReport report = reportGenerator.generate(sessionId, mediaStore.getSession(sessionId));
+            long successful = report.results().stream().filter(ModalityResult::successful).count();
+            status = successful == report.results().size() ? StudentStatus.SUCCESS
+                    : successful > 0 ? StudentStatus.PARTIAL : StudentStatus.FAILED;
+            line.put("status", status.name());
+            line.set("results", objectMapper.valueToTree(report.results()));
+            line.put("report", report.content());
+        } catch (IOException | IllegalArgumentException e) {
+            status = StudentStatus.INVALID;
+            line.put("status", status.name());
+            line.put("error", e.getMessage());
+        } catch (RuntimeException e) {
+            log.warn("学生分析失败: {}", student.id(), e);
+            status = StudentStatus.FAILED;
+            line.put("status", status.name());
+            line.put("error", String.valueOf(e.getMessage()));
+        } finally {
+            mediaStore.remove(sessionId);
+        }
+        studentCounters.get(status).increment();
+        line.put("durationMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return line;
+    }
+
+    /**
+     * 从压缩包中读取一个文件写入媒体存储，图片与单个上传一样先缩放到模型输入尺寸
+     */
+    private void store(String sessionId, Modality modality, ZipEntry entry, ZipFile zip) throws IOException {
+        String contentType = BatchArchive.contentType(entry.getName());
+        boolean image = modality != Modality.VOICE;
+        if (image ? !contentType.startsWith("image/") : !contentType.startsWith("audio/")) {
+            throw new IllegalArgumentException("不支持的文件类型: " + entry.getName());
+        }
+        if (entry.getSize() > properties.getMaxFileSize().toBytes()) {
+            throw new IllegalArgumentException("文件超过大小上限: " + entry.getName());
+        }
+        try {
+            if (image) {
+                NormalizedImage normalized = imageNormalizer.normalize(() -> zip.getInputStream(entry), contentType,
+                        ollamaRouter.primaryModel(Workload.VISION));
+                if (normalized != null) {
+                    mediaStore.put(sessionId, modality.mediaName(), normalized.contentType(),
+                            normalized.data().length, new ByteArrayInputStream(normalized.data()));
+                    return;
+                }
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                mediaStore.put(sessionId, modality.mediaName(), contentType, entry.getSize(), in);
+            }
+        } catch (IOException e) {
+            throw new IOException("无法读取 " + entry.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] ndjson(ObjectNode node) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(node);
+        byte[] bytes = new byte[json.length + 1];
+        System.arraycopy(json, 0, bytes, 0, json.length);
+        bytes[json.length] = '\n';
+        return bytes;
+    }
+
+    /**
+     * 定期删除超过保留时间且未在执行的批次
+     */
+    @Scheduled(fixedDelayString = "${report.batch.cleanup-interval-ms:3600000}")
+    public void evictExpired() {
+        Instant deadline = Instant.now().minus(properties.getRetention());
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                String batchId = dir.getFileName().toString();
+                if (running.contains(batchId) || lastModified(dir).toInstant().isAfter(deadline)) {
+                    continue;
+                }
+                FileSystemUtils.deleteRecursively(dir);
+                log.info("已删除过期批次: {}", batchId);
+            }
+        } catch (IOException e) {
+            log.warn("清理批次目录失败", e);
+        }
+    }
+
+    private static FileTime lastModified(Path dir) throws IOException {
+        Path results = dir.resolve(RESULTS);
+        return Files.getLastModifiedTime(Files.exists(results) ? results : dir);
+    }
+
+    /**
+     * 结果流的发送端：客户端断开或超时后不再发送，批次继续执行
+     */
+    private static final class Sink {
+
+        private final ResponseBodyEmitter emitter;
+        private volatile boolean attached = true;
+
+        Sink(ResponseBodyEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void send(byte[] line) {
+            if (!attached) {
+                return;
+            }
+            try {
+                emitter.send(line, NDJSON);
+            } catch (IOException | IllegalStateException e) {
+                detach();
+            }
+        }
+
+        void detach() {
+            attached = false;
+        }
+
+        void complete() {
+            if (attached) {
+                emitter.complete();
+            }
+        }
+
+        void fail(Exception e) {
+            if (attached) {
+                emitter.completeWithError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.meerkats.wenzhen.inference.InferenceCache;
+import com.meerkats.wenzhen.inference.InferenceScheduler;
+import com.meerkats.wenzhen.inference.OllamaRouter;
+import com.meerkats.wenzhen.inference.StructuredOutput;
+import com.meerkats.wenzhen.inference.StructuredOutputParser;
+import com.meerkats.wenzhen.inference.Workload;
+import com.meerkats.wenzhen.media.MediaBlob;
+import com.meerkats.wenzhen.media.MediaEncoding;
+import com.meerkats.wenzhen.metrics.InferenceMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 报告生成使用的模型调用：先查结果缓存，未命中时编码图片并经推理调度器排队调用。
+ * 结论类的调用用 {@link #structured} 约束输出格式，读到结论即停止生成
+ */
+@Component
+public class DiagnosisInference {
+
+    private static final String ENDPOINT = "/upload";
+
+    private final OllamaRouter ollamaRouter;
+    private final InferenceScheduler inferenceScheduler;
+    private final InferenceCache inferenceCache;
+    private final InferenceMetrics inferenceMetrics;
+    private final ObjectMapper objectMapper;
+    private final Timer encodeTimer;
+
+    public DiagnosisInference(OllamaRouter ollamaRouter, InferenceScheduler inferenceScheduler, InferenceCache inferenceCache,
+                              InferenceMetrics inferenceMetrics, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.ollamaRouter = ollamaRouter;
+        this.inferenceScheduler = inferenceScheduler;
+        this.inferenceCache = inferenceCache;
+        this.inferenceMetrics = inferenceMetrics;
+        this.objectMapper = objectMapper;
+        this.encodeTimer = Timer.builder("wenzhen.media.encode")
+                .description("报告生成前把会话图片编码为 Base64 的耗时")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param workload 请求类型，决定使用哪个模型
+     * @param images   随用户消息发送的图片，没有时传空列表
+     */
+    public OllamaApi.ChatResponse chat(Workload workload, String systemMessage, String userMessage, List<MediaBlob> images) {
+        String model = ollamaRouter.modelFor(workload);
+        // 相同图片和提示词（如网络重试、重复提交）直接复用上次的结果，key按原始字节计算，命中时不必编码
+        String cacheKey = InferenceCache.mediaKey(model, systemMessage, userMessage, buffers(images), null);
+        return inferenceCache.get(cacheKey, () -> {
+            List<OllamaApi.Message> messages = messages(systemMessage, userMessage, images);
+            // 报告生成属于批量任务，排在交互对话之后
+            return inferenceScheduler.execute(model, InferenceScheduler.Priority.BATCH, () -> inferenceMetrics
+                    .record(ENDPOINT, model, () -> ollamaRouter.chat(OllamaApi.ChatRequest.builder(model)
+                            .messages(messages).build())));
+        });
+    }
+
+    /**
+     * 结构化调用：按 schema 约束模型输出，流式读取，必需字段到齐后立即取消订阅，上游请求随之取消，
+     * 模型不再生成后面的内容
+     *
+     * @return 模型输出的顶层字段，只包含已完整读到的
+     * @throws IllegalStateException 输出不是合法的 JSON，或生成结束时仍缺少必需字段
+     */
+    public ObjectNode structured(Workload workload, String systemMessage, String userMessage, List<MediaBlob> images,
+                                 StructuredOutput output) {
+        String model = ollamaRouter.modelFor(workload);
+        Map<String, Object> options = Map.of("num_predict", output.maxTokens());
+        String cacheKey = InferenceCache.mediaKey(model, systemMessage, userMessage, buffers(images),
+                Map.of("format", output.schema(), "num_predict", output.maxTokens()));
+        OllamaApi.ChatResponse response = inferenceCache.get(cacheKey, () -> {
+            List<OllamaApi.Message> messages = messages(systemMessage, userMessage, images);
+            OllamaApi.ChatRequest request;
+            try {
+                request = OllamaApi.ChatRequest.builder(model)
+                        .stream(true)
+                        .format(objectMapper.readTree(output.schema()))
+                        .options(options)
+                        .messages(messages)
+                        .build();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("schema 不是合法的 JSON", e);
+            }
+            return inferenceScheduler.execute(model, InferenceScheduler.Priority.BATCH,
+                    () -> collect(model, request, output));
+        });
+        try {
+            return (ObjectNode) objectMapper.readTree(response.message().content());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 读取流式输出直到必需字段到齐或生成结束，结果整理为一个只含已读字段的响应，便于缓存
+     */
+    private OllamaApi.ChatResponse collect(String model, OllamaApi.ChatRequest request, StructuredOutput output) {
+        StructuredOutputParser parser = new StructuredOutputParser(objectMapper, output.required());
+        OllamaApi.ChatResponse last = inferenceMetrics.observe(ENDPOINT, model, ollamaRouter.streamingChat(request)
+                        .takeUntil(response -> response.message() != null && parser.feed(response.message().content())))
+                .blockLast();
+        if (!parser.complete()) {
+            throw new IllegalStateException("模型输出缺少字段 " + parser.missing()
+                    + (last != null && "length".equals(last.doneReason()) ? "，已达到 num_predict 上限" : ""));
+        }
+        if (last != null && !Boolean.TRUE.equals(last.done())) {
+            inferenceMetrics.earlyStop(ENDPOINT, model);
+        }
+        return new OllamaApi.ChatResponse(model, null,
+                OllamaApi.Message.builder(OllamaApi.Message.Role.ASSISTANT).content(parser.fields().toString()).build(),
+                "stop", true, null, null, null, null, null, null);
+    }
+
+    private static List<ByteBuffer> buffers(List<MediaBlob> images) {
+        List<ByteBuffer> imageBuffers = new ArrayList<>();
+        try {
+            for (MediaBlob image : images) {
+                imageBuffers.add(image.buffer());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return imageBuffers;
+    }
+
+    /**
+     * 在申请推理许可之前完成编码，编码耗时不占用模型并发
+     */
+    private List<OllamaApi.Message> messages(String systemMessage, String userMessage, List<MediaBlob> images) {
+        List<String> base64Images = new ArrayList<>(images.size());
+        long start = System.nanoTime();
+        try {
+            for (MediaBlob image : images) {
+                base64Images.add(MediaEncoding.base64(image));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!images.isEmpty()) {
+            encodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        OllamaApi.Message.Builder user = OllamaApi.Message.builder(OllamaApi.Message.Role.USER)
+                .content(userMessage);
+        if (!base64Images.isEmpty()) {
+            user.images(base64Images);
+        }
+        return List.of(
+                OllamaApi.Message.builder(OllamaApi.Message.Role.SYSTEM).content(systemMessage).build(),
+                user.build());
+    }
+}
@@ -0,0 +1,112 @@
+package com.meerkats.wenzhen.report;
+
+/**
+ * 各维度分析使用的提示词
+ */
+public final class DiagnosisPrompts {
+
+    public static final String FACE_SYSTEM = "你是一名中医问诊专家，擅长通过观看面部来诊断青少年是否有抑郁倾向";
+
+    public static final String FACE = """
+            对于面部图片，判断此青少年是否存在中医“郁证”（情志抑郁）相关的典型面相表现。
+
+            以下为“郁证面相”常见特征：
+            - 面色晦暗或偏灰、缺乏光泽；
+            - 神情呆滞、目光无神；
+            - 表情僵硬、不自然、缺乏情绪反应；
+            - 面部肌肉紧绷或有轻微偏斜；
+            - 眼睑沉重或眼神躲避。
+
+            如图像中*明显存在一个及以上*上述特征，输出`面部：1`（表示有郁证面相）。 \s
+            如上述特征基本未见或图像不清晰，输出`面部：0`。 \s
+            """;
+
+    public static final String TONGUE_SYSTEM = "你是一名中医问诊专家，擅长通过观看舌苔来诊断青少年是否有抑郁倾向";
+
+    public static final String TONGUE = """
+            对于舌苔图片，你作为一名具备中医舌诊知识的AI医生，依据以下舌象图像，判断是否存在中医“气郁质”或“血瘀质”相关的典型舌象表现。
+
+            重点观察以下特征：
+
+            1. 舌体颜色偏紫或暗红；
+            2. 舌面存在黑点或紫斑（瘀点）；
+            3. 舌尖偏尖、舌形略呈尖细（多见于气郁）；
+            4. 舌苔薄白，边缘可能略有齿痕；
+
+            如图像中出现*任意一项以上表现*，说明该青少年可能存在气郁或血瘀体质倾向，输出 `舌苔：1`；
+            如以上表现均未出现或图像质量不足以判断，输出 `舌苔：0`。
+            """;
+
+    public static final String VOICE_SYSTEM = "你是一名具备中医闻诊知识的AI医生";
+
+    public static final String VOICE = """
+            作为具备中医知识的AI医生，通过分析用户语音特征，结合中医闻诊理论与抑郁症临床表现，判断声音主人是否存在抑郁倾向。
+            需重点分析的语音特征：
+            1、语速与流畅度
+            是否出现明显语速迟缓、应答延迟？
+            语句是否频繁中断、停顿过长（>2秒）或逻辑断裂？
+            中医辨证参考： 气滞痰阻，心神不宁。
+            2、音调与情感饱和度
+            音调是否长期维持单调平直（缺乏抑扬顿挫）？
+            是否呈现“情感钝化”特征（如笑声僵硬、缺乏波动）？
+            中医辨证参考： 肝气郁结，情志不舒。
+            3、气息与发声力度
+            是否气息微弱、声音轻飘（似无力发声）？
+            是否频繁出现深吸气/长叹气（≥3次/分钟）？
+            中医辨证参考： 宗气不足，脾虚肺弱。
+            4、语言内容特征
+            是否反复使用消极词汇（如“累”“绝望”“无意义”）？
+            是否自我否定表述占比超30%（如“我不行”“都是我的错”）？
+
+            抑郁倾向等级：判定标准                     \s
+            高度可能：满足≥3项特征，且语言消极占比显著  \s
+            中度可能 ： 满足2项特征，伴随气息/语速异常
+            轻度可能：满足1项特征，无明确消极语言
+            无倾向：无上述特征或可归因于生理因素（如感冒）
+            根据上面四点，给出综合评判，声音的特征，是否有抑郁症倾向。
+            """;
+
+    /**
+     * 面部、舌苔结构化输出的 schema，只有一个 0/1 结论
+     */
+    public static final String SCORE_SCHEMA = """
+            {"type":"object","properties":{"score":{"type":"integer","enum":[0,1]}},"required":["score"]}""";
+
+    public static final String FACE_JSON = """
+
+            只输出 JSON，不要解释：{"score": 1} 表示有郁证面相，{"score": 0} 表示没有。""";
+
+    public static final String TONGUE_JSON = """
+
+            只输出 JSON，不要解释：{"score": 1} 表示存在气郁或血瘀舌象，{"score": 0} 表示没有。""";
+
+    /**
+     * 语音结构化输出的 schema，先给等级再给简短依据
+     */
+    public static final String VOICE_SCHEMA = """
+            {"type":"object","properties":{"level":{"type":"string","enum":["无倾向","轻度可能","中度可能","高度可能","无法判断"]},\
+            "summary":{"type":"string"}},"required":["level","summary"]}""";
+
+    public static final String VOICE_JSON = """
+            只输出 JSON：level 为抑郁倾向等级，信息不足时为“无法判断”；summary 用不超过 100 字概括依据。""";
+
+    /**
+     * 模型对面部和舌苔的典型输出示例（自由文本模式）
+     */
+    public static final String TEMPLATE_EXAMPLE = """
+            **面部分析：**
+
+            根据图片，这位青少年面部表情略带笑容，眼神明亮，神情活泼。虽然面部表情略有僵硬，但整体上没有明显的呆滞、眼神无神、表情僵硬、不自然、缺乏情绪反应、面部肌肉紧绷或有轻微偏斜、眼睑沉重或眼神躲避等“郁证面相”特征。
+
+            因此，输出：**面部：0**
+
+            **舌苔分析：**
+
+            根据图片，舌苔看起来是白色且薄，没有明显的紫斑、黑点或齿痕。
+
+            因此，输出：**舌苔：0**
+            """;
+
+    private DiagnosisPrompts() {
+    }
+}
@@ -0,0 +1,14 @@
+package com.meerkats.wenzhen.report;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 合并后的分析报告
+ *
+ * @param content    给用户看的报告正文
+ * @param durationMs 整体耗时，约等于最慢的一个维度
+ */
+public record DiagnosisReport(String sessionId, List<ModalityResult> results, String content,
+                              Instant createdAt, long durationMs) {
+}
@@ -0,0 +1,30 @@
+package com.meerkats.wenzhen.report;
+
+/**
+ * 报告的分析维度，name() 同时作为上传文件在媒体存储中的 key
+ */
+public enum Modality {
+
+    FACE("faceImg", "面部分析"),
+    TONGUE("tongue", "舌苔分析"),
+    VOICE("audio", "语音分析");
+
+    private final String mediaName;
+    private final String title;
+
+    Modality(String mediaName, String title) {
+        this.mediaName = mediaName;
+        this.title = title;
+    }
+
+    /**
+     * 对应的上传字段名
+     */
+    public String mediaName() {
+        return mediaName;
+    }
+
+    public String title() {
+        return title;
+    }
+}
@@ -0,0 +1,32 @@
+package com.meerkats.wenzhen.report;
+
+/**
+ * 单个维度的分析结果
+ *
+ * @param content    结论正文，失败或超时时为 null
+ * @param score      结构化结论：面部、舌苔为 0/1，语音为抑郁倾向等级 0（无倾向）～ 3（高度可能）；
+ *                   无法判断、失败或使用自由文本输出时为 null
+ * @param error      失败原因，成功时为 null
+ * @param durationMs 该维度的耗时
+ */
+public record ModalityResult(Modality modality, Status status, String content, Integer score, String error,
+                             long durationMs) {
+
+    public enum Status {
+        SUCCESS,
+        FAILED,
+        TIMEOUT
+    }
+
+    public static ModalityResult success(Modality modality, String content, Integer score, long durationMs) {
+        return new ModalityResult(modality, Status.SUCCESS, content, score, null, durationMs);
+    }
+
+    public static ModalityResult failed(Modality modality, Status status, String error, long durationMs) {
+        return new ModalityResult(modality, status, null, null, error, durationMs);
+    }
+
+    public boolean successful() {
+        return status == Status.SUCCESS;
+    }
+}
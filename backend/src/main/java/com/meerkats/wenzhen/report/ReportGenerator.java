@@ -0,0 +1,275 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.meerkats.wenzhen.config.ReportProperties;
+import com.meerkats.wenzhen.inference.StructuredOutput;
+import com.meerkats.wenzhen.inference.Workload;
+import com.meerkats.wenzhen.media.AudioAnalyzer;
+import com.meerkats.wenzhen.media.AudioFeatures;
+import com.meerkats.wenzhen.media.MediaBlob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 报告生成：面部、舌苔、语音三个维度并行分析，各自超时、互不阻塞，最后合并为一份报告。
+ * 整体耗时取决于最慢的维度，而不是三者之和；某个维度失败或超时只影响该维度的结论。
+ */
+@Component
+public class ReportGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportGenerator.class);
+
+    private static final Pattern THINK_BLOCK = Pattern.compile("(?s)<think>.*?</think>");
+    private static final Pattern FACE_SCORE = Pattern.compile("面部[：:]\\s*\\**\\s*([01])");
+    private static final Pattern TONGUE_SCORE = Pattern.compile("舌苔[：:]\\s*\\**\\s*([01])");
+    // 语音结构化输出的等级，下标即 ModalityResult.score
+    private static final List<String> VOICE_LEVELS = List.of("无倾向", "轻度可能", "中度可能", "高度可能");
+
+    private final DiagnosisInference diagnosisInference;
+    private final AudioAnalyzer audioAnalyzer;
+    private final ReportProperties properties;
+
+    public ReportGenerator(DiagnosisInference diagnosisInference, AudioAnalyzer audioAnalyzer,
+                           ReportProperties properties) {
+        this.diagnosisInference = diagnosisInference;
+        this.audioAnalyzer = audioAnalyzer;
+        this.properties = properties;
+    }
+
+    public DiagnosisReport generate(String sessionId, Map<String, MediaBlob> media) {
+        return generate(sessionId, media, result -> {
+        });
+    }
+
+    /**
+     * @param media    会话下的全部上传文件，key 为上传字段名
+     * @param onResult 每个维度有结论（成功、失败或超时）时按完成顺序回调，每个维度只回调一次
+     */
+    public DiagnosisReport generate(String sessionId, Map<String, MediaBlob> media, Consumer<ModalityResult> onResult) {
+        long start = System.nanoTime();
+        Map<Modality, Future<?>> futures = new EnumMap<>(Modality.class);
+        // 任务自己完成和等待方判定超时可能同时发生，先写入的结论为准
+        Map<Modality, ModalityResult> settled = new ConcurrentHashMap<>();
+        Consumer<ModalityResult> settle = result -> {
+            if (settled.putIfAbsent(result.modality(), result) == null) {
+                onResult.accept(result);
+            }
+        };
+
+        // 每次生成一个独立的作用域：所有分析在这里派发，也在这里收齐或取消
+        ExecutorService scope = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (Modality modality : Modality.values()) {
+                futures.put(modality, scope.submit(
+                        () -> settle.accept(analyze(modality, media.get(modality.mediaName()), start))));
+            }
+            for (Modality modality : Modality.values()) {
+                await(modality, futures.get(modality), start, settle);
+            }
+        } finally {
+            // 超时的调用不等待其结束，直接中断
+            scope.shutdownNow();
+        }
+
+        List<ModalityResult> results = Arrays.stream(Modality.values()).map(settled::get).toList();
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("报告生成完成: {}，耗时 {} ms，{}", sessionId, durationMs,
+                results.stream().map(r -> r.modality() + "=" + r.status() + "/" + r.durationMs() + "ms").toList());
+        return new DiagnosisReport(sessionId, results, merge(results), Instant.now(), durationMs);
+    }
+
+    private void await(Modality modality, Future<?> future, long start, Consumer<ModalityResult> settle) {
+        long deadline = start + properties.timeoutFor(modality).toNanos();
+        try {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.warn("{}超时", modality.title());
+            // 先记下超时结论再中断，避免被中断的任务抢先记为失败
+            settle.accept(ModalityResult.failed(modality, ModalityResult.Status.TIMEOUT, "分析超时", elapsedMs(start)));
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            // analyze 自己处理了异常，这里只可能是回调本身出错
+            settle.accept(ModalityResult.failed(modality, ModalityResult.Status.FAILED,
+                    String.valueOf(e.getCause()), elapsedMs(start)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            settle.accept(ModalityResult.failed(modality, ModalityResult.Status.FAILED, "分析被中断", elapsedMs(start)));
+            future.cancel(true);
+        }
+    }
+
+    private ModalityResult analyze(Modality modality, MediaBlob blob, long start) {
+        try {
+            if (blob == null) {
+                throw new IllegalArgumentException("未上传" + modality.title() + "所需的文件");
+            }
+            Conclusion conclusion = properties.isStructuredOutput() ? structured(modality, blob) : freeText(modality, blob);
+            return ModalityResult.success(modality, conclusion.content(), conclusion.score(), elapsedMs(start));
+        } catch (RuntimeException e) {
+            log.warn("{}失败", modality.title(), e);
+            return ModalityResult.failed(modality, ModalityResult.Status.FAILED,
+                    String.valueOf(e.getMessage()), elapsedMs(start));
+        }
+    }
+
+    private record Conclusion(String content, Integer score) {
+    }
+
+    /**
+     * 只让模型输出结论，读到结论即停止生成，正文由结论生成
+     */
+    private Conclusion structured(Modality modality, MediaBlob blob) {
+        int maxTokens = properties.numPredictFor(modality);
+        switch (modality) {
+            case FACE, TONGUE -> {
+                boolean face = modality == Modality.FACE;
+                ObjectNode output = diagnosisInference.structured(Workload.VISION,
+                        face ? DiagnosisPrompts.FACE_SYSTEM : DiagnosisPrompts.TONGUE_SYSTEM,
+                        face ? DiagnosisPrompts.FACE + DiagnosisPrompts.FACE_JSON
+                                : DiagnosisPrompts.TONGUE + DiagnosisPrompts.TONGUE_JSON,
+                        List.of(blob), new StructuredOutput(DiagnosisPrompts.SCORE_SCHEMA, List.of("score"), maxTokens));
+                int score = output.path("score").asInt(-1);
+                if (score != 0 && score != 1) {
+                    throw new IllegalStateException("模型输出的结论无效: " + output);
+                }
+                String content = face
+                        ? "面部：" + score + (score == 1 ? "，存在郁证相关面相表现" : "，未见明显郁证面相表现")
+                        : "舌苔：" + score + (score == 1 ? "，存在气郁或血瘀相关舌象" : "，未见明显气郁或血瘀舌象");
+                return new Conclusion(content, score);
+            }
+            case VOICE -> {
+                ObjectNode output = diagnosisInference.structured(Workload.ANALYSIS, DiagnosisPrompts.VOICE_SYSTEM,
+                        voicePrompt(blob, DiagnosisPrompts.VOICE_JSON.strip()), List.of(),
+                        new StructuredOutput(DiagnosisPrompts.VOICE_SCHEMA, List.of("level", "summary"), maxTokens));
+                String level = output.path("level").asText();
+                int index = VOICE_LEVELS.indexOf(level);
+                return new Conclusion("抑郁倾向：" + level + "\n" + output.path("summary").asText().strip(),
+                        index < 0 ? null : index);
+            }
+            default -> throw new IllegalArgumentException(String.valueOf(modality));
+        }
+    }
+
+    private Conclusion freeText(Modality modality, MediaBlob blob) {
+        OllamaApi.ChatResponse response = switch (modality) {
+            case FACE -> diagnosisInference.chat(Workload.VISION,
+                    DiagnosisPrompts.FACE_SYSTEM, DiagnosisPrompts.FACE, List.of(blob));
+            case TONGUE -> diagnosisInference.chat(Workload.VISION,
+                    DiagnosisPrompts.TONGUE_SYSTEM, DiagnosisPrompts.TONGUE, List.of(blob));
+            case VOICE -> diagnosisInference.chat(Workload.ANALYSIS,
+                    DiagnosisPrompts.VOICE_SYSTEM, voicePrompt(blob, ""), List.of());
+        };
+        String content = THINK_BLOCK.matcher(response.message().content()).replaceAll("").strip();
+        int score = score(modality, content);
+        return new Conclusion(content, score < 0 ? null : score);
+    }
+
+    /**
+     * 语音维度交给文本模型：提供本地计算的声学特征，无法提取时只提供文件本身的基本信息
+     */
+    private String voicePrompt(MediaBlob audio, String outputInstruction) {
+        AudioFeatures features = null;
+        try {
+            features = audioAnalyzer.analyze(audio);
+        } catch (IOException | RuntimeException e) {
+            log.warn("语音特征提取失败，只提供文件信息", e);
+        }
+        String information = features != null ? features.describe() : """
+                可获得的语音信息：
+                - 格式：%s
+                - 文件大小：%d KB
+                """.formatted(audio.contentType(), audio.size() / 1024);
+        return DiagnosisPrompts.VOICE + """
+
+                %s以上信息不足以判断的特征（如语言内容），请明确写出“无法判断”，不要臆测。
+                %s/no_think""".formatted(information,
+                outputInstruction.isEmpty() ? "" : outputInstruction + "\n");
+    }
+
+    private static String merge(List<ModalityResult> results) {
+        StringBuilder report = new StringBuilder();
+        report.append("青少年心理分析报告\n\n");
+        report.append("基于您提交的资料，初步分析如下：\n");
+        boolean incomplete = false;
+        boolean positive = false;
+        for (ModalityResult result : results) {
+            report.append("\n【").append(result.modality().title()).append("】\n");
+            if (result.successful()) {
+                report.append(result.content()).append('\n');
+                positive |= score(result) == 1;
+            } else {
+                incomplete = true;
+                report.append(result.status() == ModalityResult.Status.TIMEOUT ? "分析超时" : "分析失败")
+                        .append("，未纳入本次评估\n");
+            }
+        }
+
+        report.append("\n综合评估: ");
+        if (results.stream().noneMatch(ModalityResult::successful)) {
+            report.append("各维度均未能完成分析，暂时无法给出评估，请稍后重新提交。");
+            return report.toString();
+        }
+        if (positive) {
+            report.append("面部或舌象存在郁证相关表现，建议关注近期情绪状态，必要时寻求专业帮助。\n");
+        } else {
+            report.append("心理状态处于正常范围，建议保持健康作息和社交活动。\n");
+        }
+        if (incomplete) {
+            report.append("部分维度未能完成分析，结论仅供参考。\n");
+        }
+        report.append("如需进一步评估，请咨询专业心理医生。");
+        return report.toString();
+    }
+
+    /**
+     * 面部/舌苔的 0/1 结论，没有结论（如语音维度）时返回 -1
+     */
+    static int score(ModalityResult result) {
+        if (result.modality() == Modality.VOICE) {
+            return -1;
+        }
+        if (result.score() != null) {
+            return result.score();
+        }
+        return score(result.modality(), result.content());
+    }
+
+    /**
+     * 从自由文本输出中读取面部/舌苔的 0/1 结论，读不到时返回 -1
+     */
+    private static int score(Modality modality, String content) {
+        Pattern pattern = switch (modality) {
+            case FACE -> FACE_SCORE;
+            case TONGUE -> TONGUE_SCORE;
+            case VOICE -> null;
+        };
+        if (pattern == null || content == null) {
+            return -1;
+        }
+        Matcher matcher = pattern.matcher(content);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    private static long elapsedMs(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
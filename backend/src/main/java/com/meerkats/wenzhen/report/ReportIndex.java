@@ -0,0 +1,150 @@
+package com.meerkats.wenzhen.report;
+
+import java.util.Arrays;
+
+/**
+ * 报告存储的内存索引，全部由基本类型数组组成，每条报告约 40 字节，不产生逐条的对象。
+ * <ul>
+ *     <li>按写入顺序排列的 键（128 位）/ 写入时间 / 位置（分段号和偏移）数组，写入时间单调不减，按日期查询时二分查找</li>
+ *     <li>以键为散列的开放寻址表，槽中存数组下标，按 sessionId 查找为一次散列加少量探测</li>
+ * </ul>
+ * 不是线程安全的，由 {@link ReportStore} 加锁访问。
+ */
+final class ReportIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keyHigh = new long[INITIAL_CAPACITY];
+    private long[] keyLow = new long[INITIAL_CAPACITY];
+    private long[] storedAt = new long[INITIAL_CAPACITY];
+    private long[] location = new long[INITIAL_CAPACITY];
+    private int size;
+    // 下标 + 1，0 表示空槽；负载不超过一半
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    static int segment(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int offset(long location) {
+        return (int) location;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 追加一条，同一个键再次写入时按键查找得到新的一条，按日期查询两条都在
+     */
+    void add(long high, long low, long time, long position) {
+        if (size == keyHigh.length) {
+            int capacity = size * 2;
+            keyHigh = Arrays.copyOf(keyHigh, capacity);
+            keyLow = Arrays.copyOf(keyLow, capacity);
+            storedAt = Arrays.copyOf(storedAt, capacity);
+            location = Arrays.copyOf(location, capacity);
+        }
+        keyHigh[size] = high;
+        keyLow[size] = low;
+        storedAt[size] = time;
+        location[size] = position;
+        size++;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insert(size - 1);
+        }
+    }
+
+    /**
+     * @return 位置，没有时返回 -1
+     */
+    long find(long high, long low) {
+        int mask = slots.length - 1;
+        for (int slot = hash(high, low) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int i = slots[slot] - 1;
+            if (keyHigh[i] == high && keyLow[i] == low) {
+                return location[i];
+            }
+        }
+        return -1;
+    }
+
+    long storedAt(int i) {
+        return storedAt[i];
+    }
+
+    long location(int i) {
+        return location[i];
+    }
+
+    long lastStoredAt() {
+        return size == 0 ? 0 : storedAt[size - 1];
+    }
+
+    /**
+     * @return 第一条写入时间不早于 time 的下标，没有时返回 size
+     */
+    int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (storedAt[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 删除最早的 count 条（过期的分段），重建散列表
+     */
+    void removeFirst(int count) {
+        int remaining = size - count;
+        System.arraycopy(keyHigh, count, keyHigh, 0, remaining);
+        System.arraycopy(keyLow, count, keyLow, 0, remaining);
+        System.arraycopy(storedAt, count, storedAt, 0, remaining);
+        System.arraycopy(location, count, location, 0, remaining);
+        size = remaining;
+        rehash(slots.length);
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    private void insert(int i) {
+        int mask = slots.length - 1;
+        int slot = hash(keyHigh[i], keyLow[i]) & mask;
+        while (slots[slot] != 0) {
+            int existing = slots[slot] - 1;
+            if (keyHigh[existing] == keyHigh[i] && keyLow[existing] == keyLow[i]) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = i + 1;
+    }
+
+    private static int hash(long high, long low) {
+        // murmur3 的 64 位混合函数
+        long h = high * 31 + low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
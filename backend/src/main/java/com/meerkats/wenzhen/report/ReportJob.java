@@ -0,0 +1,75 @@
+package com.meerkats.wenzhen.report;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 一次报告生成任务的状态，jobId 即上传时分配的 sessionId
+ */
+public class ReportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String sessionId;
+    private final Instant createdAt = Instant.now();
+    private final List<ModalityResult> partialResults = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<DiagnosisReport> completion = new CompletableFuture<>();
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant finishedAt;
+
+    public ReportJob(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+        if (status == Status.DONE || status == Status.FAILED) {
+            finishedAt = Instant.now();
+        }
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * 已经有结论的维度，按完成顺序
+     */
+    public List<ModalityResult> getPartialResults() {
+        return List.copyOf(partialResults);
+    }
+
+    void addPartialResult(ModalityResult result) {
+        partialResults.add(result);
+    }
+
+    /**
+     * 任务结束时完成，失败时以异常结束
+     */
+    public CompletableFuture<DiagnosisReport> completion() {
+        return completion;
+    }
+
+    public DiagnosisReport getReport() {
+        return completion.isDone() && !completion.isCompletedExceptionally() ? completion.join() : null;
+    }
+}
@@ -0,0 +1,244 @@
+package com.meerkats.wenzhen.report;
+
+import com.meerkats.wenzhen.config.ReportJobProperties;
+import com.meerkats.wenzhen.inference.InferenceBusyException;
+import com.meerkats.wenzhen.media.MediaStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 报告任务：上传后立即返回，报告在有界的任务线程池中生成，
+ * 各维度的结论和最终报告通过 SSE 推送给订阅者。完成的报告写入 {@link ReportStore}，任务清理后仍可查询。
+ */
+@Component
+public class ReportJobService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportJobService.class);
+
+    private final ReportGenerator reportGenerator;
+    private final MediaStore mediaStore;
+    private final ReportStore reportStore;
+    private final ReportJobProperties properties;
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public ReportJobService(ReportGenerator reportGenerator, MediaStore mediaStore, ReportStore reportStore,
+                            ReportJobProperties properties) {
+        this.reportGenerator = reportGenerator;
+        this.mediaStore = mediaStore;
+        this.reportStore = reportStore;
+        this.properties = properties;
+        this.executor = new ThreadPoolExecutor(properties.getConcurrency(), properties.getConcurrency(),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(properties.getQueueCapacity()),
+                Thread.ofVirtual().name("report-job-", 0).factory());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(executor, "report-jobs", List.of()).bindTo(registry);
+        Gauge.builder("wenzhen.report.jobs", jobs, Map::size)
+                .description("内存中保留的报告任务数，含已完成未清理的")
+                .register(registry);
+        Gauge.builder("wenzhen.report.subscribers", subscribers,
+                        map -> map.values().stream().mapToInt(List::size).sum())
+                .description("报告进度的 SSE 订阅数")
+                .register(registry);
+    }
+
+    /**
+     * 提交报告任务，会话的媒体文件需已写入 {@link MediaStore}；任务结束或被拒绝后删除这些文件，
+     * 不占用媒体存储的预算等到 TTL 过期
+     *
+     * @throws InferenceBusyException 任务队列已满
+     */
+    public ReportJob submit(String sessionId) {
+        ReportJob job = new ReportJob(sessionId);
+        jobs.put(sessionId, job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(sessionId);
+            mediaStore.remove(sessionId);
+            throw new InferenceBusyException("报告任务过多，请稍后重试");
+        }
+        return job;
+    }
+
+    public ReportJob get(String sessionId) {
+        return jobs.get(sessionId);
+    }
+
+    /**
+     * 订阅任务进度，先补发已有的状态和结论，再推送后续事件；
+     * 任务已从内存中清理时，从报告存储中取出报告作为 complete 事件发送
+     *
+     * @return 任务和报告都不存在时返回 null
+     */
+    public SseEmitter subscribe(String sessionId) {
+        ReportJob job = jobs.get(sessionId);
+        if (job == null) {
+            return storedReport(sessionId);
+        }
+        SseEmitter emitter = new SseEmitter(properties.getSseTimeout().toMillis());
+        synchronized (job) {
+            try {
+                emitter.send(statusEvent(job));
+                for (ModalityResult result : job.getPartialResults()) {
+                    emitter.send(SseEmitter.event().name("modality").data(result));
+                }
+                if (job.completion().isDone()) {
+                    emitter.send(finalEvent(job));
+                    emitter.complete();
+                    return emitter;
+                }
+            } catch (IOException e) {
+                emitter.completeWithError(e);
+                return emitter;
+            }
+            subscribers.computeIfAbsent(sessionId, k -> new CopyOnWriteArrayList<>()).add(emitter);
+        }
+        Runnable unsubscribe = () -> {
+            List<SseEmitter> list = subscribers.get(sessionId);
+            if (list != null) {
+                list.remove(emitter);
+            }
+        };
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(ex -> unsubscribe.run());
+        return emitter;
+    }
+
+    private SseEmitter storedReport(String sessionId) {
+        DiagnosisReport report;
+        try {
+            report = reportStore.find(sessionId);
+        } catch (IOException e) {
+            log.warn("读取已保存的报告失败: {}", sessionId, e);
+            return null;
+        }
+        if (report == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(properties.getSseTimeout().toMillis());
+        try {
+            emitter.send(SseEmitter.event().name("status")
+                    .data(Map.of("sessionId", sessionId, "status", ReportJob.Status.DONE)));
+            emitter.send(SseEmitter.event().name("complete").data(report));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    private void run(ReportJob job) {
+        String sessionId = job.getSessionId();
+        synchronized (job) {
+            job.setStatus(ReportJob.Status.RUNNING);
+            publish(job, statusEvent(job));
+        }
+        try {
+            DiagnosisReport report = reportGenerator.generate(sessionId, mediaStore.getSession(sessionId), result -> {
+                synchronized (job) {
+                    job.addPartialResult(result);
+                    publish(job, SseEmitter.event().name("modality").data(result));
+                }
+            });
+            try {
+                // 先落盘再通知完成，客户端收到完成事件后随时可以从存储中取到
+                reportStore.append(report);
+            } catch (IOException e) {
+                log.error("报告保存失败，只在内存中保留: {}", sessionId, e);
+            }
+            synchronized (job) {
+                job.setStatus(ReportJob.Status.DONE);
+                job.completion().complete(report);
+                publish(job, finalEvent(job));
+            }
+        } catch (RuntimeException e) {
+            log.error("报告任务失败: {}", sessionId, e);
+            synchronized (job) {
+                job.setStatus(ReportJob.Status.FAILED);
+                job.completion().completeExceptionally(e);
+                publish(job, finalEvent(job));
+            }
+        } finally {
+            mediaStore.remove(sessionId);
+            List<SseEmitter> list = subscribers.remove(sessionId);
+            if (list != null) {
+                list.forEach(SseEmitter::complete);
+            }
+        }
+    }
+
+    /**
+     * 推送给当前所有订阅者，调用方需持有 job 锁，保证与订阅时的补发不交错
+     */
+    private void publish(ReportJob job, SseEmitter.SseEventBuilder event) {
+        List<SseEmitter> list = subscribers.get(job.getSessionId());
+        if (list == null) {
+            return;
+        }
+        // SseEventBuilder 只能 build 一次，多个订阅者共用同一份内容
+        Set<ResponseBodyEmitter.DataWithMediaType> data = event.build();
+        for (SseEmitter emitter : list) {
+            try {
+                emitter.send(data);
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开，不影响任务本身
+                list.remove(emitter);
+            }
+        }
+    }
+
+    private static SseEmitter.SseEventBuilder statusEvent(ReportJob job) {
+        return SseEmitter.event().name("status")
+                .data(Map.of("sessionId", job.getSessionId(), "status", job.getStatus()));
+    }
+
+    private static SseEmitter.SseEventBuilder finalEvent(ReportJob job) {
+        DiagnosisReport report = job.getReport();
+        if (report != null) {
+            return SseEmitter.event().name("complete").data(report);
+        }
+        return SseEmitter.event().name("error").data(Map.of("sessionId", job.getSessionId(), "status", job.getStatus()));
+    }
+
+    /**
+     * 定期清理已结束且超过保留时间的任务
+     */
+    @Scheduled(fixedDelayString = "${report.jobs.cleanup-interval-ms:60000}")
+    public void evictFinished() {
+        Instant deadline = Instant.now().minus(properties.getRetention());
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(deadline));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,291 @@
+package com.meerkats.wenzhen.report;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * 报告存储的一个分段文件，只追加。每条记录为 32 字节的头加 JSON：
+ * <pre>
+ * length(4) crc(4) storedAt(8) keyHigh(8) keyLow(8) payload(length)
+ * </pre>
+ * crc 为 CRC32C，覆盖 storedAt 到 payload 末尾。
+ * <p>
+ * 正在写入的分段用 {@link FileChannel} 追加和读取，打开时逐条校验并截掉进程退出时写了一半的记录；
+ * 写满后封存：整个文件只读映射到内存，并写出同名的 .idx 文件（每条记录的键、时间和偏移），
+ * 重启时直接读 .idx，不需要再扫描分段。
+ */
+final class ReportSegment implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportSegment.class);
+
+    static final String SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final int HEADER_BYTES = 32;
+    // keyHigh(8) keyLow(8) storedAt(8) offset(4)
+    private static final int INDEX_ENTRY_BYTES = 28;
+    // segmentSize(8) count(4) crc(4)
+    private static final int INDEX_TRAILER_BYTES = 16;
+
+    /**
+     * 加载分段时逐条回调，记录按写入顺序
+     */
+    interface EntryConsumer {
+        void accept(long keyHigh, long keyLow, long storedAt, int offset);
+    }
+
+    private final int number;
+    private final Path path;
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    // 正在写入的分段中各记录的 .idx 条目，封存时写出
+    private ByteArrayOutputStream pendingIndex;
+    private volatile long size;
+    private volatile long lastStoredAt;
+    private int count;
+
+    private ReportSegment(int number, Path path) {
+        this.number = number;
+        this.path = path;
+    }
+
+    static String fileName(int number) {
+        return String.format("%010d", number) + SUFFIX;
+    }
+
+    /**
+     * 创建新的分段用于写入
+     */
+    static ReportSegment create(Path dir, int number) throws IOException {
+        ReportSegment segment = new ReportSegment(number, dir.resolve(fileName(number)));
+        segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.pendingIndex = new ByteArrayOutputStream();
+        return segment;
+    }
+
+    /**
+     * 打开已有的分段
+     *
+     * @param active 是否继续写入；不写入的分段优先读取 .idx，缺失或与分段不一致时重新扫描并补写
+     */
+    static ReportSegment open(Path path, int number, boolean active, EntryConsumer consumer) throws IOException {
+        ReportSegment segment = new ReportSegment(number, path);
+        if (!active && segment.loadIndex(consumer)) {
+            segment.map();
+            return segment;
+        }
+        segment.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            segment.pendingIndex = new ByteArrayOutputStream();
+            segment.scan(consumer);
+            if (!active) {
+                segment.seal();
+            }
+        } catch (IOException e) {
+            segment.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    int number() {
+        return number;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * 分段中最后一条记录的写入时间，空分段为 0
+     */
+    long lastStoredAt() {
+        return lastStoredAt;
+    }
+
+    /**
+     * 追加一条记录，只能由一个线程调用
+     *
+     * @return 记录在分段中的偏移
+     */
+    int append(long storedAt, long keyHigh, long keyLow, byte[] payload, boolean fsync) throws IOException {
+        int offset = (int) size;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt(0).putLong(storedAt).putLong(keyHigh).putLong(keyLow).put(payload);
+        buffer.putInt(4, crc(buffer, 8, buffer.capacity()));
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+        addEntry(keyHigh, keyLow, storedAt, offset);
+        size = offset + HEADER_BYTES + payload.length;
+        return offset;
+    }
+
+    /**
+     * 读出偏移处记录的 JSON，封存的分段直接从映射内存中复制
+     */
+    byte[] read(int offset) throws IOException {
+        MappedByteBuffer buffer = mapped;
+        if (buffer != null) {
+            byte[] payload = new byte[buffer.getInt(offset)];
+            buffer.get(offset + HEADER_BYTES, payload);
+            return payload;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        ByteBuffer payload = ByteBuffer.allocate(length.getInt(0));
+        readFully(payload, offset + HEADER_BYTES);
+        return payload.array();
+    }
+
+    /**
+     * 封存：写出 .idx，把分段映射到内存，之后只读
+     */
+    void seal() throws IOException {
+        channel.force(true);
+        ByteBuffer index = ByteBuffer.allocate(pendingIndex.size() + INDEX_TRAILER_BYTES);
+        index.put(pendingIndex.toByteArray());
+        index.putLong(size).putInt(count).putInt(crc(index, 0, pendingIndex.size()));
+        index.flip();
+        Path indexPath = indexPath();
+        Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (index.hasRemaining()) {
+                out.write(index);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        map();
+        pendingIndex = null;
+    }
+
+    void delete() throws IOException {
+        close();
+        // 映射的内存在缓冲区被回收时释放，删除文件不影响仍在读取的线程
+        Files.deleteIfExists(indexPath());
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void map() throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = in.size();
+            mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * 逐条校验记录，遇到长度越界或校验失败即认为之后都是未写完的数据，截掉
+     */
+    private void scan(EntryConsumer consumer) throws IOException {
+        long fileSize = channel.size();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        int offset = 0;
+        while (offset + HEADER_BYTES <= fileSize) {
+            int length = buffer.getInt(offset);
+            if (length < 0 || offset + HEADER_BYTES + (long) length > fileSize
+                    || buffer.getInt(offset + 4) != crc(buffer, offset + 8, offset + HEADER_BYTES + length)) {
+                break;
+            }
+            long storedAt = buffer.getLong(offset + 8);
+            long keyHigh = buffer.getLong(offset + 16);
+            long keyLow = buffer.getLong(offset + 24);
+            addEntry(keyHigh, keyLow, storedAt, offset);
+            consumer.accept(keyHigh, keyLow, storedAt, offset);
+            offset += HEADER_BYTES + length;
+        }
+        if (offset < fileSize) {
+            log.warn("报告分段 {} 末尾有 {} 字节不完整的记录，已截掉", path.getFileName(), fileSize - offset);
+            channel.truncate(offset);
+            channel.force(true);
+        }
+        size = offset;
+    }
+
+    /**
+     * @return .idx 完整且与分段大小一致时返回 true 并回调其中的条目
+     */
+    private boolean loadIndex(EntryConsumer consumer) throws IOException {
+        Path indexPath = indexPath();
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        int entriesBytes = index.capacity() - INDEX_TRAILER_BYTES;
+        if (entriesBytes < 0 || entriesBytes % INDEX_ENTRY_BYTES != 0
+                || index.getLong(entriesBytes) != Files.size(path)
+                || index.getInt(entriesBytes + 8) != entriesBytes / INDEX_ENTRY_BYTES
+                || index.getInt(entriesBytes + 12) != crc(index, 0, entriesBytes)) {
+            log.warn("报告分段索引 {} 与分段不一致，重新扫描", indexPath.getFileName());
+            return false;
+        }
+        for (int position = 0; position < entriesBytes; position += INDEX_ENTRY_BYTES) {
+            long storedAt = index.getLong(position + 16);
+            consumer.accept(index.getLong(position), index.getLong(position + 8), storedAt, index.getInt(position + 24));
+            lastStoredAt = storedAt;
+            count++;
+        }
+        return true;
+    }
+
+    private void addEntry(long keyHigh, long keyLow, long storedAt, int offset) {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        entry.putLong(keyHigh).putLong(keyLow).putLong(storedAt).putInt(offset);
+        pendingIndex.writeBytes(entry.array());
+        lastStoredAt = storedAt;
+        count++;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("报告分段 " + path.getFileName() + " 在偏移 " + position + " 处不完整");
+            }
+        }
+    }
+
+    private Path indexPath() {
+        String name = path.getFileName().toString();
+        return path.resolveSibling(name.substring(0, name.length() - SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static int crc(ByteBuffer buffer, int from, int to) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(from, to - from));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,298 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.ReportStoreProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 已完成报告的持久化存储，服务重启或任务从内存中清理后仍可通过 GET /report/{sessionId} 获取，不需要重新推理。
+ * <p>
+ * 报告以 JSON 追加写入分段文件（见 {@link ReportSegment}），写满的分段只读映射到内存；
+ * sessionId 到位置的索引全部在堆上的基本类型数组中（见 {@link ReportIndex}），报告正文不占堆内存。
+ * 启动时从各分段的 .idx 恢复索引，只扫描最后一个分段，截掉进程退出时写了一半的记录。
+ * 过期按整个分段删除。
+ */
+@Component
+public class ReportStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportStore.class);
+
+    private static final Pattern SEGMENT = Pattern.compile("\\d{10}\\" + ReportSegment.SUFFIX);
+
+    /**
+     * 按日期查询的一页，报告从新到旧排列
+     *
+     * @param total 当天的报告总数
+     */
+    public record Page(LocalDate date, int page, int size, int total, List<DiagnosisReport> reports) {
+    }
+
+    private final ReportStoreProperties properties;
+    private final ObjectMapper objectMapper;
+    private final Path root;
+    private final long segmentSize;
+    // 保护索引和分段表；读写文件本身不需要持有写锁
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // 同一时间只有一个线程追加
+    private final Object appendLock = new Object();
+    private final ReportIndex index = new ReportIndex();
+    private final NavigableMap<Integer, ReportSegment> segments = new TreeMap<>();
+    private ReportSegment active;
+
+    public ReportStore(ReportStoreProperties properties, ObjectMapper objectMapper, MeterRegistry meterRegistry)
+            throws IOException {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.root = Paths.get(properties.getDir()).toAbsolutePath().normalize();
+        // 偏移为 int，映射的分段也不能超过 2GB
+        this.segmentSize = Math.min(properties.getSegmentSize().toBytes(), Integer.MAX_VALUE);
+        Files.createDirectories(root);
+        recover();
+
+        Gauge.builder("wenzhen.report.store.reports", this, store -> store.read(store.index::size))
+                .description("报告存储中的报告数")
+                .register(meterRegistry);
+        Gauge.builder("wenzhen.report.store.segments", this, store -> store.read(store.segments::size))
+                .description("报告存储的分段文件数")
+                .register(meterRegistry);
+        Gauge.builder("wenzhen.report.store.bytes", this,
+                        store -> store.read(() -> store.segments.values().stream().mapToLong(ReportSegment::size).sum()))
+                .description("报告存储占用的磁盘空间")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 按编号顺序打开已有的分段，最后一个继续写入
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (SEGMENT.matcher(name).matches()) {
+                    files.add(entry);
+                } else if (name.endsWith(".tmp")) {
+                    // 上次运行中断的 .idx 写入
+                    Files.delete(entry);
+                }
+            }
+        }
+        files.sort(null);
+        long start = System.nanoTime();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            int number = Integer.parseInt(name.substring(0, name.length() - ReportSegment.SUFFIX.length()));
+            ReportSegment segment = ReportSegment.open(file, number, i == files.size() - 1,
+                    (high, low, storedAt, offset) -> index.add(high, low, storedAt, ReportIndex.location(number, offset)));
+            segments.put(number, segment);
+        }
+        active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (active == null) {
+            active = ReportSegment.create(root, 1);
+            segments.put(active.number(), active);
+        }
+        log.info("报告存储已加载: {} 份报告，{} 个分段，耗时 {} ms", index.size(), segments.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * 写入一份报告，返回时已落盘（report.store.fsync 开启时），同一 sessionId 再次写入时以新的为准
+     */
+    public void append(DiagnosisReport report) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(report);
+        UUID key = key(report.sessionId());
+        synchronized (appendLock) {
+            // 写入时间单调不减，系统时间回拨时沿用上一条的时间，保证按日期二分查找有效
+            long storedAt = Math.max(System.currentTimeMillis(), read(index::lastStoredAt));
+            if (active.count() > 0 && active.size() + ReportSegment.HEADER_BYTES + payload.length > segmentSize) {
+                roll();
+            }
+            int offset = active.append(storedAt, key.getMostSignificantBits(), key.getLeastSignificantBits(),
+                    payload, properties.isFsync());
+            lock.writeLock().lock();
+            try {
+                index.add(key.getMostSignificantBits(), key.getLeastSignificantBits(), storedAt,
+                        ReportIndex.location(active.number(), offset));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return 报告的 JSON，不存在或已过期时返回 null
+     */
+    public byte[] findJson(String sessionId) throws IOException {
+        UUID key = key(sessionId);
+        lock.readLock().lock();
+        try {
+            long location = index.find(key.getMostSignificantBits(), key.getLeastSignificantBits());
+            return location < 0 ? null : readAt(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 报告，不存在或已过期时返回 null
+     */
+    public DiagnosisReport find(String sessionId) throws IOException {
+        byte[] json = findJson(sessionId);
+        return json == null ? null : objectMapper.readValue(json, DiagnosisReport.class);
+    }
+
+    /**
+     * 按 report.store.zone 计的当天日期
+     */
+    public LocalDate today() {
+        return LocalDate.now(properties.getZone());
+    }
+
+    /**
+     * 按写入日期分页查询，报告从新到旧排列
+     *
+     * @param page 从 0 开始
+     */
+    public Page history(LocalDate date, int page, int size) throws IOException {
+        int pageSize = Math.max(1, Math.min(size, properties.getMaxPageSize()));
+        long from = date.atStartOfDay(properties.getZone()).toInstant().toEpochMilli();
+        long to = date.plusDays(1).atStartOfDay(properties.getZone()).toInstant().toEpochMilli();
+        List<byte[]> payloads = new ArrayList<>();
+        int total;
+        lock.readLock().lock();
+        try {
+            int first = index.lowerBound(from);
+            int end = index.lowerBound(to);
+            total = end - first;
+            long newest = end - 1 - (long) Math.max(page, 0) * pageSize;
+            for (long i = newest; i >= first && i > newest - pageSize; i--) {
+                payloads.add(readAt(index.location((int) i)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<DiagnosisReport> reports = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            reports.add(objectMapper.readValue(payload, DiagnosisReport.class));
+        }
+        return new Page(date, page, pageSize, total, reports);
+    }
+
+    /**
+     * 定期删除最后一条报告已超过保留时间的分段，正在写入的分段不删除
+     */
+    @Scheduled(fixedDelayString = "${report.store.cleanup-interval-ms:3600000}")
+    public void evictExpired() {
+        long deadline = Instant.now().minus(properties.getRetention()).toEpochMilli();
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (var it = segments.entrySet().iterator(); it.hasNext(); ) {
+                ReportSegment segment = it.next().getValue();
+                if (segment == active || segment.lastStoredAt() >= deadline) {
+                    break;
+                }
+                try {
+                    segment.delete();
+                } catch (IOException e) {
+                    log.warn("删除过期的报告分段失败: {}", segment.number(), e);
+                    break;
+                }
+                it.remove();
+                removed += segment.count();
+                log.info("报告分段过期: {}，{} 份报告", segment.number(), segment.count());
+            }
+            if (removed > 0) {
+                index.removeFirst(removed);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (ReportSegment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 封存当前分段并开始新的分段，持有写锁，避免读取线程用到已关闭的文件
+     */
+    private void roll() throws IOException {
+        lock.writeLock().lock();
+        try {
+            active.seal();
+            active = ReportSegment.create(root, active.number() + 1);
+            segments.put(active.number(), active);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 调用方需持有读锁或写锁
+     */
+    private byte[] readAt(long location) throws IOException {
+        return segments.get(ReportIndex.segment(location)).read(ReportIndex.offset(location));
+    }
+
+    private <T> T read(Supplier<T> supplier) {
+        lock.readLock().lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 标准格式的 UUID 直接作为 128 位的键，其他 sessionId（如批量筛查的）取名字的 UUID；
+     * 两者的版本位不同，不会冲突
+     */
+    private static UUID key(String sessionId) {
+        if (sessionId.length() == 36) {
+            try {
+                UUID uuid = UUID.fromString(sessionId);
+                if (uuid.toString().equals(sessionId)) {
+                    return uuid;
+                }
+            } catch (IllegalArgumentException e) {
+                // 按普通字符串处理
+            }
+        }
+        return UUID.nameUUIDFromBytes(sessionId.getBytes(StandardCharsets.UTF_8));
+    }
+}
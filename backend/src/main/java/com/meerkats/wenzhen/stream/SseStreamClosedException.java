@@ -0,0 +1,11 @@
+package com.meerkats.wenzhen.stream;
+
+/**
+ * 推送连接已关闭（客户端断开、超时或接收过慢被断开），继续写入没有意义
+ */
+public class SseStreamClosedException extends RuntimeException {
+
+    public SseStreamClosedException(String message) {
+        super(message);
+    }
+}
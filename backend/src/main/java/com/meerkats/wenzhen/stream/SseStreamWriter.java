@@ -0,0 +1,354 @@
+package com.meerkats.wenzhen.stream;
+
+import com.meerkats.wenzhen.config.SseStreamProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 流式对话的推送通道：模型逐 token 输出，客户端按帧接收。
+ * <p>
+ * 生成方只往缓冲区追加内容，由每个连接一个的虚拟线程负责发送。距上次发送不足 flushInterval 时，
+ * 期间到达的 token 合并为一个 message 事件；同一批待发事件合并为一次写出、一次 flush。
+ * 第一个 token 不等待，首字延迟不变。连接空闲时定期发送心跳注释。
+ * 客户端接收过慢、积压超过上限时，按配置让生成方等待或直接断开。
+ * <p>
+ * 连接在推送完成前关闭（断开、超时、出错或被判定接收过慢）时执行 {@link #onClose} 注册的回调，
+ * 生成方借此立即停止上游生成。
+ */
+public class SseStreamWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(SseStreamWriter.class);
+
+    static final String MESSAGE_EVENT = "message";
+
+    private final SseEmitter emitter;
+    private final long flushIntervalNanos;
+    private final int flushBytes;
+    private final long maxBuffered;
+    private final SseStreamProperties.SlowConsumerPolicy slowConsumerPolicy;
+    private final long heartbeatNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // 有内容可发或连接状态变化时唤醒发送线程
+    private final Condition ready = lock.newCondition();
+    // 一批内容写出后唤醒等待的生成方
+    private final Condition drained = lock.newCondition();
+
+    // 以下字段均由 lock 保护
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingBytes;
+    private final ArrayDeque<SseEmitter.SseEventBuilder> frames = new ArrayDeque<>();
+    private long framedBytes;
+    // 已追加但尚未写出的字节数，包括正在发送的一批
+    private long bufferedBytes;
+    private long lastSentAt;
+    private boolean finishing;
+    private Throwable failure;
+    // 非 null 表示连接已关闭，不再接受写入
+    private String closedReason;
+    // 连接已由容器或发送线程结束，不需要再 complete
+    private boolean emitterDone;
+    private boolean completedNormally;
+    private final List<Runnable> closeCallbacks = new ArrayList<>();
+
+    SseStreamWriter(SseEmitter emitter, SseStreamProperties properties) {
+        this.emitter = emitter;
+        this.flushIntervalNanos = properties.getFlushInterval().toNanos();
+        this.flushBytes = properties.getFlushBytes();
+        this.maxBuffered = properties.getMaxBuffered().toBytes();
+        this.slowConsumerPolicy = properties.getSlowConsumerPolicy();
+        this.heartbeatNanos = properties.getHeartbeatInterval().toNanos();
+        this.lastSentAt = System.nanoTime() - flushIntervalNanos;
+
+        emitter.onCompletion(() -> closedByContainer("连接已结束"));
+        emitter.onTimeout(() -> closedByContainer("连接超时"));
+        emitter.onError(e -> closedByContainer("连接错误: " + e.getMessage()));
+        Thread.ofVirtual().name("sse-writer").start(this::run);
+    }
+
+    /**
+     * 追加一段模型输出，与相邻的 token 合并后以 message 事件推送
+     *
+     * @throws SseStreamClosedException 连接已关闭，调用方应停止生成
+     */
+    public void append(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        int bytes = utf8Length(text);
+        lock.lock();
+        try {
+            ensureWritable();
+            while (bufferedBytes > 0 && bufferedBytes + bytes > maxBuffered) {
+                if (slowConsumerPolicy == SseStreamProperties.SlowConsumerPolicy.DISCONNECT) {
+                    log.warn("客户端接收过慢，积压 {} 字节，断开连接", bufferedBytes);
+                    close("客户端接收过慢");
+                    throw new SseStreamClosedException(closedReason);
+                }
+                try {
+                    drained.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SseStreamClosedException("等待客户端接收被中断");
+                }
+                ensureWritable();
+            }
+            boolean wasEmpty = pendingBytes == 0;
+            pending.append(text);
+            pendingBytes += bytes;
+            bufferedBytes += bytes;
+            // 发送线程已经在按间隔等待时不必每个 token 都唤醒
+            if (wasEmpty || pendingBytes >= flushBytes) {
+                ready.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 推送一个独立事件，先于它追加的内容会先发出
+     */
+    public void event(String name, Object data) {
+        lock.lock();
+        try {
+            ensureWritable();
+            cutPending();
+            frames.add(SseEmitter.event().name(name).data(data));
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 发完剩余内容后正常结束连接，可重复调用
+     */
+    public void complete() {
+        finish(null);
+    }
+
+    /**
+     * 发完剩余内容后以错误结束连接，连接已关闭时忽略
+     */
+    public void completeWithError(Throwable error) {
+        finish(error);
+    }
+
+    /**
+     * 注册连接提前关闭时的回调，正常推送完成时不执行；连接已经提前关闭时立即执行
+     */
+    public void onClose(Runnable callback) {
+        lock.lock();
+        try {
+            if (closedReason == null) {
+                closeCallbacks.add(callback);
+                return;
+            }
+            if (completedNormally) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        callback.run();
+    }
+
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return closedReason == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish(Throwable error) {
+        lock.lock();
+        try {
+            if (closedReason != null || finishing) {
+                return;
+            }
+            finishing = true;
+            failure = error;
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Set<ResponseBodyEmitter.DataWithMediaType> batch = new LinkedHashSet<>();
+            long batchBytes;
+            boolean last;
+            lock.lock();
+            try {
+                awaitFrames();
+                if (closedReason != null) {
+                    break;
+                }
+                for (SseEmitter.SseEventBuilder frame : frames) {
+                    batch.addAll(frame.build());
+                }
+                frames.clear();
+                batchBytes = framedBytes;
+                framedBytes = 0;
+                last = finishing && pendingBytes == 0;
+                lastSentAt = System.nanoTime();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (!batch.isEmpty()) {
+                    emitter.send(batch);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // 客户端已断开，容器会负责结束这个连接
+                log.debug("SSE发送失败: {}", e.getMessage());
+                closedByContainer("发送失败");
+                return;
+            }
+
+            Throwable error;
+            lock.lock();
+            try {
+                bufferedBytes -= batchBytes;
+                drained.signalAll();
+                if (!last || closedReason != null) {
+                    continue;
+                }
+                completedNormally = true;
+                close("推送已完成");
+                emitterDone = true;
+                error = failure;
+            } finally {
+                lock.unlock();
+            }
+            // 不在持锁时结束连接，容器的完成回调也要取这把锁
+            if (error != null) {
+                emitter.completeWithError(error);
+            } else {
+                emitter.complete();
+            }
+            return;
+        }
+
+        // 由本端断开（如接收过慢）时需要主动结束连接
+        String reason;
+        lock.lock();
+        try {
+            if (emitterDone) {
+                return;
+            }
+            emitterDone = true;
+            reason = closedReason;
+        } finally {
+            lock.unlock();
+        }
+        emitter.completeWithError(new SseStreamClosedException(reason));
+    }
+
+    /**
+     * 等到有帧可发、需要收尾或连接关闭，调用方需持有 lock
+     */
+    private void awaitFrames() {
+        while (closedReason == null) {
+            long sinceLastSend = System.nanoTime() - lastSentAt;
+            if (pendingBytes > 0 && (finishing || pendingBytes >= flushBytes || sinceLastSend >= flushIntervalNanos)) {
+                cutPending();
+            }
+            if (!frames.isEmpty() || finishing) {
+                return;
+            }
+            if (pendingBytes == 0 && sinceLastSend >= heartbeatNanos) {
+                frames.add(SseEmitter.event().comment("ping"));
+                return;
+            }
+            long wait = pendingBytes > 0 ? flushIntervalNanos - sinceLastSend : heartbeatNanos - sinceLastSend;
+            try {
+                ready.awaitNanos(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close("推送线程被中断");
+            }
+        }
+    }
+
+    private void cutPending() {
+        if (pendingBytes == 0) {
+            return;
+        }
+        frames.add(SseEmitter.event().name(MESSAGE_EVENT).data(pending.toString()));
+        framedBytes += pendingBytes;
+        pending.setLength(0);
+        pendingBytes = 0;
+    }
+
+    private void ensureWritable() {
+        if (closedReason != null) {
+            throw new SseStreamClosedException(closedReason);
+        }
+        if (finishing) {
+            throw new IllegalStateException("推送已结束");
+        }
+    }
+
+    private void closedByContainer(String reason) {
+        lock.lock();
+        try {
+            emitterDone = true;
+            close(reason);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用方需持有 lock
+     */
+    private void close(String reason) {
+        if (closedReason == null) {
+            closedReason = reason;
+            if (!completedNormally && !closeCallbacks.isEmpty()) {
+                log.info("推送连接提前关闭: {}", reason);
+                // 回调可能取消上游请求，不在持锁时、也不在容器线程上执行
+                List<Runnable> callbacks = List.copyOf(closeCallbacks);
+                Thread.ofVirtual().name("sse-close").start(() -> callbacks.forEach(Runnable::run));
+            }
+            closeCallbacks.clear();
+        }
+        ready.signalAll();
+        drained.signalAll();
+    }
+
+    private static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,39 @@
+package com.meerkats.wenzhen.stream;
+
+import com.meerkats.wenzhen.config.SseStreamProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 为流式接口创建 {@link SseStreamWriter}
+ */
+@Component
+public class SseStreams implements MeterBinder {
+
+    private final SseStreamProperties properties;
+    private final AtomicInteger active = new AtomicInteger();
+
+    public SseStreams(SseStreamProperties properties) {
+        this.properties = properties;
+    }
+
+    public SseStreamWriter open(SseEmitter emitter) {
+        SseStreamWriter writer = new SseStreamWriter(emitter, properties);
+        // 正常完成、超时和出错最终都会走到容器的完成回调
+        active.incrementAndGet();
+        emitter.onCompletion(active::decrementAndGet);
+        return writer;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("wenzhen.sse.active", active, AtomicInteger::get)
+                .description("正在推送的 SSE 流数")
+                .register(registry);
+    }
+}
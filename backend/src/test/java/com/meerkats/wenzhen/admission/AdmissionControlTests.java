@@ -0,0 +1,110 @@
+package com.meerkats.wenzhen.admission;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.AdmissionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTests {
+
+    private static AdmissionProperties properties(int burst, int maxPerClient) {
+        AdmissionProperties.Endpoint stream = new AdmissionProperties.Endpoint();
+        stream.setPaths(List.of("/api/chat/stream"));
+        stream.setRate(0.5);
+        stream.setBurst(burst);
+        stream.setMaxPerClient(maxPerClient);
+        stream.setStream(true);
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.getEndpoints().put("chat-stream", stream);
+        return properties;
+    }
+
+    private static MockHttpServletRequest request(String path, String client) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setRemoteAddr(client);
+        return request;
+    }
+
+    @Test
+    void rejectsBurstOverflowWithRetryAfter() throws Exception {
+        AdmissionControl control = new AdmissionControl(properties(2, 0), new ObjectMapper(), new SimpleMeterRegistry());
+
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest request = request("/api/chat/stream", "10.0.0.1");
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            assertTrue(control.preHandle(request, response, null));
+            control.afterCompletion(request, response, null, null);
+        }
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(control.preHandle(request("/api/chat/stream", "10.0.0.1"), rejected, null));
+        assertEquals(429, rejected.getStatus());
+        // 每秒补充 0.5 个，需要等 2 秒
+        assertEquals("2", rejected.getHeader("Retry-After"));
+        assertTrue(rejected.getContentAsString().contains("retryAfter"));
+
+        // 其他客户端和不受控的路径不受影响
+        assertTrue(control.preHandle(request("/api/chat/stream", "10.0.0.2"), new MockHttpServletResponse(), null));
+        assertTrue(control.preHandle(request("/api/upload", "10.0.0.1"), new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    void limitsConcurrentRequestsPerClientAndGlobally() throws Exception {
+        AdmissionProperties properties = properties(100, 1);
+        properties.setMaxStreams(2);
+        AdmissionControl control = new AdmissionControl(properties, new ObjectMapper(), new SimpleMeterRegistry());
+
+        MockHttpServletRequest first = request("/api/chat/stream", "10.0.0.1");
+        assertTrue(control.preHandle(first, new MockHttpServletResponse(), null));
+        MockHttpServletResponse sameClient = new MockHttpServletResponse();
+        assertFalse(control.preHandle(request("/api/chat/stream", "10.0.0.1"), sameClient, null));
+        assertEquals(429, sameClient.getStatus());
+        assertEquals("2", sameClient.getHeader("Retry-After"));
+
+        MockHttpServletRequest second = request("/api/chat/stream", "10.0.0.2");
+        assertTrue(control.preHandle(second, new MockHttpServletResponse(), null));
+        assertFalse(control.preHandle(request("/api/chat/stream", "10.0.0.3"), new MockHttpServletResponse(), null));
+        // 被拒绝的请求不占名额
+        assertEquals(2, control.streams());
+        assertEquals(2, control.inFlight());
+
+        control.afterCompletion(first, new MockHttpServletResponse(), null, null);
+        control.afterCompletion(first, new MockHttpServletResponse(), null, null);
+        assertEquals(1, control.streams());
+        assertTrue(control.preHandle(request("/api/chat/stream", "10.0.0.1"), new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    void usesLastValueOfClientHeader() {
+        AdmissionProperties properties = properties(1, 0);
+        properties.setClientHeader("X-Forwarded-For");
+        AdmissionControl control = new AdmissionControl(properties, new ObjectMapper(), new SimpleMeterRegistry());
+
+        MockHttpServletRequest request = request("/api/chat/stream", "127.0.0.1");
+        request.addHeader("X-Forwarded-For", "1.2.3.4, 10.0.0.9");
+        assertEquals("10.0.0.9", control.clientId(request));
+        assertEquals("127.0.0.1", control.clientId(request("/api/chat/stream", "127.0.0.1")));
+    }
+
+    @Test
+    void tokenBucketRefillsUpToCapacity() {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        TokenBucket bucket = new TokenBucket(2, 1, 0);
+
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(second, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(second));
+        assertFalse(bucket.full(second));
+        assertTrue(bucket.full(10 * second));
+        assertEquals(0, bucket.tryAcquire(10 * second));
+        assertEquals(0, bucket.tryAcquire(10 * second));
+        assertTrue(bucket.tryAcquire(10 * second) > 0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.meerkats.wenzhen.chat;
+
+import com.meerkats.wenzhen.config.ConversationProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationServiceTests {
+
+    private ConversationService newService(int contextTokens) {
+        ConversationProperties properties = new ConversationProperties();
+        properties.setContextTokens(contextTokens);
+        // 不触发后台压缩
+        properties.setKeepRecentTurns(100);
+        return new ConversationService(properties, null, null, null, null);
+    }
+
+    private Conversation answered(ConversationService service, int turns) throws Exception {
+        Conversation conversation = service.create("第0轮问题", List.of());
+        conversation.model = "m";
+        for (int i = 0; i < turns; i++) {
+            service.beginTurn(conversation);
+            service.completeTurn(conversation, "第" + i + "轮回答");
+            service.ask(conversation, "第" + (i + 1) + "轮问题", List.of());
+        }
+        return conversation;
+    }
+
+    @Test
+    void followUpKeepsPrefixStable() throws Exception {
+        ConversationService service = newService(4096);
+        Conversation conversation = service.create("舌苔发白是什么原因", List.of());
+        conversation.model = "m";
+
+        OllamaApi.ChatRequest first = service.beginTurn(conversation);
+        service.completeTurn(conversation, "可能是脾胃虚寒");
+        service.ask(conversation, "需要注意什么", List.of());
+        OllamaApi.ChatRequest second = service.beginTurn(conversation);
+
+        assertEquals(2, first.messages().size());
+        assertEquals(4, second.messages().size());
+        // 追问请求以上一轮请求为前缀，Ollama 只需计算新增部分
+        assertEquals(first.messages(), second.messages().subList(0, 2));
+        assertEquals("需要注意什么", second.messages().get(3).content());
+    }
+
+    @Test
+    void oldTurnsAreDroppedWhenOverBudget() throws Exception {
+        ConversationService service = newService(40);
+        Conversation conversation = answered(service, 10);
+
+        OllamaApi.ChatRequest request = service.beginTurn(conversation);
+
+        List<OllamaApi.Message> messages = request.messages();
+        assertTrue(messages.size() < 22);
+        assertEquals("第9轮回答", messages.get(messages.size() - 2).content());
+        assertEquals("第10轮问题", messages.get(messages.size() - 1).content());
+    }
+
+    @Test
+    void cannotAskWhileAnswering() throws Exception {
+        ConversationService service = newService(4096);
+        Conversation conversation = service.create("问题", List.of());
+        conversation.model = "m";
+
+        service.beginTurn(conversation);
+        assertThrows(IllegalStateException.class, () -> service.ask(conversation, "追问", List.of()));
+        service.abortTurn(conversation);
+        service.ask(conversation, "追问", List.of());
+        assertEquals(0, conversation.turnCount());
+    }
+
+    @Test
+    void estimatesChineseAsOneTokenPerCharacter() {
+        assertEquals(4, ConversationService.estimateTokens("舌苔发白"));
+        assertEquals(2, ConversationService.estimateTokens("abcdefgh"));
+        assertEquals(0, ConversationService.estimateTokens(null));
+    }
+}
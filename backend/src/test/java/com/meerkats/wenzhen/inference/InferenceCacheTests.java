@@ -0,0 +1,224 @@
+package com.meerkats.wenzhen.inference;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.InferenceCacheProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InferenceCacheTests {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    private InferenceCache newCache(int maxEntries, Duration ttl) {
+        InferenceCacheProperties properties = new InferenceCacheProperties();
+        properties.setMaxEntries(maxEntries);
+        properties.setTtl(ttl);
+        return new InferenceCache(properties, objectMapper);
+    }
+
+    private static OllamaApi.ChatResponse response(String content) {
+        return new OllamaApi.ChatResponse(null, null,
+                OllamaApi.Message.builder(OllamaApi.Message.Role.ASSISTANT).content(content).build(),
+                null, true, null, null, null, null, null, null);
+    }
+
+    /**
+     * 返回 content 并记录调用次数的 loader
+     */
+    private static Supplier<OllamaApi.ChatResponse> loader(AtomicInteger calls, String content) {
+        return () -> {
+            calls.incrementAndGet();
+            return response(content);
+        };
+    }
+
+    @Test
+    void reloadsAfterTtlExpires() throws Exception {
+        InferenceCache cache = newCache(16, Duration.ofMillis(50));
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("a", cache.get("k", loader(calls, "a")).message().content());
+        assertEquals("a", cache.get("k", loader(calls, "b")).message().content());
+        assertEquals(1, calls.get());
+
+        Thread.sleep(100);
+        assertEquals("b", cache.get("k", loader(calls, "b")).message().content());
+        assertEquals(2, calls.get());
+        assertEquals(new InferenceCache.Stats(1, 0, 0, 2, 1), cache.stats());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAtCapacity() {
+        InferenceCache cache = newCache(2, Duration.ofHours(1));
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("a", loader(calls, "a"));
+        cache.get("b", loader(calls, "b"));
+        // 访问 a 后 b 成为最久未使用的
+        cache.get("a", loader(calls, "a"));
+        cache.get("c", loader(calls, "c"));
+        assertEquals(3, calls.get());
+        assertEquals(2, cache.size());
+
+        cache.get("a", loader(calls, "a"));
+        cache.get("c", loader(calls, "c"));
+        assertEquals(3, calls.get());
+        cache.get("b", loader(calls, "b"));
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void concurrentLoadsOfSameKeyCallLoaderOnce() throws Exception {
+        InferenceCache cache = newCache(16, Duration.ofHours(1));
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<OllamaApi.ChatResponse> slow = () -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return response("a");
+        };
+
+        int threads = 8;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<OllamaApi.ChatResponse>> results = IntStream.range(0, threads)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> cache.get("k", slow), executor))
+                    .toList();
+            // 除第一个外都在等待同一次调用
+            while (cache.stats().sharedLoads() < threads - 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (CompletableFuture<OllamaApi.ChatResponse> result : results) {
+                assertEquals("a", result.join().message().content());
+            }
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    void doesNotCacheFailures() {
+        InferenceCache cache = newCache(16, Duration.ofHours(1));
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> cache.get("k", () -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("模型不可用");
+        }));
+        // 没有内容的响应同样不缓存
+        cache.get("k", () -> {
+            calls.incrementAndGet();
+            return new OllamaApi.ChatResponse(null, null, null, null, true, null, null, null, null, null, null);
+        });
+        assertEquals(0, cache.size());
+
+        assertEquals("a", cache.get("k", loader(calls, "a")).message().content());
+        assertEquals("a", cache.get("k", loader(calls, "b")).message().content());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void interruptedWaiterStopsWaiting() throws Exception {
+        InferenceCache cache = newCache(16, Duration.ofHours(1));
+        CountDownLatch release = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<OllamaApi.ChatResponse> leader = executor.submit(() -> cache.get("k", () -> {
+                awaitUninterruptibly(release);
+                return response("a");
+            }));
+            CompletableFuture<Boolean> waiterInterrupted = new CompletableFuture<>();
+            Future<?> waiter = executor.submit(() -> {
+                try {
+                    cache.get("k", () -> response("b"));
+                } catch (InferenceBusyException e) {
+                    waiterInterrupted.complete(Thread.currentThread().isInterrupted());
+                }
+            });
+            try {
+                while (cache.stats().sharedLoads() < 1) {
+                    Thread.sleep(5);
+                }
+                // 与 ReportGenerator 取消超时维度的方式相同
+                waiter.cancel(true);
+                assertTrue(waiterInterrupted.get(5, TimeUnit.SECONDS));
+                assertFalse(leader.isDone());
+            } finally {
+                release.countDown();
+            }
+            assertEquals("a", leader.get().message().content());
+        }
+    }
+
+    @Test
+    void waiterRetriesWhenLeaderIsCancelled() throws Exception {
+        InferenceCache cache = newCache(16, Duration.ofHours(1));
+        AtomicInteger calls = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<OllamaApi.ChatResponse> leader = executor.submit(() -> cache.get("k", () -> {
+                calls.incrementAndGet();
+                try {
+                    Thread.sleep(5_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                return response("a");
+            }));
+            Future<OllamaApi.ChatResponse> waiter = executor.submit(() -> cache.get("k", loader(calls, "b")));
+            while (cache.stats().sharedLoads() < 1) {
+                Thread.sleep(5);
+            }
+            leader.cancel(true);
+
+            // 发起调用的请求超时被取消，不代表模型失败，等待者自己重新调用
+            assertEquals("b", waiter.get(5, TimeUnit.SECONDS).message().content());
+            assertEquals(2, calls.get());
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // 继续等待
+            }
+        }
+    }
+
+    @Test
+    void readsDiskTierAfterRestart() {
+        InferenceCacheProperties properties = new InferenceCacheProperties();
+        properties.setDiskDir(tempDir.toString());
+        AtomicInteger calls = new AtomicInteger();
+        new InferenceCache(properties, objectMapper).get("ab12", loader(calls, "a"));
+
+        InferenceCache restarted = new InferenceCache(properties, objectMapper);
+        assertEquals("a", restarted.get("ab12", loader(calls, "b")).message().content());
+        assertEquals(1, calls.get());
+        assertEquals(1, restarted.stats().diskHits());
+    }
+}
@@ -0,0 +1,63 @@
+package com.meerkats.wenzhen.inference;
+
+import com.meerkats.wenzhen.config.InferenceSchedulerProperties;
+import com.meerkats.wenzhen.config.OllamaRoutingProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InferenceSchedulerTests {
+
+    private InferenceScheduler newScheduler(int maxConcurrent, Duration queueTimeout) {
+        InferenceSchedulerProperties properties = new InferenceSchedulerProperties();
+        properties.setDefaultMaxConcurrent(maxConcurrent);
+        properties.setQueueTimeout(queueTimeout);
+        return new InferenceScheduler(properties, new OllamaRoutingProperties());
+    }
+
+    @Test
+    void interactiveRequestsJumpAheadOfBatch() throws Exception {
+        InferenceScheduler scheduler = newScheduler(1, Duration.ofSeconds(5));
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch queued = new CountDownLatch(2);
+
+        InferenceScheduler.Permit first = scheduler.acquire("m", InferenceScheduler.Priority.BATCH, null);
+        Thread batch = Thread.ofVirtual().start(() -> {
+            try (var ignored = scheduler.acquire("m", InferenceScheduler.Priority.BATCH, p -> queued.countDown())) {
+                order.add("batch");
+            }
+        });
+        while (scheduler.queueDepth("m") < 1) {
+            Thread.onSpinWait();
+        }
+        Thread interactive = Thread.ofVirtual().start(() -> {
+            try (var ignored = scheduler.acquire("m", InferenceScheduler.Priority.INTERACTIVE, p -> queued.countDown())) {
+                order.add("interactive");
+            }
+        });
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+
+        first.close();
+        batch.join();
+        interactive.join();
+        assertEquals(List.of("interactive", "batch"), order);
+        assertEquals(0, scheduler.inFlight("m"));
+    }
+
+    @Test
+    void queueTimeoutReleasesTicket() {
+        InferenceScheduler scheduler = newScheduler(1, Duration.ofMillis(50));
+        try (var ignored = scheduler.acquire("m", InferenceScheduler.Priority.INTERACTIVE, null)) {
+            assertThrows(InferenceBusyException.class,
+                    () -> scheduler.acquire("m", InferenceScheduler.Priority.INTERACTIVE, null));
+            assertEquals(0, scheduler.queueDepth("m"));
+        }
+        assertEquals(0, scheduler.inFlight("m"));
+    }
+}
@@ -0,0 +1,103 @@
+package com.meerkats.wenzhen.inference;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaBackendTests {
+
+    @Test
+    void opensAfterConsecutiveFaultsAndClosesOnSuccess() throws Exception {
+        OllamaBackend backend = new OllamaBackend("b", null, List.of(), 2, Duration.ofMillis(100));
+
+        backend.failed(new ResourceAccessException("refused"));
+        assertTrue(backend.available());
+        // 请求本身的问题不计入熔断
+        backend.failed(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "not found", null, null, null));
+        assertTrue(backend.available());
+        backend.failed(new ResourceAccessException("refused"));
+        assertFalse(backend.available());
+
+        Thread.sleep(150);
+        // 熔断到期后放行试探请求，成功即恢复
+        assertTrue(backend.available());
+        backend.succeeded();
+        assertFalse(backend.isOpen());
+        assertEquals(0, backend.consecutiveFailures());
+    }
+
+    @Test
+    void letsOnlyOneProbeThroughWhenOpenDurationElapses() throws Exception {
+        OllamaBackend backend = new OllamaBackend("b", null, List.of(), 1, Duration.ofMillis(50));
+        backend.failed(new ResourceAccessException("refused"));
+        assertFalse(backend.tryAcquire());
+        Thread.sleep(100);
+        assertTrue(backend.available());
+
+        assertTrue(backend.tryAcquire());
+        // 试探请求结束前其他请求不能选中该节点
+        assertFalse(backend.available());
+        assertFalse(backend.tryAcquire());
+
+        assertEquals("ok", backend.call(api -> "ok"));
+        assertFalse(backend.isOpen());
+        assertTrue(backend.available());
+        assertTrue(backend.tryAcquire());
+    }
+
+    @Test
+    void reopensWhenProbeFails() throws Exception {
+        OllamaBackend backend = new OllamaBackend("b", null, List.of(), 1, Duration.ofMillis(50));
+        backend.failed(new ResourceAccessException("refused"));
+        Thread.sleep(100);
+
+        assertTrue(backend.tryAcquire());
+        assertThrows(ResourceAccessException.class, () -> backend.call(api -> {
+            throw new ResourceAccessException("refused");
+        }));
+        assertTrue(backend.isOpen());
+        assertFalse(backend.available());
+        Thread.sleep(100);
+        assertTrue(backend.tryAcquire());
+    }
+
+    @Test
+    void servesOnlyConfiguredAndDiscoveredModels() {
+        OllamaBackend backend = new OllamaBackend("b", null, List.of("gemma3:4b", "qwen3:8b"), 3, Duration.ofSeconds(1));
+        assertTrue(backend.serves("qwen3:8b"));
+        assertFalse(backend.serves("llama3:8b"));
+
+        backend.refreshed(Set.of("gemma3:4b"));
+        assertTrue(backend.serves("gemma3:4b"));
+        assertFalse(backend.serves("qwen3:8b"));
+    }
+
+    @Test
+    void residencyExpiresAfterKeepAliveAndResetsWhenOpened() throws Exception {
+        OllamaBackend backend = new OllamaBackend("b", null, List.of(), 1, Duration.ofSeconds(1));
+        OllamaBackend.Residency residency = backend.residency("gemma3:4b");
+        assertFalse(residency.loaded());
+        assertNull(residency.sinceLastRequest());
+
+        residency.requested();
+        residency.served(Duration.ofMillis(100));
+        assertTrue(residency.loaded());
+        assertNotNull(residency.sinceLastRequest());
+        Thread.sleep(150);
+        assertFalse(residency.loaded());
+        assertEquals(Duration.ZERO, residency.remaining());
+
+        residency.served(Duration.ofSeconds(-1));
+        assertTrue(residency.loaded());
+        // 熔断说明节点可能已重启，模型按未加载处理
+        backend.failed(new ResourceAccessException("refused"));
+        assertFalse(residency.loaded());
+    }
+}
@@ -0,0 +1,144 @@
+package com.meerkats.wenzhen.inference;
+
+import com.meerkats.wenzhen.Models;
+import com.meerkats.wenzhen.config.ModelWarmupProperties;
+import com.meerkats.wenzhen.config.OllamaRoutingProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OllamaRouterTests {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    /**
+     * 本地的假 Ollama 节点，/api/chat 在 handler 执行完后返回固定回答
+     */
+    private String fakeOllama(String name, AtomicInteger requests, Runnable handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/api/chat", exchange -> {
+            requests.incrementAndGet();
+            handler.run();
+            respond(exchange, """
+                    {"model":"%s","created_at":"2026-01-01T00:00:00Z",
+                     "message":{"role":"assistant","content":"%s"},"done":true}
+                    """.formatted(Models.GEMMA3_4B, name));
+        });
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static OllamaRoutingProperties.Backend backend(String name, String baseUrl) {
+        OllamaRoutingProperties.Backend backend = new OllamaRoutingProperties.Backend();
+        backend.setName(name);
+        backend.setBaseUrl(baseUrl);
+        return backend;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void requestsThatMissTheProbeGoToHealthyBackend() throws Exception {
+        AtomicInteger recoveringRequests = new AtomicInteger();
+        AtomicInteger healthyRequests = new AtomicInteger();
+        CountDownLatch releaseProbe = new CountDownLatch(1);
+        OllamaRoutingProperties properties = new OllamaRoutingProperties();
+        properties.setFailureThreshold(1);
+        properties.setOpenDuration(Duration.ofMillis(50));
+        properties.setBackends(List.of(
+                backend("recovering", fakeOllama("recovering", recoveringRequests, () -> {
+                    try {
+                        releaseProbe.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                })),
+                backend("healthy", fakeOllama("healthy", healthyRequests, () -> sleepQuietly(100)))));
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        OllamaRouter router = new OllamaRouter(null, properties, new ModelWarmupProperties(), null,
+                beanFactory.getBeanProvider(RestClient.Builder.class), beanFactory.getBeanProvider(WebClient.Builder.class));
+
+        OllamaBackend recovering = router.backends().getFirst();
+        recovering.failed(new ResourceAccessException("refused"));
+        Thread.sleep(100);
+
+        OllamaApi.ChatRequest request = OllamaApi.ChatRequest.builder(Models.GEMMA3_4B)
+                .messages(List.of(OllamaApi.Message.builder(OllamaApi.Message.Role.USER).content("你好").build()))
+                .build();
+        int requests = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(requests)) {
+            // 所有请求同时选择节点，都会看到刚结束熔断、没有进行中请求的节点
+            List<CompletableFuture<OllamaApi.ChatResponse>> results = IntStream.range(0, requests)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return router.chat(request);
+                    }, executor))
+                    .toList();
+            start.countDown();
+            // 试探请求挂起期间，其余请求都由健康节点处理，不会因为没拿到试探名额而失败
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (healthyRequests.get() < requests - 1 && System.nanoTime() < deadline
+                    && results.stream().noneMatch(CompletableFuture::isCompletedExceptionally)) {
+                Thread.sleep(5);
+            }
+            releaseProbe.countDown();
+            long fromRecovering = results.stream()
+                    .map(CompletableFuture::join)
+                    .filter(response -> response.message().content().equals("recovering"))
+                    .count();
+            assertEquals(1, fromRecovering);
+        }
+        assertEquals(1, recoveringRequests.get());
+        assertEquals(requests - 1, healthyRequests.get());
+        assertFalse(recovering.isOpen());
+    }
+}
@@ -0,0 +1,47 @@
+package com.meerkats.wenzhen.inference;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StructuredOutputParserTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void completesAsSoonAsRequiredFieldsArriveInArbitraryChunks() {
+        StructuredOutputParser parser = new StructuredOutputParser(objectMapper, List.of("level", "score"));
+
+        assertFalse(parser.feed(" {\"lev"));
+        assertFalse(parser.feed("el\": \"中度"));
+        assertFalse(parser.feed("可能\", \"score\": 1"));
+        assertEquals(List.of("score"), parser.missing());
+        // 数字要等到后面的分隔符才能确定已读完
+        assertTrue(parser.feed(","));
+        assertEquals("中度可能", parser.fields().path("level").asText());
+        assertEquals(1, parser.fields().path("score").asInt());
+        assertTrue(parser.feed(" \"summary\": \"后面的内容不再解析"));
+        assertFalse(parser.fields().has("summary"));
+    }
+
+    @Test
+    void readsNestedValuesWhenTheyClose() {
+        StructuredOutputParser parser = new StructuredOutputParser(objectMapper, List.of("signs", "ok"));
+
+        assertFalse(parser.feed("{\"signs\": [\"面色晦暗\", {\"x\": [1"));
+        assertFalse(parser.fields().has("signs"));
+        assertFalse(parser.feed("]}], \"ok\": tr"));
+        assertEquals(2, parser.fields().path("signs").size());
+        assertTrue(parser.feed("ue}"));
+        assertTrue(parser.fields().path("ok").asBoolean());
+    }
+
+    @Test
+    void rejectsNonObjectOutput() {
+        StructuredOutputParser parser = new StructuredOutputParser(objectMapper, List.of("score"));
+        assertThrows(IllegalStateException.class, () -> parser.feed("面部：1"));
+    }
+}
@@ -0,0 +1,161 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.config.AudioProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioAnalyzerTests {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    private final AudioAnalyzer analyzer = new AudioAnalyzer(new AudioProperties(), new SimpleMeterRegistry());
+
+    private static MediaBlob blob(byte[] data, String contentType) {
+        return new MediaBlob() {
+            public String contentType() {
+                return contentType;
+            }
+
+            public long size() {
+                return data.length;
+            }
+
+            public ByteBuffer buffer() {
+                return ByteBuffer.wrap(data).asReadOnlyBuffer();
+            }
+
+            public InputStream openStream() {
+                return new ByteArrayInputStream(data);
+            }
+
+            public boolean spilled() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 每秒 5 个 180 Hz 的“音节”（0.12 秒发声 + 0.08 秒间隙），两段之间停顿 2.5 秒，底噪约 -60 dBFS
+     */
+    private static byte[] speechWav() throws Exception {
+        Random random = new Random(1);
+        double[] pattern = {0.3, 2.0, 2.5, 2.0, 0.3};
+        int total = 0;
+        for (double seconds : pattern) {
+            total += (int) (seconds * SAMPLE_RATE);
+        }
+        ByteBuffer pcm = ByteBuffer.allocate(total * 2).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        for (int segment = 0; segment < pattern.length; segment++) {
+            int samples = (int) (pattern[segment] * SAMPLE_RATE);
+            for (int i = 0; i < samples; i++) {
+                double t = (double) i / SAMPLE_RATE;
+                double sample = (random.nextDouble() - 0.5) * 0.002;
+                boolean voiced = segment % 2 == 1 && t % 0.2 < 0.12;
+                if (voiced) {
+                    double phase = 2 * Math.PI * 180 * (offset + i) / SAMPLE_RATE;
+                    sample += 0.3 * Math.sin(phase) + 0.15 * Math.sin(2 * phase) + 0.08 * Math.sin(3 * phase);
+                }
+                pcm.putShort((short) Math.round(sample * 32767));
+            }
+            offset += samples;
+        }
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        ByteArrayOutputStream wav = new ByteArrayOutputStream();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm.array()), format, total),
+                AudioFileFormat.Type.WAVE, wav);
+        return wav.toByteArray();
+    }
+
+    @Test
+    void measuresRatePausesAndPitchFromWav() throws Exception {
+        AudioFeatures features = analyzer.analyze(blob(speechWav(), "audio/wav"));
+
+        assertNotNull(features);
+        assertEquals(AudioFeatures.Source.PCM, features.source());
+        assertEquals(7.1, features.durationSeconds(), 0.05);
+        assertEquals(1, features.pauses());
+        assertEquals(1, features.longPauses());
+        assertEquals(2.5, features.longestPauseSeconds(), 0.15);
+        assertEquals(5.2, features.syllableRate(), 0.8);
+        assertEquals(180, features.pitchMedianHz(), 5);
+        assertTrue(features.pitchVariationSemitones() < 1, features.toString());
+        assertTrue(features.describe().contains("超过 2 秒的 1 次"), features.describe());
+    }
+
+    /**
+     * MPEG-1 Layer III、128 kbps、44.1 kHz 单声道的帧，只填写帧头和每个 granule 的 part2_3_length、global_gain
+     */
+    private static byte[] mp3Frame(int part23Length, int globalGain) {
+        byte[] frame = new byte[417];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        frame[3] = (byte) 0xC0;
+        // main_data_begin(9) + private_bits(5) + scfsi(4)
+        int bit = 4 * 8 + 18;
+        for (int granule = 0; granule < 2; granule++) {
+            bit = write(frame, bit, 12, part23Length);
+            bit = write(frame, bit, 9, 0);
+            bit = write(frame, bit, 8, globalGain);
+            bit += 30;
+        }
+        return frame;
+    }
+
+    private static int write(byte[] data, int bit, int count, int value) {
+        for (int i = count - 1; i >= 0; i--, bit++) {
+            if (((value >> i) & 1) == 1) {
+                data[bit >> 3] |= (byte) (0x80 >> (bit & 7));
+            }
+        }
+        return bit;
+    }
+
+    @Test
+    void readsLoudnessFromMp3SideInformation() throws Exception {
+        ByteArrayOutputStream mp3 = new ByteArrayOutputStream();
+        // ID3v2 标签，内容里有像帧头的字节
+        mp3.write(new byte[]{'I', 'D', '3', 4, 0, 0, 0, 0, 0, 8});
+        mp3.write(new byte[]{(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0, 0, 0, 0, 0});
+        for (int i = 0; i < 40; i++) {
+            // 音节之间响度交替起伏
+            mp3.write(mp3Frame(500, i % 4 < 2 ? 200 : 190));
+        }
+        for (int i = 0; i < 100; i++) {
+            mp3.write(mp3Frame(0, 0));
+        }
+        for (int i = 0; i < 40; i++) {
+            mp3.write(mp3Frame(500, i % 4 < 2 ? 200 : 190));
+        }
+
+        AudioFeatures features = analyzer.analyze(blob(mp3.toByteArray(), "audio/mpeg"));
+
+        assertNotNull(features);
+        assertEquals(AudioFeatures.Source.MP3, features.source());
+        assertEquals(180 * 1152 / 44100.0, features.durationSeconds(), 0.01);
+        assertEquals(1, features.longPauses());
+        assertEquals(100 * 1152 / 44100.0, features.longestPauseSeconds(), 0.1);
+        assertTrue(features.syllableRate() > 0);
+        assertNull(features.pitchMedianHz());
+        assertTrue(features.describe().contains("无法测量"));
+    }
+
+    @Test
+    void returnsNullForUnrecognizedAudio() throws Exception {
+        assertNull(analyzer.analyze(blob(new byte[]{0, 0, 0, 0x18, 'f', 't', 'y', 'p'}, "audio/aac")));
+    }
+}
@@ -0,0 +1,81 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.Models;
+import com.meerkats.wenzhen.config.ImageProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageNormalizerTests {
+
+    private final ImageNormalizer normalizer = new ImageNormalizer(new ImageProperties());
+
+    private static byte[] jpeg(int width, int height) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpeg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 在 SOI 之后插入只含 Orientation 标签的大端 EXIF 段
+     */
+    private static byte[] withOrientation(byte[] jpeg, int orientation) {
+        ByteBuffer exif = ByteBuffer.allocate(2 + 2 + 6 + 8 + 2 + 12 + 4);
+        exif.putShort((short) 0xFFE1).putShort((short) (exif.capacity() - 2));
+        exif.put("Exif\0\0".getBytes()).put(new byte[]{'M', 'M', 0, 42}).putInt(8);
+        exif.putShort((short) 1);
+        exif.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        exif.putInt(0);
+        byte[] result = new byte[jpeg.length + exif.capacity()];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(exif.array(), 0, result, 2, exif.capacity());
+        System.arraycopy(jpeg, 2, result, 2 + exif.capacity(), jpeg.length - 2);
+        return result;
+    }
+
+    @Test
+    void downscalesToModelInputSize() throws Exception {
+        NormalizedImage image = normalizer.normalize(new ByteArrayResource(jpeg(4000, 3000)), "image/jpeg", Models.GEMMA3_4B);
+
+        assertNotNull(image);
+        assertEquals(Models.GEMMA3_4B_IMAGE_SIZE, image.width());
+        assertEquals(672, image.height());
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image.data()));
+        assertEquals(image.width(), decoded.getWidth());
+    }
+
+    @Test
+    void rotatesAccordingToExifOrientation() throws Exception {
+        byte[] rotated = withOrientation(jpeg(400, 200), 6);
+        assertEquals(6, ImageNormalizer.readOrientation(new ByteArrayInputStream(rotated)));
+
+        NormalizedImage image = normalizer.normalize(new ByteArrayResource(rotated), "image/jpeg", Models.GEMMA3_4B);
+
+        assertNotNull(image);
+        assertEquals(200, image.width());
+        assertEquals(400, image.height());
+    }
+
+    @Test
+    void keepsSmallUprightImagesAsIs() throws Exception {
+        assertNull(normalizer.normalize(new ByteArrayResource(jpeg(300, 200)), "image/jpeg", Models.GEMMA3_4B));
+    }
+
+    @Test
+    void fallsBackToOriginalWhenImageIsCorrupt() throws Exception {
+        byte[] corrupt = jpeg(400, 200);
+        Arrays.fill(corrupt, 20, corrupt.length, (byte) 0x5A);
+
+        assertThrows(IOException.class, () -> normalizer.normalize(new ByteArrayResource(corrupt), "image/jpeg", Models.GEMMA3_4B));
+        assertNull(normalizer.normalizeAsync(new ByteArrayResource(corrupt), "image/jpeg", Models.GEMMA3_4B).join());
+    }
+}
@@ -0,0 +1,124 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.config.MediaStoreProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapMediaStoreTests {
+
+    @TempDir
+    Path tempDir;
+
+    private OffHeapMediaStore newStore(long memoryBytes, long diskBytes) throws Exception {
+        MediaStoreProperties properties = new MediaStoreProperties();
+        properties.setMemoryBudget(DataSize.ofBytes(memoryBytes));
+        properties.setDiskBudget(DataSize.ofBytes(diskBytes));
+        properties.setSpillDir(tempDir.resolve("spill").toString());
+        return new OffHeapMediaStore(properties);
+    }
+
+    private void put(MediaStore store, String sessionId, int size) throws Exception {
+        store.put(sessionId, "faceImg", "image/png", size, new ByteArrayInputStream(new byte[size]));
+    }
+
+    @Test
+    void spillsLeastRecentlyUsedSessionWhenMemoryBudgetExceeded() throws Exception {
+        OffHeapMediaStore store = newStore(100, 1000);
+        put(store, "a", 60);
+        Thread.sleep(5);
+        put(store, "b", 60);
+
+        assertTrue(store.get("a", "faceImg").spilled());
+        assertFalse(store.get("b", "faceImg").spilled());
+        assertEquals(new MediaStore.Stats(2, 60, 60), store.stats());
+        assertEquals(60, store.get("a", "faceImg").buffer().remaining());
+    }
+
+    @Test
+    void evictsOldestSessionWhenDiskBudgetExceeded() throws Exception {
+        OffHeapMediaStore store = newStore(0, 100);
+        put(store, "a", 60);
+        Thread.sleep(5);
+        put(store, "b", 60);
+
+        assertFalse(store.contains("a"));
+        assertTrue(store.contains("b"));
+        store.remove("b");
+        assertEquals(new MediaStore.Stats(0, 0, 0), store.stats());
+    }
+
+    @Test
+    void rejectsContentThatDoesNotMatchDeclaredSize() throws Exception {
+        OffHeapMediaStore store = newStore(100, 1000);
+        assertThrows(IOException.class,
+                () -> store.put("a", "faceImg", "image/png", 60, new ByteArrayInputStream(new byte[40])));
+        assertThrows(IOException.class,
+                () -> store.put("a", "faceImg", "image/png", 60, new ByteArrayInputStream(new byte[80])));
+
+        assertNull(store.get("a", "faceImg"));
+        assertEquals(0, store.stats().memoryBytes());
+    }
+
+    @Test
+    void closesOnlyItsOwnSpillDirectory() throws Exception {
+        OffHeapMediaStore first = newStore(0, 1000);
+        OffHeapMediaStore second = newStore(0, 1000);
+        put(first, "a", 60);
+        put(second, "b", 60);
+
+        first.close();
+        assertEquals(60, second.get("b", "faceImg").buffer().remaining());
+        assertTrue(Files.exists(tempDir.resolve("spill")));
+        second.close();
+    }
+
+    @Test
+    void keepsAccountingConsistentWhenRemoveRacesSpill() throws Exception {
+        OffHeapMediaStore store = newStore(100, 100_000);
+        for (int i = 0; i < 200; i++) {
+            put(store, "a" + i, 60);
+            CountDownLatch start = new CountDownLatch(1);
+            String victim = "a" + i;
+            String next = "b" + i;
+            CompletableFuture<Void> remover = CompletableFuture.runAsync(() -> {
+                awaitQuietly(start);
+                store.remove(victim);
+            });
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                awaitQuietly(start);
+                try {
+                    // 内存预算只够一个文件，写入时转存 victim
+                    put(store, next, 60);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            start.countDown();
+            CompletableFuture.allOf(remover, writer).join();
+            store.remove(next);
+            assertEquals(new MediaStore.Stats(0, 0, 0), store.stats());
+        }
+        try (Stream<Path> files = Files.walk(tempDir.resolve("spill"))) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
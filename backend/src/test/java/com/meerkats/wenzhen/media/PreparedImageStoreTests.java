@@ -0,0 +1,54 @@
+package com.meerkats.wenzhen.media;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.ImageProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreparedImageStoreTests {
+
+    @TempDir
+    Path dir;
+
+    private PreparedImageStore newStore(ImageProperties properties) {
+        return new PreparedImageStore(properties, new ObjectMapper().findAndRegisterModules(),
+                new ImageNormalizer(properties), new SimpleMeterRegistry());
+    }
+
+    private static int width(String encoded) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(encoded))).getWidth();
+    }
+
+    @Test
+    void keepsSeparateEncodingsPerTargetSize() throws Exception {
+        ImageProperties properties = new ImageProperties();
+        properties.setTargetSize(Map.of("small", 448, "large", 896, "medium", 672));
+        Path image = dir.resolve("face.jpg");
+        ImageIO.write(new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB), "jpeg", image.toFile());
+        PreparedImageStore store = newStore(properties);
+
+        assertEquals(448, store.prepare(image, "image/jpeg", "small").width());
+        // 已有 448 的编码，发给 896 的模型时仍按 896 现场编码
+        assertEquals(896, width(store.encoded(image, "large")));
+        assertEquals(448, width(store.encoded(image, "small")));
+        assertEquals(896, store.metadata(image, "large").width());
+
+        // 内存缓存清掉后从各自的旁路文件读取
+        store.forget(image);
+        assertEquals(448, width(store.encoded(image, "small")));
+        assertEquals(896, width(store.encoded(image, "large")));
+        assertEquals(448, newStore(properties).metadata(image, "small").width());
+        // 还没按该尺寸预处理过，返回原图的尺寸
+        assertEquals(2000, newStore(properties).metadata(image, "medium").width());
+    }
+}
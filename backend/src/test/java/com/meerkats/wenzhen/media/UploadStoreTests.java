@@ -0,0 +1,134 @@
+package com.meerkats.wenzhen.media;
+
+import com.meerkats.wenzhen.config.ImageProperties;
+import com.meerkats.wenzhen.config.UploadStoreProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadStoreTests {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3, 4, 5, 6, 7, 8};
+
+    @TempDir
+    Path dir;
+
+    private UploadStore newStore(UploadStoreProperties properties) throws Exception {
+        properties.setDir(dir.toString());
+        return new UploadStore(properties, new PreparedImageStore(new ImageProperties(),
+                null, null, new SimpleMeterRegistry()), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void identicalContentIsStoredOnceInShardedDirectory() throws Exception {
+        UploadStore store = newStore(new UploadStoreProperties());
+
+        UploadStore.StoredFile first = store.store(new ByteArrayInputStream(PNG), "image/jpeg");
+        UploadStore.StoredFile second = store.store(new ByteArrayInputStream(PNG), null);
+
+        // 类型按文件头识别，不信任声明的类型
+        assertEquals("image/png", first.contentType());
+        assertTrue(first.id().endsWith(".png"));
+        assertFalse(first.deduplicated());
+        assertTrue(second.deduplicated());
+        assertEquals(first.path(), second.path());
+        assertEquals(dir.resolve(first.id().substring(0, 2)).resolve(first.id().substring(2, 4)),
+                first.path().getParent());
+        assertEquals(first.path(), store.resolve(first.url()));
+    }
+
+    @Test
+    void rejectsReferencesOutsideTheStore() throws Exception {
+        UploadStore store = newStore(new UploadStoreProperties());
+        Files.writeString(dir.resolve("secret.txt"), "x");
+
+        assertNull(store.resolve("../secret.txt"));
+        assertNull(store.resolve("/etc/passwd"));
+        assertNull(store.find("0".repeat(64) + ".png"));
+    }
+
+    @Test
+    void expiredFilesAreDeletedWithSidecars() throws Exception {
+        UploadStoreProperties properties = new UploadStoreProperties();
+        properties.setTtl(Duration.ofHours(1));
+        UploadStore store = newStore(properties);
+        UploadStore.StoredFile stored = store.store(new ByteArrayInputStream(PNG), null);
+        Path sidecar = stored.path().resolveSibling(stored.id() + ".896.b64");
+        Files.writeString(sidecar, "AAAA");
+
+        store.evictExpired();
+        assertTrue(Files.exists(stored.path()));
+
+        Files.setLastModifiedTime(stored.path(), FileTime.fromMillis(System.currentTimeMillis() - 2 * 3600_000L));
+        store.evictExpired();
+        assertFalse(Files.exists(stored.path()));
+        assertFalse(Files.exists(sidecar));
+    }
+
+    @Test
+    void reuploadRacingEvictionKeepsTheReturnedFile() throws Exception {
+        UploadStoreProperties properties = new UploadStoreProperties();
+        properties.setTtl(Duration.ofHours(1));
+        UploadStore store = newStore(properties);
+        Path path = store.store(new ByteArrayInputStream(PNG), null).path();
+
+        for (int i = 0; i < 200; i++) {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - 2 * 3600_000L));
+            CompletableFuture<Void> eviction = CompletableFuture.runAsync(store::evictExpired);
+            UploadStore.StoredFile stored = store.store(new ByteArrayInputStream(PNG), null);
+            eviction.join();
+            // 复用的文件在上传时刷新了保留时间，清理要么在此之前删掉了它（重新保存），要么看到新的时间
+            assertTrue(Files.exists(stored.path()));
+            assertEquals(stored.path(), store.resolve(stored.url()));
+        }
+    }
+
+    @Test
+    void servesRangesAndConditionalRequests() throws Exception {
+        UploadStore store = newStore(new UploadStoreProperties());
+        UploadStore.StoredFile stored = store.store(new ByteArrayInputStream(PNG), null);
+        FileSender sender = new FileSender(new UploadStoreProperties());
+        String etag = stored.id().substring(0, 64);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", stored.url());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        sender.send(stored.path(), stored.contentType(), etag, request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("image/png", response.getContentType());
+        assertArrayEquals(PNG, response.getContentAsByteArray());
+        assertTrue(response.getHeader("Cache-Control").contains("immutable"));
+
+        request = new MockHttpServletRequest("GET", stored.url());
+        request.addHeader("If-None-Match", response.getHeader("ETag"));
+        response = new MockHttpServletResponse();
+        sender.send(stored.path(), stored.contentType(), etag, request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        request = new MockHttpServletRequest("GET", stored.url());
+        request.addHeader("Range", "bytes=8-11");
+        response = new MockHttpServletResponse();
+        sender.send(stored.path(), stored.contentType(), etag, request, response);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 8-11/16", response.getHeader("Content-Range"));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, response.getContentAsByteArray());
+
+        request = new MockHttpServletRequest("GET", stored.url());
+        request.addHeader("Range", "bytes=100-");
+        response = new MockHttpServletResponse();
+        sender.send(stored.path(), stored.contentType(), etag, request, response);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */16", response.getHeader("Content-Range"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchArchiveTests {
+
+    @TempDir
+    Path tempDir;
+
+    private ZipFile zip(Map<String, String> entries) throws Exception {
+        Path path = tempDir.resolve("batch.zip");
+        try (OutputStream out = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return new ZipFile(path.toFile());
+    }
+
+    @Test
+    void groupsFilesByStudentDirectory() throws Exception {
+        try (ZipFile zip = zip(Map.of(
+                "class1/s02/face.jpg", "",
+                "class1/s02/tongue.png", "",
+                "class1/s02/voice.mp3", "",
+                "class1/s01/Face_01.jpeg", "",
+                "class1/s01/notes.txt", "",
+                "__MACOSX/class1/s01/._face.jpg", ""))) {
+            List<BatchArchive.Student> students = BatchArchive.students(zip);
+
+            assertEquals(List.of("s01", "s02"), students.stream().map(BatchArchive.Student::id).toList());
+            assertEquals(List.of(Modality.TONGUE, Modality.VOICE), students.get(0).missing());
+            assertTrue(students.get(1).missing().isEmpty());
+            assertEquals("audio/mpeg", BatchArchive.contentType(students.get(1).files().get(Modality.VOICE).getName()));
+        }
+    }
+
+    @Test
+    void followsManifestOrderAndFlagsBadRows() throws Exception {
+        try (ZipFile zip = zip(Map.of(
+                "manifest.csv", "student,face,tongue,audio\nb,img/b1.jpg,img/b2.jpg,a/b.mp3\na,img/a1.jpg\n\nc,,,\n",
+                "img/b1.jpg", "", "img/b2.jpg", "", "a/b.mp3", ""))) {
+            List<BatchArchive.Student> students = BatchArchive.students(zip);
+
+            assertEquals(List.of("b", "a", "c"), students.stream().map(BatchArchive.Student::id).toList());
+            assertEquals(3, students.get(0).files().size());
+            assertNotNull(students.get(1).error());
+            assertTrue(students.get(2).files().isEmpty());
+        }
+        try (ZipFile zip = zip(Map.of("manifest.csv", "student,face,tongue,audio\na,,,\na,,,\n"))) {
+            assertThrows(IllegalArgumentException.class, () -> BatchArchive.students(zip));
+        }
+    }
+
+    @Test
+    void checkpointKeepsLatestLinePerStudentAndDropsTornTail() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Path path = tempDir.resolve("results.ndjson");
+        try (BatchCheckpoint checkpoint = BatchCheckpoint.open(path, objectMapper)) {
+            checkpoint.append(objectMapper.createObjectNode().put("student", "a").put("status", "FAILED"));
+            checkpoint.append(objectMapper.createObjectNode().put("student", "b").put("status", "SUCCESS"));
+            checkpoint.append(objectMapper.createObjectNode().put("student", "a").put("status", "PARTIAL"));
+        }
+        // 模拟写到一半时进程退出
+        Files.writeString(path, "{\"student\":\"c\",\"sta", StandardOpenOption.APPEND);
+
+        Map<String, ObjectNode> latest = BatchCheckpoint.read(path, objectMapper);
+        assertEquals(List.of("a", "b"), List.copyOf(latest.keySet()));
+        assertEquals("PARTIAL", latest.get("a").path("status").asText());
+
+        try (BatchCheckpoint checkpoint = BatchCheckpoint.open(path, objectMapper)) {
+            checkpoint.append(objectMapper.createObjectNode().put("student", "c").put("status", "INVALID"));
+            assertEquals(3, checkpoint.latest().size());
+        }
+        assertEquals(4, Files.readAllLines(path).size());
+        assertEquals(3, BatchCheckpoint.read(path, objectMapper).size());
+    }
+}
@@ -0,0 +1,126 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.meerkats.wenzhen.config.AudioProperties;
+import com.meerkats.wenzhen.config.ReportProperties;
+import com.meerkats.wenzhen.inference.StructuredOutput;
+import com.meerkats.wenzhen.inference.Workload;
+import com.meerkats.wenzhen.media.AudioAnalyzer;
+import com.meerkats.wenzhen.media.MediaBlob;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.ollama.api.OllamaApi;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportGeneratorTests {
+
+    private final AudioAnalyzer audioAnalyzer = new AudioAnalyzer(new AudioProperties(), new SimpleMeterRegistry());
+
+    private static MediaBlob blob(String contentType) {
+        return new MediaBlob() {
+            public String contentType() {
+                return contentType;
+            }
+
+            public long size() {
+                return 0;
+            }
+
+            public ByteBuffer buffer() {
+                return ByteBuffer.allocate(0);
+            }
+
+            public InputStream openStream() {
+                return InputStream.nullInputStream();
+            }
+
+            public boolean spilled() {
+                return false;
+            }
+        };
+    }
+
+    private static OllamaApi.ChatResponse response(String content) {
+        return new OllamaApi.ChatResponse(null, null,
+                OllamaApi.Message.builder(OllamaApi.Message.Role.ASSISTANT).content(content).build(),
+                null, true, null, null, null, null, null, null);
+    }
+
+    @Test
+    void slowAndFailingModalitiesDoNotBlockTheOthers() {
+        DiagnosisInference inference = new DiagnosisInference(null, null, null, null, null, new SimpleMeterRegistry()) {
+            @Override
+            public OllamaApi.ChatResponse chat(Workload workload, String systemMessage, String userMessage, List<MediaBlob> images) {
+                if (systemMessage.equals(DiagnosisPrompts.FACE_SYSTEM)) {
+                    try {
+                        Thread.sleep(5_000);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                if (systemMessage.equals(DiagnosisPrompts.VOICE_SYSTEM)) {
+                    throw new IllegalStateException("模型不可用");
+                }
+                return response("<think>...</think>舌苔：1");
+            }
+        };
+        ReportProperties properties = new ReportProperties();
+        properties.setStructuredOutput(false);
+        properties.setDefaultTimeout(Duration.ofMillis(300));
+
+        DiagnosisReport report = new ReportGenerator(inference, audioAnalyzer, properties).generate("s", Map.of(
+                "faceImg", blob("image/jpeg"), "tongue", blob("image/jpeg"), "audio", blob("audio/mpeg")));
+
+        assertTrue(report.durationMs() < 2_000);
+        assertEquals(List.of(ModalityResult.Status.TIMEOUT, ModalityResult.Status.SUCCESS, ModalityResult.Status.FAILED),
+                report.results().stream().map(ModalityResult::status).toList());
+        assertEquals("舌苔：1", report.results().get(1).content());
+        assertTrue(report.content().contains("面部或舌象存在郁证相关表现"));
+        assertTrue(report.content().contains("部分维度未能完成分析"));
+    }
+
+    @Test
+    void structuredOutputProducesTypedConclusions() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<StructuredOutput> outputs = new CopyOnWriteArrayList<>();
+        DiagnosisInference inference = new DiagnosisInference(null, null, null, null, objectMapper,
+                new SimpleMeterRegistry()) {
+            @Override
+            public ObjectNode structured(Workload workload, String systemMessage, String userMessage,
+                                         List<MediaBlob> images, StructuredOutput output) {
+                outputs.add(output);
+                ObjectNode result = objectMapper.createObjectNode();
+                if (systemMessage.equals(DiagnosisPrompts.FACE_SYSTEM)) {
+                    result.put("score", 0);
+                } else if (systemMessage.equals(DiagnosisPrompts.TONGUE_SYSTEM)) {
+                    result.put("score", 1);
+                } else {
+                    result.put("level", "无法判断").put("summary", "只有文件大小和格式。");
+                }
+                return result;
+            }
+        };
+        ReportProperties properties = new ReportProperties();
+        properties.setNumPredict(new EnumMap<>(Map.of(Modality.FACE, 16)));
+
+        DiagnosisReport report = new ReportGenerator(inference, audioAnalyzer, properties).generate("s", Map.of(
+                "faceImg", blob("image/jpeg"), "tongue", blob("image/jpeg"), "audio", blob("audio/mpeg")));
+
+        assertEquals(Arrays.asList(0, 1, null), report.results().stream().map(ModalityResult::score).toList());
+        assertTrue(report.results().get(1).content().startsWith("舌苔：1"));
+        assertEquals("抑郁倾向：无法判断\n只有文件大小和格式。", report.results().get(2).content());
+        assertTrue(report.content().contains("面部或舌象存在郁证相关表现"));
+        assertEquals(List.of(16, 256), outputs.stream().map(StructuredOutput::maxTokens).distinct().sorted().toList());
+    }
+}
@@ -0,0 +1,138 @@
+package com.meerkats.wenzhen.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meerkats.wenzhen.config.ReportStoreProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportStoreTests {
+
+    @TempDir
+    Path tempDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    private ReportStoreProperties properties() {
+        ReportStoreProperties properties = new ReportStoreProperties();
+        properties.setDir(tempDir.toString());
+        properties.setSegmentSize(DataSize.ofKilobytes(2));
+        return properties;
+    }
+
+    private ReportStore open(ReportStoreProperties properties) throws Exception {
+        return new ReportStore(properties, objectMapper, new SimpleMeterRegistry());
+    }
+
+    private static DiagnosisReport report(String sessionId) {
+        return new DiagnosisReport(sessionId,
+                List.of(ModalityResult.success(Modality.FACE, "面色正常", 0, 12),
+                        ModalityResult.failed(Modality.VOICE, ModalityResult.Status.TIMEOUT, "超时", 60000)),
+                "报告 " + sessionId, Instant.parse("2026-01-01T00:00:00Z"), 60000);
+    }
+
+    private static long files(Path dir, String suffix) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).count();
+        }
+    }
+
+    @Test
+    void findsReportsAcrossSegmentsAfterRestart() throws Exception {
+        List<String> ids = Stream.generate(() -> UUID.randomUUID().toString()).limit(30).toList();
+        ReportStore store = open(properties());
+        for (String id : ids) {
+            store.append(report(id));
+        }
+        store.append(report("batch-1-0"));
+        assertEquals(report(ids.get(3)), store.find(ids.get(3)));
+        store.close();
+
+        assertTrue(files(tempDir, ".log") > 3);
+        // 除正在写入的分段外都已封存
+        assertEquals(files(tempDir, ".log") - 1, files(tempDir, ".idx"));
+
+        ReportStore reopened = open(properties());
+        for (String id : ids) {
+            assertEquals(report(id), reopened.find(id));
+        }
+        assertEquals(report("batch-1-0"), reopened.find("batch-1-0"));
+        assertNull(reopened.find(UUID.randomUUID().toString()));
+        assertNull(reopened.find(ids.get(0).toUpperCase()));
+        reopened.close();
+    }
+
+    @Test
+    void truncatesPartialRecordOnRecovery() throws Exception {
+        ReportStore store = open(properties());
+        store.append(report("a"));
+        store.append(report("b"));
+        store.close();
+        // 模拟写到一半时进程退出：记录头声明的长度超出文件末尾
+        Path segment = tempDir.resolve(ReportSegment.fileName(1));
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 1, 0, 1, 2, 3, 4, 5, 6}, StandardOpenOption.APPEND);
+
+        ReportStore recovered = open(properties());
+        assertEquals(size, Files.size(segment));
+        assertEquals(report("b"), recovered.find("b"));
+        recovered.append(report("c"));
+        recovered.close();
+
+        ReportStore reopened = open(properties());
+        assertEquals(report("a"), reopened.find("a"));
+        assertEquals(report("c"), reopened.find("c"));
+        reopened.close();
+    }
+
+    @Test
+    void pagesHistoryNewestFirst() throws Exception {
+        ReportStore store = open(properties());
+        for (int i = 0; i < 5; i++) {
+            store.append(report("s" + i));
+        }
+        LocalDate today = store.today();
+
+        ReportStore.Page first = store.history(today, 0, 2);
+        assertEquals(5, first.total());
+        assertEquals(List.of("s4", "s3"), first.reports().stream().map(DiagnosisReport::sessionId).toList());
+        ReportStore.Page last = store.history(today, 2, 2);
+        assertEquals(List.of("s0"), last.reports().stream().map(DiagnosisReport::sessionId).toList());
+        assertTrue(store.history(today, 3, 2).reports().isEmpty());
+        assertEquals(0, store.history(today.minusDays(1), 0, 2).total());
+        store.close();
+    }
+
+    @Test
+    void evictsExpiredSegmentsButKeepsActiveOne() throws Exception {
+        ReportStoreProperties properties = properties();
+        properties.setRetention(Duration.ZERO);
+        ReportStore store = open(properties);
+        for (int i = 0; i < 20; i++) {
+            store.append(report("s" + i));
+        }
+        Thread.sleep(5);
+        store.evictExpired();
+
+        assertEquals(1, files(tempDir, ".log"));
+        assertNull(store.find("s0"));
+        assertEquals(report("s19"), store.find("s19"));
+        ReportStore.Page page = store.history(store.today(), 0, 100);
+        assertEquals(page.total(), page.reports().size());
+        assertEquals("s19", page.reports().get(0).sessionId());
+        store.close();
+    }
+}
@@ -0,0 +1,115 @@
+package com.meerkats.wenzhen.stream;
+
+import com.meerkats.wenzhen.config.SseStreamProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseStreamWriterTests {
+
+    private static final Pattern DATA = Pattern.compile("data:([^\\n]*)\\n");
+
+    /**
+     * 记录每次写出的内容，gate 不为 null 时写出会阻塞，模拟接收很慢的客户端
+     */
+    private static final class RecordingEmitter extends SseEmitter {
+        final List<String> writes = new CopyOnWriteArrayList<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+
+        @Override
+        public void send(Set<DataWithMediaType> items) throws IOException {
+            CountDownLatch current = gate;
+            if (current != null) {
+                try {
+                    current.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            writes.add(items.stream().map(item -> String.valueOf(item.getData())).collect(Collectors.joining()));
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            completed.countDown();
+        }
+    }
+
+    private static SseStreamProperties properties(Duration flushInterval, long maxBufferedBytes) {
+        SseStreamProperties properties = new SseStreamProperties();
+        properties.setFlushInterval(flushInterval);
+        properties.setFlushBytes(1 << 20);
+        properties.setMaxBuffered(DataSize.ofBytes(maxBufferedBytes));
+        properties.setHeartbeatInterval(Duration.ofHours(1));
+        return properties;
+    }
+
+    @Test
+    void tokensWithinTheIntervalAreCoalesced() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        SseStreamWriter writer = new SseStreamWriter(emitter, properties(Duration.ofSeconds(5), 1 << 20));
+
+        writer.append("a");
+        for (int i = 0; i < 50; i++) {
+            writer.append("b");
+        }
+        writer.event("complete", "");
+        AtomicBoolean closedEarly = new AtomicBoolean();
+        writer.onClose(() -> closedEarly.set(true));
+        writer.complete();
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+
+        // 第一个 token 立即发出，其余在间隔内合并，完成事件与之同批写出
+        assertTrue(emitter.writes.size() <= 2, emitter.writes::toString);
+        StringBuilder text = new StringBuilder();
+        Matcher matcher = DATA.matcher(String.join("", emitter.writes));
+        while (matcher.find()) {
+            text.append(matcher.group(1));
+        }
+        assertEquals("a" + "b".repeat(50), text.toString());
+        assertTrue(emitter.writes.getLast().contains("event:complete"));
+        assertFalse(closedEarly.get());
+    }
+
+    @Test
+    void slowConsumerIsDisconnectedAndGenerationCancelled() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitter.gate = new CountDownLatch(1);
+        SseStreamWriter writer = new SseStreamWriter(emitter, properties(Duration.ZERO, 1024));
+        CountDownLatch cancelled = new CountDownLatch(1);
+        writer.onClose(cancelled::countDown);
+
+        writer.append("x");
+        String chunk = "y".repeat(512);
+        assertThrows(SseStreamClosedException.class, () -> {
+            for (int i = 0; i < 10; i++) {
+                writer.append(chunk);
+            }
+        });
+        assertFalse(writer.isOpen());
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+
+        emitter.gate.countDown();
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+    }
+}